@@ -0,0 +1,746 @@
+/*
+	Copyright 2026 LDraw Instruction Visualizer contributors
+	This file is part of LDIVisualizer
+
+	LDIVisualizer is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	LDIVisualizer is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with LDIVisualizer.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package ldivisualizer.bench;
+
+import it.romabrick.ldrawlib.LDPrimitive;
+import it.romabrick.ldrawlib.LDrawCommand;
+import it.romabrick.ldrawlib.LDrawLib;
+import it.romabrick.ldrawlib.LDrawParser;
+import it.romabrick.ldrawlib.LDrawPart;
+import it.romabrick.matrix3d.Matrix3D;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.LineNumberReader;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import jldraw.ImportLDrawProjectTask;
+import jldraw.LDCompactVertex;
+import jldraw.LDFrustumCuller;
+import jldraw.LDRenderedModel;
+import jldraw.LDRenderedPart;
+import jldraw.LDVertexKernel;
+import jldraw.LDrawModel;
+
+/**
+ * Benchmarks for main loading and rendering stages: parser, library
+ * lookup, part mesh generation and Matrix3D
+ *
+ * Runs without a display. See bench/README.md.
+ */
+public class Benchmarks {
+
+	private static void usage() {
+
+		System.out.println("Usage: Benchmarks [-sizes 100,10000,100000] [-warmup <ms>] [-time <ms>] [-dir <folder>]\n"
+				+ "                  [-only <name prefix>]");
+		System.exit(1);
+	}
+
+
+
+	public static void main(String[] args) throws Exception {
+
+		System.setProperty("java.awt.headless", "true");
+		int[] sizes = { 100, 10000, 100000 };
+		long warmup = 2000, time = 5000;
+		File dir = null;
+		String only = "";
+		try {
+			for (int i = 0; i < args.length; i++) {
+				if (args[i].equals("-sizes")) {
+					String[] s = args[++i].split(",");
+					sizes = new int[s.length];
+					for (int k = 0; k < s.length; k++)
+						sizes[k] = Integer.parseInt(s[k].trim());
+				}
+				else if (args[i].equals("-warmup"))
+					warmup = Long.parseLong(args[++i]);
+				else if (args[i].equals("-time"))
+					time = Long.parseLong(args[++i]);
+				else if (args[i].equals("-dir"))
+					dir = new File(args[++i]);
+				else if (args[i].equals("-only"))
+					only = args[++i];
+				else
+					usage();
+			}
+		} catch (ArrayIndexOutOfBoundsException | NumberFormatException ex) {
+			usage();
+		}
+		if (dir == null)
+			dir = Files.createTempDirectory("ldiv-bench").toFile();
+
+		MiniLibrary library = new MiniLibrary(new File(dir, "ldraw"));
+		library.write();
+		final LDrawLib lib = new LDrawLib(library.getRoot(), null);
+		System.out.println("[Benchmarks] Library in " + library.getRoot() + ", java " + System.getProperty("java.version")
+				+ ", " + Runtime.getRuntime().availableProcessors() + " processors");
+
+		Harness h = new Harness(warmup, time, 1 << 22);
+		Harness.printHeader();
+
+		if ("parser".startsWith(only) || only.startsWith("parser"))
+			parser(h, library);
+		if ("lookup".startsWith(only) || only.startsWith("lookup"))
+			lookup(h, lib);
+		if ("zip".startsWith(only) || only.startsWith("zip"))
+			zip(h, library, lib);
+		if ("matrix".startsWith(only) || only.startsWith("matrix"))
+			matrix(h);
+		if ("kernel".startsWith(only) || only.startsWith("kernel"))
+			kernel(h);
+		for (int size : sizes) {
+			File model = library.writeModel(size);
+			if ("import".startsWith(only) || only.startsWith("import"))
+				importModel(h, model, size);
+			if ("import".startsWith(only) || only.startsWith("import"))
+				importCold(h, model, size);
+			if ("mesh".startsWith(only) || only.startsWith("mesh"))
+				mesh(h, model, size);
+			if ("vertex".startsWith(only) || only.startsWith("vertex"))
+				vertex(h, model, size);
+			if ("step".startsWith(only) || only.startsWith("step"))
+				steps(h, model, size);
+			if ("cull".startsWith(only) || only.startsWith("cull"))
+				cull(h, model, size);
+		}
+	}
+
+
+
+	/*
+	 * single lines, all LDraw line types, with regex parser and with
+	 * LDrawScanner
+	 */
+	private static void parser(Harness h, MiniLibrary library) throws Exception {
+
+		final List<String> lines = new ArrayList<String>();
+		File[] folders = { new File(library.getRoot(), "p"), new File(library.getRoot(), "parts") };
+		for (File f : folders) {
+			for (File dat : f.listFiles()) {
+				if (dat.isFile())
+					lines.addAll(Files.readAllLines(dat.toPath(), StandardCharsets.UTF_8));
+			}
+		}
+		final String[] l = lines.toArray(new String[lines.size()]);
+		for (final boolean fast : new boolean[] { false, true }) {
+			h.run("parser.lines." + (fast ? "scanner" : "regex"), l.length, new Harness.Operation() {
+				public long run() throws Exception {
+					LDrawParser.setFastParser(fast);
+					long s = 0;
+					for (String line : l) {
+						LDrawCommand c = LDrawParser.parseCommand(line);
+						LDPrimitive p = null;
+						switch (c) {
+						case REFERENCE:
+							p = LDrawParser.parseLineType1(line, false);
+							break;
+						case LINE:
+							p = LDrawParser.parseLineType2(line);
+							break;
+						case TRIANGLE:
+							p = LDrawParser.parseLineType3(line, false);
+							break;
+						case QUAD:
+							p = LDrawParser.parseLineType4(line, false);
+							break;
+						case AUXLINE:
+							p = LDrawParser.parseLineType5(line);
+							break;
+						default:
+							s += c.ordinal();
+						}
+						if (p != null)
+							s += p.getColorIndex();
+					}
+					return s;
+				}
+			});
+		}
+		LDrawParser.setFastParser(true);
+	}
+
+
+
+	/*
+	 * reads all parts of a zip library from many threads at once, with
+	 * ZipFile and with mapped zip
+	 */
+	private static void zip(Harness h, MiniLibrary library, LDrawLib lib) throws Exception {
+
+		final int copies = 4000;
+		File zip = library.writeZip(copies);
+		final String[] ids = new String[copies + MiniLibrary.BRICKS.length];
+		for (int i = 0; i < copies; i++)
+			ids[i] = "b" + i + ".dat";
+		for (int i = 0; i < MiniLibrary.BRICKS.length; i++)
+			ids[copies + i] = MiniLibrary.BRICKS[i][0];
+		int cores = Runtime.getRuntime().availableProcessors();
+		int[] threads = cores > 1 ? new int[] { 1, cores } : new int[] { 1, 4 };
+		for (boolean mapped : new boolean[] { false, true }) {
+			LDrawLib.mappedZip = mapped;
+			final LDrawLib zl = new LDrawLib(zip.getPath(), null);
+			for (final int t : threads) {
+				final ExecutorService pool = Executors.newFixedThreadPool(t);
+				final List<Callable<Long>> tasks = new ArrayList<Callable<Long>>();
+				for (int k = 0; k < t; k++) {
+					final int first = k;
+					tasks.add(new Callable<Long>() {
+						public Long call() throws Exception {
+							long s = 0;
+							for (int i = first; i < ids.length; i += t) {
+								s += zl.getPartData(ids[i]).length;
+							}
+							return s;
+						}
+					});
+				}
+				h.run("zip.read." + (mapped ? "mapped." : "zipfile.") + t, ids.length, new Harness.Operation() {
+					public long run() throws Exception {
+						long s = 0;
+						for (Future<Long> f : pool.invokeAll(tasks))
+							s += f.get();
+						return s;
+					}
+				});
+				pool.shutdown();
+			}
+		}
+		LDrawLib.mappedZip = true;
+		// back to folder library
+		LDrawPart.setLdrlib(lib);
+	}
+
+
+
+	/*
+	 * finds and opens part files
+	 */
+	private static void lookup(Harness h, final LDrawLib lib) throws Exception {
+
+		final String[] ids = new String[MiniLibrary.BRICKS.length + MiniLibrary.PRIMITIVES.length + 1];
+		int k = 0;
+		for (String[] b : MiniLibrary.BRICKS)
+			ids[k++] = b[0];
+		for (String p : MiniLibrary.PRIMITIVES)
+			ids[k++] = p;
+		ids[k++] = "s\\logo.dat";
+		h.run("lookup.getPart", ids.length, new Harness.Operation() {
+			public long run() throws Exception {
+				long s = 0;
+				for (String id : ids) {
+					LineNumberReader r = lib.getPart(id);
+					if (r != null) {
+						s += r.read();
+						r.close();
+					}
+				}
+				return s;
+			}
+		});
+	}
+
+
+
+	private static void matrix(Harness h) throws Exception {
+
+		final int n = 4096;
+		Random r = new Random(1);
+		final Matrix3D[] m = new Matrix3D[n];
+		final float[] p = new float[n * 3];
+		for (int i = 0; i < n; i++) {
+			m[i] = new Matrix3D().rotateY(r.nextFloat() * 6f).rotateX(r.nextFloat() * 6f).moveTo(r.nextFloat(),
+					r.nextFloat(), r.nextFloat());
+			p[i*3] = r.nextFloat() * 100;
+			p[i*3+1] = r.nextFloat() * 100;
+			p[i*3+2] = r.nextFloat() * 100;
+		}
+		h.run("matrix.transform", n, new Harness.Operation() {
+			public long run() {
+				Matrix3D acc = new Matrix3D();
+				for (int i = 0; i < n; i++) {
+					acc = m[i].transform(acc);
+				}
+				return Float.floatToIntBits(acc.getAsOpenGLMatrix()[12]);
+			}
+		});
+		h.run("matrix.transformPoint", n, new Harness.Operation() {
+			public long run() {
+				float s = 0;
+				Matrix3D t = m[0];
+				for (int i = 0; i < n; i++) {
+					float[] v = t.transformPoint(p[i*3], p[i*3+1], p[i*3+2]);
+					s += v[0] + v[1] + v[2];
+				}
+				return Float.floatToIntBits(s);
+			}
+		});
+		final float[] out = new float[n * 3];
+		h.run("matrix.transformPoints", n, new Harness.Operation() {
+			public long run() {
+				m[0].transformPoints(p, 0, 3, out, 0, 3, n);
+				return Float.floatToIntBits(out[n]);
+			}
+		});
+		// tree of depth 4: every node places 8 children, leaves transform a point
+		h.run("matrix.tree", 8 * 8 * 8 * 8, new Harness.Operation() {
+			public long run() {
+				return walk(new Matrix3D(), m, p, 0, 0);
+			}
+		});
+	}
+
+
+
+	/*
+	 * vertex kernels on interleaved vertex+normal data, as in part VBOs;
+	 * vector kernel only if built and jdk.incubator.vector is available
+	 */
+	private static void kernel(Harness h) throws Exception {
+
+		final int n = 4096;
+		Random r = new Random(1);
+		final Matrix3D m = new Matrix3D().rotateY(0.7f).rotateX(0.3f).moveTo(10f, 20f, 30f);
+		final float[] src = new float[n * 6];
+		for (int i = 0; i < src.length; i++)
+			src[i] = r.nextFloat() * 100;
+		final float[] dst = new float[n * 6];
+		LDVertexKernel[] kernels = { LDVertexKernel.getScalarKernel(), LDVertexKernel.getKernel() };
+		String[] names = { "scalar", "vector" };
+		for (int k = 0; k < kernels.length; k++) {
+			final LDVertexKernel kernel = kernels[k];
+			if (k > 0 && kernel == kernels[0]) {
+				System.out.println("[Benchmarks] Vector kernel not available, see bench/README.md");
+				break;
+			}
+			h.run("kernel.transform." + names[k], n, new Harness.Operation() {
+				public long run() {
+					kernel.transformPoints(m, src, 0, 6, dst, 0, 6, n);
+					kernel.transformNormals(m, src, 3, 6, dst, 3, 6, n);
+					return Float.floatToIntBits(dst[n]);
+				}
+			});
+			h.run("kernel.normalize." + names[k], n, new Harness.Operation() {
+				public long run() {
+					System.arraycopy(src, 0, dst, 0, src.length);
+					kernel.normalize(dst, 3, 6, n);
+					return Float.floatToIntBits(dst[n + 3]);
+				}
+			});
+		}
+	}
+
+
+
+	private static long walk(Matrix3D parent, Matrix3D[] m, float[] p, int depth, int node) {
+
+		if (depth == 4)
+			return Float.floatToIntBits(parent.transformPoint(p[node * 3], p[node * 3 + 1], p[node * 3 + 2])[0]);
+		long s = 0;
+		for (int i = 0; i < 8; i++) {
+			int child = node * 8 + i;
+			s += walk(m[child].transform(parent), m, p, depth + 1, child);
+		}
+		return s;
+	}
+
+
+
+	private static LDrawModel read(File model) throws Exception {
+
+		// same clean-up as main window before import
+		LDrawModel.clearModels();
+		ImportLDrawProjectTask task = new ImportLDrawProjectTask(model);
+		task.run();
+		task.get();
+		return task.getModel();
+	}
+
+
+
+	/*
+	 * whole model file, with parts definitions already cached
+	 */
+	private static void importModel(Harness h, final File model, int size) throws Exception {
+
+		read(model);
+		h.run("import.model." + size, size, new Harness.Operation() {
+			public long run() throws Exception {
+				return read(model).getPartList().size();
+			}
+		});
+	}
+
+
+
+	/*
+	 * whole model file, with empty part cache: parts loaded by import
+	 * thread alone, or prefetched by a pool while file is read
+	 */
+	private static void importCold(Harness h, final File model, int size) throws Exception {
+
+		for (final boolean prefetch : new boolean[] { false, true }) {
+			h.run("import.cold." + size + (prefetch ? ".prefetch" : ".serial"), size, new Harness.Operation() {
+				public long run() throws Exception {
+					ImportLDrawProjectTask.prefetchParts = prefetch;
+					flushPartCache();
+					return read(model).getPartList().size();
+				}
+			});
+		}
+		ImportLDrawProjectTask.prefetchParts = true;
+	}
+
+
+
+	private static void flushPartCache() {
+
+		long limit = LDrawPart.getMemoryCacheLimit();
+		LDrawPart.unpinAll();
+		LDrawPart.setMemoryCacheLimit(0);
+		LDrawPart.setMemoryCacheLimit(limit);
+	}
+
+
+
+	/*
+	 * flattened definitions for a whole model, cached or built from
+	 * scratch, and rendered parts placed from cached definitions
+	 */
+	private static void mesh(Harness h, File model, int size) throws Exception {
+
+		final LDrawPart[] parts = read(model).getPartList().toArray(new LDrawPart[0]);
+		// flattened definitions only, with definitions cached or built again
+		Harness.Operation cached = new Harness.Operation() {
+			public long run() throws IOException {
+				long s = 0;
+				for (LDrawPart p : parts) {
+					s += LDRenderedPart.getDefinitionVertexCount(p);
+				}
+				return s;
+			}
+		};
+		Harness.Operation cleared = new Harness.Operation() {
+			public long run() throws IOException {
+				LDRenderedPart.clearRenderedParts();
+				long s = 0;
+				for (LDrawPart p : parts) {
+					s += LDRenderedPart.getDefinitionVertexCount(p);
+				}
+				return s;
+			}
+		};
+		// placement in direct buffers, definitions cached
+		Harness.Operation place = new Harness.Operation() {
+			public long run() throws IOException {
+				long s = 0;
+				for (LDrawPart p : parts) {
+					s += LDRenderedPart.newRenderedPart(p).getTriangleVertexCount();
+				}
+				return s;
+			}
+		};
+		h.warmup(cleared, cached, place);
+		h.run("mesh.definition." + size + ".cleared", parts.length, cleared);
+		h.run("mesh.definition." + size + ".cached", parts.length, cached);
+		h.run("mesh.place." + size, parts.length, place);
+		boolean indexed = LDRenderedPart.indexedTriangles;
+		LDRenderedPart.indexedTriangles = true;
+		try {
+			h.run("mesh.indexed." + size, parts.length, new Harness.Operation() {
+				public long run() throws IOException {
+					long s = 0;
+					for (LDrawPart p : parts) {
+						s += LDRenderedPart.newRenderedPart(p).getTriangleBufferVertexCount();
+					}
+					return s;
+				}
+			});
+			long drawn = 0, stored = 0;
+			for (LDrawPart p : parts) {
+				LDRenderedPart rp = LDRenderedPart.newRenderedPart(p);
+				drawn += rp.getTriangleVertexCount();
+				stored += rp.getTriangleBufferVertexCount();
+			}
+			System.out.println(String.format("[Benchmarks] mesh.indexed.%d: %d triangle vertex, %d in buffers, reuse %.2f",
+					size, drawn, stored, (float) drawn / stored));
+		} finally {
+			LDRenderedPart.indexedTriangles = indexed;
+		}
+		LDRenderedPart.clearRenderedParts();
+		boolean instanced = LDRenderedPart.instancedParts;
+		LDRenderedPart.instancedParts = true;
+		try {
+			h.run("mesh.instanced." + size, parts.length, new Harness.Operation() {
+				public long run() throws IOException {
+					long s = 0;
+					for (LDrawPart p : parts) {
+						s += LDRenderedPart.newRenderedPart(p).getTriangleVertexCount();
+					}
+					return s;
+				}
+			});
+		} finally {
+			LDRenderedPart.instancedParts = instanced;
+		}
+		LDRenderedPart.clearRenderedParts();
+		System.out.println(String.format("[Benchmarks] mesh.instanced.%d: direct memory %d KB placed, %d KB instanced",
+				size, directMemory(parts, false) / 1024, directMemory(parts, true) / 1024));
+	}
+
+
+
+	/*
+	 * direct buffer memory taken by rendered parts of a model, placed 
+	 * or instanced
+	 */
+	private static long directMemory(LDrawPart[] parts, boolean instanced) throws IOException {
+
+		boolean previous = LDRenderedPart.instancedParts;
+		LDRenderedPart.instancedParts = instanced;
+		try {
+			LDRenderedPart.clearRenderedParts();
+			long before = directUsedAfterGc();
+			LDRenderedPart[] rendered = new LDRenderedPart[parts.length];
+			for (int i = 0; i < parts.length; i++) {
+				rendered[i] = LDRenderedPart.newRenderedPart(parts[i]);
+			}
+			long used = directUsed() - before;
+			LDRenderedPart.clearRenderedParts();
+			return used;
+		} finally {
+			LDRenderedPart.instancedParts = previous;
+		}
+	}
+
+
+
+	/*
+	 * direct buffers are freed after they are collected, not at once
+	 */
+	private static long directUsedAfterGc() throws IOException {
+
+		long used = directUsed();
+		for (int i = 0; i < 20; i++) {
+			System.gc();
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException e) {
+				throw new IOException(e);
+			}
+			long u = directUsed();
+			if (u >= used && i > 0)
+				break;
+			used = u;
+		}
+		return used;
+	}
+
+
+
+	private static long directUsed() {
+
+		for (BufferPoolMXBean b : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+			if ("direct".equals(b.getName()))
+				return b.getMemoryUsed();
+		}
+		return 0;
+	}
+
+
+
+	/*
+	 * triangles of a whole model packed in compact vertex format, with
+	 * float or quantized positions, precision lost against float vertex
+	 * arrays and colors not kept
+	 */
+	private static void vertex(Harness h, File model, int size) throws Exception {
+
+		List<LDRenderedPart> list = new ArrayList<LDRenderedPart>();
+		for (LDrawPart p : read(model).getPartList()) {
+			LDRenderedPart rp = LDRenderedPart.newRenderedPart(p);
+			// a box for quantization needs triangles
+			if (rp.getTriangleVertexCount() > 0)
+				list.add(rp);
+		}
+		final LDRenderedPart[] parts = list.toArray(new LDRenderedPart[0]);
+		h.run("vertex.pack." + size + ".float", parts.length, new Harness.Operation() {
+			public long run() {
+				long s = 0;
+				for (LDRenderedPart p : parts) {
+					s += LDCompactVertex.pack(p.getTrianglesVBO(), p.getTriangleColorVA(),
+							p.getTriangleBufferVertexCount()).capacity();
+				}
+				return s;
+			}
+		});
+		h.run("vertex.pack." + size + ".quantized", parts.length, new Harness.Operation() {
+			public long run() {
+				long s = 0;
+				for (LDRenderedPart p : parts) {
+					s += LDCompactVertex.packQuantized(p.getTrianglesVBO(), p.getTriangleColorVA(),
+							p.getTriangleBufferVertexCount(), LDCompactVertex.getDequantization(p.getBoundingBox()))
+							.capacity();
+				}
+				return s;
+			}
+		});
+		long count = 0, colors = 0;
+		double position = 0, angle = 0;
+		float[] out = new float[3];
+		for (LDRenderedPart p : parts) {
+			int n = p.getTriangleBufferVertexCount();
+			FloatBuffer v = p.getTrianglesVBO();
+			ByteBuffer c = p.getTriangleColorVA();
+			float[] dq = LDCompactVertex.getDequantization(p.getBoundingBox());
+			ByteBuffer b = LDCompactVertex.packQuantized(v, c, n, dq);
+			ByteBuffer f = LDCompactVertex.pack(v, c, n);
+			for (int i = 0; i < n; i++) {
+				// r,g,b,a must come back in same order
+				for (int k = 0; k < 4; k++) {
+					if (b.get(i * LDCompactVertex.QUANTIZED_STRIDE + LDCompactVertex.QUANTIZED_COLOR + k) != c.get(i*4+k)
+							|| f.get(i * LDCompactVertex.FLOAT_STRIDE + LDCompactVertex.FLOAT_COLOR + k) != c.get(i*4+k)) {
+						colors++;
+						break;
+					}
+				}
+				LDCompactVertex.unpackQuantized(b, i, dq, out);
+				for (int k = 0; k < 3; k++) {
+					position = Math.max(position, Math.abs(out[k] - v.get(i*6+k)));
+				}
+				LDCompactVertex.unpackNormal(b.getInt(i * LDCompactVertex.QUANTIZED_STRIDE 
+						+ LDCompactVertex.QUANTIZED_NORMAL), out);
+				double dot = 0, len = 0, len0 = 0;
+				for (int k = 0; k < 3; k++) {
+					dot += out[k] * v.get(i*6+3+k);
+					len += out[k] * out[k];
+					len0 += v.get(i*6+3+k) * v.get(i*6+3+k);
+				}
+				if (len > 0 && len0 > 0)
+					angle = Math.max(angle, Math.toDegrees(Math.acos(Math.min(1, dot / Math.sqrt(len * len0)))));
+			}
+			count += n;
+		}
+		System.out.println(String.format("[Benchmarks] vertex.pack.%d: %d vertex, bytes/vertex %d float arrays, " 
+				+ "%d compact, %d quantized; max position error %.5f LDU, max normal error %.3f deg, "
+				+ "wrong colors %d",
+				size, count, 6 * 4 + 4, LDCompactVertex.FLOAT_STRIDE, LDCompactVertex.QUANTIZED_STRIDE, 
+				position, angle, colors));
+		LDRenderedPart.clearRenderedParts();
+	}
+
+
+
+	/*
+	 * view frustum culling of all parts of a model, with whole model in
+	 * view and zoomed on a corner (1/16 of model area)
+	 */
+	private static void cull(Harness h, File model, int size) throws Exception {
+
+		List<LDRenderedPart> parts = new ArrayList<LDRenderedPart>();
+		float[] lo = { Float.MAX_VALUE, Float.MAX_VALUE };
+		float[] hi = { -Float.MAX_VALUE, -Float.MAX_VALUE };
+		for (LDrawPart p : read(model).getPartList()) {
+			LDRenderedPart rp = LDRenderedPart.newRenderedPart(p);
+			float[] b = rp.getBoundingBox();
+			if (b == null)
+				continue;
+			parts.add(rp);
+			for (int k = 0; k < 2; k++) {
+				lo[k] = Math.min(lo[k], b[k]);
+				hi[k] = Math.max(hi[k], b[k+3]);
+			}
+		}
+		final LDFrustumCuller culler = new LDFrustumCuller(parts);
+		final float[] modelView = new float[] { 1,0,0,0, 0,1,0,0, 0,0,1,0, 0,0,0,1 };
+		float w = (hi[0] - lo[0]) / 4, ht = (hi[1] - lo[1]) / 4;
+		String[] views = { "full", "corner" };
+		float[][] projections = { 
+				ortho(lo[0], hi[0], lo[1], hi[1]), 
+				ortho(lo[0], lo[0] + w, lo[1], lo[1] + ht) };
+		for (int v = 0; v < views.length; v++) {
+			final float[] projection = projections[v];
+			h.run("cull." + size + "." + views[v], culler.getPartCount(), new Harness.Operation() {
+				public long run() {
+					return culler.cull(projection, modelView);
+				}
+			});
+			int culled = culler.cull(projection, modelView);
+			System.out.println(String.format("[Benchmarks] cull.%d.%s: %d parts, %d culled, %d drawn",
+					size, views[v], culler.getPartCount(), culled, culler.getPartCount() - culled));
+		}
+		LDRenderedPart.clearRenderedParts();
+	}
+
+
+
+	/*
+	 * orthographic projection as glOrtho(), with any z in view
+	 */
+	private static float[] ortho(float l, float r, float b, float t) {
+
+		float n = -1e6f, f = 1e6f;
+		return new float[] {
+				2 / (r - l), 0, 0, 0,
+				0, 2 / (t - b), 0, 0,
+				0, 0, -2 / (f - n), 0,
+				-(r + l) / (r - l), -(t + b) / (t - b), -(f + n) / (f - n), 1 };
+	}
+
+
+
+	/*
+	 * scrubbing through all steps of a model, forward and back, in
+	 * cumulative and single step mode
+	 */
+	private static void steps(Harness h, File model, int size) throws Exception {
+
+		final LDrawModel m = read(model);
+		final LDRenderedModel rendered = LDRenderedModel.newLDRenderedModel(m, null);
+		rendered.run();
+		final int steps = m.stepCount();
+		for (final boolean single : new boolean[] { false, true }) {
+			h.run("step.scrub." + size + (single ? ".single" : ".cumulative"), 2 * steps, new Harness.Operation() {
+				public long run() {
+					for (int k = 1; k <= steps; k++)
+						rendered.toggleVisibiltyForAllParts(k, single);
+					for (int k = steps; k >= 1; k--)
+						rendered.toggleVisibiltyForAllParts(k, single);
+					return rendered.getVisibleParts().size();
+				}
+			});
+		}
+		LDRenderedPart.clearRenderedParts();
+	}
+
+}
@@ -0,0 +1,166 @@
+/*
+	Copyright 2026 LDraw Instruction Visualizer contributors
+	This file is part of LDIVisualizer
+
+	LDIVisualizer is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	LDIVisualizer is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with LDIVisualizer.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package ldivisualizer.bench;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Minimal benchmark harness
+ *
+ * Every benchmark is run for a warm-up time, then measured for a fixed
+ * time, timing every single operation. Reports throughput, latency
+ * percentiles, bytes allocated by benchmark thread for operation and
+ * garbage collections, like JMH with gc profiler in sample time mode.
+ */
+class Harness {
+
+	interface Operation {
+		/**
+		 * @return any value computed, so work can't be optimized away
+		 */
+		long run() throws Exception;
+	}
+
+	private final long warmupNs;
+	private final long measureNs;
+	private final int maxSamples;
+	private final com.sun.management.ThreadMXBean threadBean;
+	// results are summed here, so JIT can't remove operations
+	static volatile long sink;
+
+
+	Harness(long warmupMs, long measureMs, int maxSamples) {
+
+		warmupNs = warmupMs * 1000000L;
+		measureNs = measureMs * 1000000L;
+		this.maxSamples = maxSamples;
+		ThreadMXBean tb = ManagementFactory.getThreadMXBean();
+		if (tb instanceof com.sun.management.ThreadMXBean
+				&& ((com.sun.management.ThreadMXBean) tb).isThreadAllocatedMemorySupported()) {
+			threadBean = (com.sun.management.ThreadMXBean) tb;
+			threadBean.setThreadAllocatedMemoryEnabled(true);
+		} else {
+			threadBean = null;
+		}
+	}
+
+
+
+	static void printHeader() {
+
+		System.out.println(String.format(Locale.US, "%-34s %9s %10s %12s %10s %10s %10s %10s %14s %6s",
+				"Benchmark", "items/op", "ops/s", "items/s", "p50 us", "p90 us", "p99 us", "max us",
+				"alloc B/op", "gc"));
+	}
+
+
+
+	/**
+	 * Runs and prints a benchmark
+	 *
+	 * @param name		benchmark name
+	 * @param items		items processed by an operation (lines, parts, points...)
+	 * @param op		operation
+	 */
+	void run(String name, int items, Operation op) throws Exception {
+
+		long s = 0;
+		long end = System.nanoTime() + warmupNs;
+		while (System.nanoTime() < end) {
+			s += op.run();
+		}
+		System.gc();
+
+		long[] samples = new long[maxSamples];
+		int n = 0;
+		long gcBefore = gcCount();
+		long allocBefore = allocated();
+		long start = System.nanoTime();
+		end = start + measureNs;
+		long t = start;
+		do {
+			s += op.run();
+			long t1 = System.nanoTime();
+			samples[n++] = t1 - t;
+			t = t1;
+		} while (t < end && n < samples.length);
+		long elapsed = t - start;
+		long alloc = allocated() - allocBefore;
+		long gc = gcCount() - gcBefore;
+		sink += s;
+
+		Arrays.sort(samples, 0, n);
+		double opsPerSecond = n * 1e9 / elapsed;
+		System.out.println(String.format(Locale.US, "%-34s %9d %10.1f %12.0f %10.1f %10.1f %10.1f %10.1f %14s %6d",
+				name, items, opsPerSecond, opsPerSecond * items, percentile(samples, n, 0.5) / 1e3,
+				percentile(samples, n, 0.9) / 1e3, percentile(samples, n, 0.99) / 1e3, samples[n - 1] / 1e3,
+				alloc < 0 ? "n/a" : String.valueOf(alloc / n), gc));
+	}
+
+
+
+	/**
+	 * Runs operations in turn for warm-up time, not measured: benchmarks
+	 * run after it don't depend on which one runs first
+	 */
+	void warmup(Operation... ops) throws Exception {
+
+		long s = 0;
+		long end = System.nanoTime() + warmupNs;
+		while (System.nanoTime() < end) {
+			for (Operation op : ops) {
+				s += op.run();
+			}
+		}
+		sink += s;
+		System.gc();
+	}
+
+
+
+	private static long percentile(long[] sorted, int n, double p) {
+
+		int i = (int) Math.ceil(p * n) - 1;
+		return sorted[Math.max(0, Math.min(n - 1, i))];
+	}
+
+
+	private long allocated() {
+
+		if (threadBean == null)
+			return -1;
+		return threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+
+	private static long gcCount() {
+
+		long c = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			c += Math.max(0, gc.getCollectionCount());
+		}
+		return c;
+	}
+
+}
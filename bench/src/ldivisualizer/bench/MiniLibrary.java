@@ -0,0 +1,253 @@
+/*
+	Copyright 2026 LDraw Instruction Visualizer contributors
+	This file is part of LDIVisualizer
+
+	LDIVisualizer is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	LDIVisualizer is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with LDIVisualizer.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package ldivisualizer.bench;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Synthetic LDraw library and models for benchmarks
+ *
+ * A few bricks built from the usual primitives (box, stud made of
+ * circle edge, cylinder and disc), a subpart and a moved-to part, so
+ * library lookup, nested references, BFC and edge lines are all
+ * exercised. Models are placed bricks with a STEP every 25 parts.
+ */
+class MiniLibrary {
+
+	// part name, description, width and depth in studs
+	static final String[][] BRICKS = {
+		{ "3001.dat", "Brick  2 x  4", "2", "4" },
+		{ "3002.dat", "Brick  2 x  3", "2", "3" },
+		{ "3003.dat", "Brick  2 x  2", "2", "2" },
+		{ "3004.dat", "Brick  1 x  2", "1", "2" },
+		{ "3005.dat", "Brick  1 x  1", "1", "1" },
+		{ "3010.dat", "Brick  1 x  4", "1", "4" },
+		{ "99999.dat", "~Moved to 3001", "0", "0" },
+	};
+	static final String[] PRIMITIVES = { "stud.dat", "box5.dat", "4-4edge.dat", "4-4cyli.dat", "4-4disc.dat" };
+	static final int[] COLORS = { 0, 1, 4, 14, 15, 47 };
+	// circle primitives segments
+	private static final int SEGMENTS = 16;
+
+	private final File root;
+
+
+	MiniLibrary(File root) {
+
+		this.root = root;
+	}
+
+
+	File getRoot() {
+		return root;
+	}
+
+
+
+	/**
+	 * Writes library files below root
+	 */
+	void write() throws IOException {
+
+		new File(root, "p/48").mkdirs();
+		new File(root, "p/8").mkdirs();
+		new File(root, "parts/s").mkdirs();
+		PrintWriter w = open("LDConfig.ldr");
+		w.println("0 LDraw.org Configuration File");
+		w.println("0 Name: LDConfig.ldr");
+		w.println("0 !COLOUR Black CODE 0 VALUE #05131D EDGE #595959");
+		w.println("0 !COLOUR Blue CODE 1 VALUE #0055BF EDGE #333333");
+		w.println("0 !COLOUR Red CODE 4 VALUE #C91A09 EDGE #333333");
+		w.println("0 !COLOUR Yellow CODE 14 VALUE #F2CD37 EDGE #333333");
+		w.println("0 !COLOUR White CODE 15 VALUE #FFFFFF EDGE #333333");
+		w.println("0 !COLOUR Main_Colour CODE 16 VALUE #FFFF80 EDGE #333333");
+		w.println("0 !COLOUR Edge_Colour CODE 24 VALUE #7F7F7F EDGE #333333");
+		w.println("0 !COLOUR Trans_Clear CODE 47 VALUE #FCFCFC EDGE #C3C3C3 ALPHA 128");
+		w.close();
+
+		w = header("p/box5.dat", "Box 5", "Primitive");
+		w.println("4 16 1 1 1 -1 1 1 -1 1 -1 1 1 -1");
+		w.println("4 16 1 1 1 1 0 1 -1 0 1 -1 1 1");
+		w.println("4 16 -1 1 -1 -1 0 -1 1 0 -1 1 1 -1");
+		w.println("4 16 1 1 -1 1 0 -1 1 0 1 1 1 1");
+		w.println("4 16 -1 1 1 -1 0 1 -1 0 -1 -1 1 -1");
+		w.println("2 24 1 0 1 -1 0 1");
+		w.println("2 24 -1 0 1 -1 0 -1");
+		w.println("2 24 -1 0 -1 1 0 -1");
+		w.println("2 24 1 0 -1 1 0 1");
+		w.close();
+
+		PrintWriter edge = header("p/4-4edge.dat", "Circle 1.0", "Primitive");
+		PrintWriter cyli = header("p/4-4cyli.dat", "Cylinder 1.0", "Primitive");
+		PrintWriter disc = header("p/4-4disc.dat", "Disc 1.0", "Primitive");
+		for (int i = 0; i < SEGMENTS; i++) {
+			double a0 = 2 * Math.PI * i / SEGMENTS;
+			double a1 = 2 * Math.PI * (i + 1) / SEGMENTS;
+			double a2 = 2 * Math.PI * (i + 2) / SEGMENTS;
+			String p0 = point(Math.cos(a0), 0, Math.sin(a0));
+			String p1 = point(Math.cos(a1), 0, Math.sin(a1));
+			edge.println("2 24 " + p0 + " " + p1);
+			cyli.println("4 16 " + point(Math.cos(a0), 1, Math.sin(a0)) + " " + point(Math.cos(a1), 1, Math.sin(a1))
+					+ " " + p1 + " " + p0);
+			cyli.println("5 24 " + point(Math.cos(a1), 1, Math.sin(a1)) + " " + p1 + " " + p0 + " "
+					+ point(Math.cos(a2), 0, Math.sin(a2)));
+			disc.println("3 16 0 0 0 " + p0 + " " + p1);
+		}
+		edge.close();
+		cyli.close();
+		disc.close();
+
+		w = header("p/stud.dat", "Stud", "Primitive");
+		w.println("1 16 0 0 0 6 0 0 0 1 0 0 0 6 4-4edge.dat");
+		w.println("1 16 0 -4 0 6 0 0 0 1 0 0 0 6 4-4edge.dat");
+		w.println("0 BFC INVERTNEXT");
+		w.println("1 16 0 -4 0 6 0 0 0 4 0 0 0 6 4-4cyli.dat");
+		w.println("1 16 0 -4 0 6 0 0 0 1 0 0 0 6 4-4disc.dat");
+		w.close();
+
+		w = header("parts/s/logo.dat", "~Logo", "Subpart");
+		w.println("3 16 0 -5 0 1 -5 0 0 -5 1");
+		w.println("2 24 0 -5 0 1 -5 0");
+		w.close();
+
+		for (String[] b : BRICKS) {
+			int sx = Integer.parseInt(b[2]);
+			int sz = Integer.parseInt(b[3]);
+			w = header("parts/" + b[0], b[1], "Part");
+			if (sx == 0) {
+				w.println("1 16 0 0 0 1 0 0 0 1 0 0 0 1 3001.dat");
+				w.close();
+				continue;
+			}
+			w.println("1 16 0 24 0 " + sx * 10 + " 0 0 0 -24 0 0 0 " + sz * 10 + " box5.dat");
+			for (int x = 0; x < sx; x++) {
+				for (int z = 0; z < sz; z++) {
+					w.println("1 16 " + ((2 * x - sx + 1) * 10) + " 0 " + ((2 * z - sz + 1) * 10)
+							+ " 1 0 0 0 1 0 0 0 1 stud.dat");
+				}
+			}
+			w.println("1 16 0 0 0 1 0 0 0 1 0 0 0 1 s\\logo.dat");
+			w.close();
+		}
+	}
+
+
+
+	/**
+	 * Writes a model with placed bricks, random colors and positions
+	 *
+	 * @return model file
+	 */
+	File writeModel(int parts) throws IOException {
+
+		File model = new File(root, "models/model-" + parts + ".ldr");
+		model.getParentFile().mkdirs();
+		Random r = new Random(parts);
+		int side = (int) Math.ceil(Math.cbrt(parts)) + 1;
+		PrintWriter w = new PrintWriter(model, "UTF-8");
+		w.println("0 Synthetic model " + parts);
+		w.println("0 Name: " + model.getName());
+		w.println("0 Author: LDIVisualizer benchmarks");
+		for (int i = 0; i < parts; i++) {
+			if (i % 25 == 0)
+				w.println("0 STEP");
+			String[] b = BRICKS[r.nextInt(BRICKS.length)];
+			int color = COLORS[r.nextInt(COLORS.length)];
+			String rot = r.nextBoolean() ? "1 0 0 0 1 0 0 0 1" : "-1 0 0 0 1 0 0 0 -1";
+			w.println("1 " + color + " " + (r.nextInt(side) - side / 2) * 40 + " " + (-24 * r.nextInt(side)) + " "
+					+ (r.nextInt(side) - side / 2) * 40 + " " + rot + " " + b[0]);
+		}
+		w.println("0 STEP");
+		w.close();
+		return model;
+	}
+
+
+
+	/**
+	 * Writes library as a zip file, like complete.zip, with copies of
+	 * brick 3001 as more parts (b0.dat, b1.dat...) to get a central
+	 * directory of realistic size. Library must be written before.
+	 *
+	 * @return zip file
+	 */
+	File writeZip(int copies) throws IOException {
+
+		File zip = new File(root.getParentFile(), "complete-" + copies + ".zip");
+		ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip));
+		for (String folder : new String[] { "", "p/", "p/48/", "p/8/", "parts/", "parts/s/" }) {
+			File[] files = new File(root, folder).listFiles();
+			if (files == null)
+				continue;
+			for (File f : files) {
+				if (f.isFile())
+					addEntry(out, "ldraw/" + folder + f.getName(), Files.readAllBytes(f.toPath()));
+			}
+		}
+		byte[] brick = Files.readAllBytes(new File(root, "parts/" + BRICKS[0][0]).toPath());
+		for (int i = 0; i < copies; i++) {
+			addEntry(out, "ldraw/parts/b" + i + ".dat", brick);
+		}
+		out.close();
+		return zip;
+	}
+
+
+	private static void addEntry(ZipOutputStream out, String name, byte[] data) throws IOException {
+
+		out.putNextEntry(new ZipEntry(name));
+		out.write(data);
+		out.closeEntry();
+	}
+
+
+
+	private PrintWriter open(String name) throws IOException {
+
+		return new PrintWriter(new File(root, name), "UTF-8");
+	}
+
+
+	private PrintWriter header(String name, String description, String type) throws IOException {
+
+		PrintWriter w = open(name);
+		w.println("0 " + description);
+		w.println("0 Name: " + name.substring(name.indexOf('/') + 1).replace('/', '\\'));
+		w.println("0 Author: LDIVisualizer benchmarks");
+		w.println("0 !LDRAW_ORG " + type);
+		w.println("0 BFC CERTIFY CCW");
+		return w;
+	}
+
+
+	private static String point(double x, double y, double z) {
+
+		return String.format(Locale.US, "%.4f %.4f %.4f", x, y, z);
+	}
+
+}
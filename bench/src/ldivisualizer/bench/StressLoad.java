@@ -0,0 +1,157 @@
+/*
+	Copyright 2026 LDraw Instruction Visualizer contributors
+	This file is part of LDIVisualizer
+
+	LDIVisualizer is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	LDIVisualizer is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with LDIVisualizer.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package ldivisualizer.bench;
+
+import it.romabrick.ldrawlib.LDrawLib;
+import it.romabrick.ldrawlib.LDrawPart;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import jldraw.ImportLDrawProjectTask;
+import jldraw.LDrawModel;
+
+/**
+ * Stress check for shared part registries: imports many models at
+ * once from many threads and compares every result with a model
+ * imported alone. Also checks that every library part is loaded only
+ * once, even when all threads ask for it at same time.
+ *
+ * Exits with status 1 on first difference. See bench/README.md.
+ */
+public class StressLoad {
+
+	private static void usage() {
+
+		System.out.println("Usage: StressLoad [-threads <n>] [-models <n>] [-parts <n>] [-rounds <n>] [-dir <folder>]");
+		System.exit(1);
+	}
+
+
+
+	public static void main(String[] args) throws Exception {
+
+		System.setProperty("java.awt.headless", "true");
+		int threads = 8, models = 32, parts = 2000, rounds = 5;
+		File dir = null;
+		try {
+			for (int i = 0; i < args.length; i++) {
+				if (args[i].equals("-threads"))
+					threads = Integer.parseInt(args[++i]);
+				else if (args[i].equals("-models"))
+					models = Integer.parseInt(args[++i]);
+				else if (args[i].equals("-parts"))
+					parts = Integer.parseInt(args[++i]);
+				else if (args[i].equals("-rounds"))
+					rounds = Integer.parseInt(args[++i]);
+				else if (args[i].equals("-dir"))
+					dir = new File(args[++i]);
+				else
+					usage();
+			}
+		} catch (ArrayIndexOutOfBoundsException | NumberFormatException ex) {
+			usage();
+		}
+		if (dir == null)
+			dir = Files.createTempDirectory("ldiv-stress").toFile();
+
+		MiniLibrary library = new MiniLibrary(new File(dir, "ldraw"));
+		library.write();
+		new LDrawLib(library.getRoot(), null);
+		final File model = library.writeModel(parts);
+
+		// reference: model imported alone, with empty part cache
+		flushPartCache();
+		long loads = LDrawPart.getMemoryCacheLoads();
+		String expected = describe(read(model));
+		long expectedLoads = LDrawPart.getMemoryCacheLoads() - loads;
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		for (int r = 1; r <= rounds; r++) {
+			flushPartCache();
+			loads = LDrawPart.getMemoryCacheLoads();
+			List<Future<String>> results = new ArrayList<Future<String>>();
+			for (int m = 0; m < models; m++) {
+				results.add(pool.submit(new Callable<String>() {
+					public String call() throws Exception {
+						return describe(read(model));
+					}
+				}));
+			}
+			for (int m = 0; m < models; m++) {
+				if (!expected.equals(results.get(m).get())) {
+					System.out.println("[StressLoad] FAILED: round " + r + ", model " + m + " differs");
+					System.exit(1);
+				}
+			}
+			long l = LDrawPart.getMemoryCacheLoads() - loads;
+			if (l != expectedLoads) {
+				System.out.println("[StressLoad] FAILED: round " + r + ", " + l + " part loads, expected " + expectedLoads);
+				System.exit(1);
+			}
+			System.out.println("[StressLoad] Round " + r + ": " + models + " models on " + threads + " threads, "
+					+ l + " part loads, all identical");
+		}
+		pool.shutdown();
+		System.out.println("[StressLoad] OK");
+	}
+
+
+
+	private static void flushPartCache() {
+
+		long limit = LDrawPart.getMemoryCacheLimit();
+		LDrawPart.unpinAll();
+		LDrawPart.setMemoryCacheLimit(0);
+		LDrawPart.setMemoryCacheLimit(limit);
+	}
+
+
+
+	private static LDrawModel read(File model) throws Exception {
+
+		ImportLDrawProjectTask task = new ImportLDrawProjectTask(model);
+		task.run();
+		task.get();
+		return task.getModel();
+	}
+
+
+
+	/*
+	 * placed parts, in model order: part, color, placement
+	 */
+	private static String describe(LDrawModel model) {
+
+		StringBuilder sb = new StringBuilder();
+		for (LDrawPart p : model.getPartList()) {
+			sb.append(p.getLdrawid()).append(' ').append(p.getColorIndex()).append(' ')
+					.append(p.getTransform()).append(' ').append(p.getPrimitives().size()).append('\n');
+		}
+		return sb.toString();
+	}
+
+}
@@ -225,8 +225,19 @@ public class LDPrimitive {
 		return l;
 	}
 
+	/*
+	 * line or polygon with already computed normal, used by binary part cache
+	 */
+	static LDPrimitive newGeometry(LDrawCommand type, int color, float[] vertex, float[] normal) {
+
+		LDPrimitive l = new LDPrimitive(type, color, null);
+		l.vertex = vertex;
+		l.normal = normal;
+		return l;
+	}
+
 	/**
-	 * 
+	 *
 	 * @param id	unique identification number.
 	 * @return 		a single step in an Instruction book.
 	 */
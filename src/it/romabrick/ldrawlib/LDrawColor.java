@@ -24,6 +24,7 @@ import java.awt.Color;
 import java.io.IOException;
 import java.io.LineNumberReader;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
@@ -43,7 +44,16 @@ public class LDrawColor {
 	private Color c;
 	private Color edge;
 	private String name;
-	private static Map<Integer, LDrawColor> ldrColors = new LinkedHashMap<Integer, LDrawColor>();
+
+	/*
+	 * color table of current context library (see LDrawContext), read by
+	 * every thread, replaced as a whole when library colors are read
+	 */
+	private static Map<Integer, LDrawColor> colors() {
+
+		LDrawLib lib = LDrawContext.current().getLibrary();
+		return lib != null ? lib.colors : Collections.<Integer, LDrawColor> emptyMap();
+	}
 
 	private LDrawColor(int id, Color c, Color e, String n) {
 
@@ -65,7 +75,7 @@ public class LDrawColor {
 	static public Color getColorById(int id) {
 
 		if (id < 0x2000000) {
-			Color c = ldrColors.get(id).c;
+			Color c = colors().get(id).c;
 			if (c != null)
 				return c;
 		} else if (id < 0x3000000)
@@ -84,7 +94,7 @@ public class LDrawColor {
 	static public Color getEdgeColorById(int id) {
 
 		if (id < 0x2000000) {
-			Color c = ldrColors.get(id).edge;
+			Color c = colors().get(id).edge;
 			if (c != null)
 				return c;
 		} else if (id < 0x3000000) {
@@ -107,7 +117,7 @@ public class LDrawColor {
 	static public boolean isLDrawColor(int id) {
 
 		if (id < 0x2000000)
-			return ldrColors.containsKey(id);
+			return colors().containsKey(id);
 		else if (id < 0x3000000)
 			// is a direct color
 			return true;
@@ -129,10 +139,10 @@ public class LDrawColor {
 		LDrawColor c;
 
 		if (id < 0x2000000) {
-			c = ldrColors.get(id);
+			c = colors().get(id);
 			if (c == null) {
 				LDlogger.warn("[LdrawColor] Unknown color: " + id);
-				return ldrColors.get(INVALID_COLOR);
+				return colors().get(INVALID_COLOR);
 			}
 			return c;
 		} else if (id < 0x3000000) {
@@ -140,7 +150,7 @@ public class LDrawColor {
 			return newLDrawColor("Direct color", id, new Color(id - 0x2000000), Color.BLACK);
 		}
 		LDlogger.warn("[LdrawColor] Illegal direct color: " + id);
-		return ldrColors.get(INVALID_COLOR);
+		return colors().get(INVALID_COLOR);
 	}
 
 	public String toString() {
@@ -207,6 +217,7 @@ public class LDrawColor {
 			throw new IllegalArgumentException("[LDRawLib.readFromLibrary] LDraw library object cannot be null");
 		}
 		LineNumberReader lnr = ldlib.getFile(ldrconfig);
+		Map<Integer, LDrawColor> colors = new LinkedHashMap<Integer, LDrawColor>();
 		try {
 			while ((l = lnr.readLine()) != null) {
 				LDrawCommand cmd = LDrawParser.parseCommand(l);
@@ -215,7 +226,7 @@ public class LDrawColor {
 				LDrawColor ldc;
 				try {
 					ldc = LDrawParser.parseColour(l);
-					ldrColors.put(ldc.id, ldc);
+					colors.put(ldc.id, ldc);
 				} catch (LDrawException e) {
 					LDlogger.error(ldrconfig, lnr.getLineNumber(), "Unable to parse !COLOUR definition in library");
 				}
@@ -225,11 +236,12 @@ public class LDrawColor {
 					+ lnr.getLineNumber());
 		}
 		// put invalid color code and color schema (deep black with red lines)
-		ldrColors.put(-1, new LDrawColor(-1, Color.BLACK, Color.RED, "Invalid/Unknown color"));
+		colors.put(-1, new LDrawColor(-1, Color.BLACK, Color.RED, "Invalid/Unknown color"));
+		ldlib.colors = Collections.unmodifiableMap(colors);
 	}
 
 	public static Collection<LDrawColor> getColorList() {
-		return ldrColors.values();
+		return colors().values();
 	}
 
 }
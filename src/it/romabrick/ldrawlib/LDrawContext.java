@@ -0,0 +1,211 @@
+/*
+	Copyright 2026 LDraw Instruction Visualizer contributors
+	This file is part of LDrawLib.
+
+	LDrawLib is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	LDrawLib is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with LDrawLib.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package it.romabrick.ldrawlib;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A model loading session: LDraw library in use, custom parts and
+ * submodels read from model file, placed parts, and any other state
+ * a client attaches to it (see getExtension())
+ *
+ * Static methods of LDrawPart and LDrawColor work on current context of
+ * calling thread. A thread uses default context, unless another context
+ * is made current with setCurrent(), so a single-model application
+ * doesn't need to know about contexts at all. To load and render many
+ * models at once, use a context for every model, and make it current
+ * in every thread that works for it:
+ * <pre>
+ *  LDrawContext previous = LDrawContext.setCurrent(context);
+ *  try {
+ *      ...
+ *  } finally {
+ *      LDrawContext.setCurrent(previous);
+ *  }
+ * </pre>
+ *
+ * Library part definitions and colors are read-only and belong to
+ * LDrawLib, so contexts using same library share them.
+ */
+public class LDrawContext {
+
+	private static final LDrawContext defaultContext = new LDrawContext();
+	private static final ThreadLocal<LDrawContext> current = new ThreadLocal<LDrawContext>();
+
+	private volatile LDrawLib library = null;
+	// submodels and custom parts are added by import thread, read by rendering threads
+	final ConcurrentMap<String, LDrawPart> customParts = new ConcurrentHashMap<String, LDrawPart>();
+	// placed parts, read by EDT for selection
+	final Map<Integer, LDrawPart> placedParts = new ConcurrentHashMap<Integer, LDrawPart>();
+	// library parts pinned in library cache by this context
+	private final Set<String> pinned = new HashSet<String>();
+	private final ConcurrentMap<Class<?>, Object> extensions = new ConcurrentHashMap<Class<?>, Object>();
+
+
+
+	private LDrawContext() {
+	}
+
+
+
+	/**
+	 * New context using library lib
+	 */
+	public LDrawContext(LDrawLib lib) {
+
+		setLibrary(lib);
+	}
+
+
+
+	/**
+	 * @return context used by threads without a current context. Its
+	 *         library is last LDrawLib created
+	 */
+	public static LDrawContext getDefault() {
+
+		return defaultContext;
+	}
+
+
+
+	/**
+	 * @return current context of calling thread
+	 */
+	public static LDrawContext current() {
+
+		LDrawContext c = current.get();
+		return c != null ? c : defaultContext;
+	}
+
+
+
+	/**
+	 * Makes context current for calling thread
+	 *
+	 * @param context
+	 *            new current context, <b>null</b> to go back to default
+	 * @return previous current context, <b>null</b> if it was default
+	 */
+	public static LDrawContext setCurrent(LDrawContext context) {
+
+		LDrawContext previous = current.get();
+		if (context == null || context == defaultContext)
+			current.remove();
+		else
+			current.set(context);
+		return previous;
+	}
+
+
+
+	public LDrawLib getLibrary() {
+
+		return library;
+	}
+
+
+
+	/**
+	 * Changes library, parts pinned by this context are released
+	 */
+	synchronized void setLibrary(LDrawLib lib) {
+
+		if (lib == null)
+			throw new NullPointerException("[LDrawContext] LDraw library can't be null");
+		if (library != null && library != lib)
+			unpinAll();
+		library = lib;
+	}
+
+
+
+	/**
+	 * @return library of this context
+	 * @throws IllegalStateException
+	 *             if no library is set
+	 */
+	LDrawLib requireLibrary() {
+
+		LDrawLib lib = library;
+		if (lib == null) {
+			throw new IllegalStateException("[LDrawPart] LDraw library not initialized");
+		}
+		return lib;
+	}
+
+
+
+	/**
+	 * Pins library parts in library cache, until unpinAll()
+	 */
+	synchronized void pin(Collection<String> ids) {
+
+		Set<String> added = new HashSet<String>();
+		for (String id : ids) {
+			if (pinned.add(id))
+				added.add(id);
+		}
+		requireLibrary().getPartMemoryCache().pin(added);
+	}
+
+
+
+	synchronized void unpinAll() {
+
+		if (library != null)
+			library.getPartMemoryCache().unpin(pinned);
+		pinned.clear();
+	}
+
+
+
+	/**
+	 * Returns state attached to this context by a client
+	 *
+	 * @param type
+	 *            class of attached object, used as key
+	 * @return attached object, or <b>null</b>
+	 */
+	public <T> T getExtension(Class<T> type) {
+
+		return type.cast(extensions.get(type));
+	}
+
+
+
+	/**
+	 * Attaches an object to this context, if there isn't one yet
+	 *
+	 * @return attached object: value, or object attached before by another
+	 *         thread
+	 */
+	public <T> T putExtensionIfAbsent(Class<T> type, T value) {
+
+		Object other = extensions.putIfAbsent(type, value);
+		return other != null ? type.cast(other) : value;
+	}
+
+}
@@ -21,21 +21,23 @@
 
 package it.romabrick.ldrawlib;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.LineNumberReader;
-import java.util.Enumeration;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class LDrawLib {
 
 	private String official, unofficial;
-	private ZipFile o, u;
+	private LDrawZipArchive o, u;
 	private boolean fromFolder = false;
 	private boolean officialOnly = false;
 	private boolean forceLoRes = false;
@@ -53,6 +55,21 @@ public class LDrawLib {
 	private final String uModelsPath = "models/";
 	private Map<String, String> officialParts = new HashMap<String, String>();
 	private Map<String, String> unofficialParts = new HashMap<String, String>();
+	private Map<String, long[]> officialStamps = new HashMap<String, long[]>();
+	private Map<String, long[]> unofficialStamps = new HashMap<String, long[]>();
+	private static final String[] folders = { "p", "p/48", "p/8", "parts", "parts/s" };
+	private static File indexDirectory = null;
+	private long indexingTime = 0;
+	// read-only part definitions and colors, shared by contexts using this library
+	private final LDrawPartMemoryCache partCache = new LDrawPartMemoryCache(Runtime.getRuntime().maxMemory() / 4);
+	volatile Map<Integer, LDrawColor> colors = Collections.emptyMap();
+	private boolean indexReused = false;
+	private volatile Map<String, String> basenameIndex = null;
+	// file descriptions by basename, NOT_FOUND for missing files
+	private final ConcurrentHashMap<String, String> descriptions = new ConcurrentHashMap<String, String>();
+	private static final String NOT_FOUND = new String();
+	// set to false to read zip libraries with java.util.zip.ZipFile (-Dldraw.mappedzip=false)
+	public static boolean mappedZip = !"false".equals(System.getProperty("ldraw.mappedzip"));
 
 	/**
 	 * A library to read LDraw primitives, parts and other files from zipfiles.
@@ -72,44 +89,24 @@ public class LDrawLib {
 	 */
 	public LDrawLib(String official, String unofficial) throws IOException {
 
+		long start = System.nanoTime();
 		this.official = official;
 		this.unofficial = unofficial;
 		o = null;
 		u = null;
+		LDrawLibIndex index = new LDrawLibIndex();
 		if (official != null) {
 			File f = new File(this.official);
 			if (f.isFile() && f.canRead()) {
-				o = new ZipFile(official);
-				Enumeration<? extends ZipEntry> en = o.entries();
-				while (en.hasMoreElements()) {
-					ZipEntry ze = en.nextElement();
-					if (!ze.isDirectory()) {
-		// if a duplicate exists, first win
-						String key = ze.getName().toLowerCase();
-						if (officialParts.get(key) != null) {
-							continue;
-						}
-						officialParts.put(key, ze.getName());
-					}
-				}
+				o = new LDrawZipArchive(f, mappedZip);
+				index.addStamp(f);
 			}
 		}
 		if (unofficial != null && unofficial.length() > 0) {
 			File f = new File(this.unofficial);
 			if (f.isFile() && f.canRead()) {
-				u = new ZipFile(unofficial);
-				Enumeration<? extends ZipEntry> en = u.entries();
-				while (en.hasMoreElements()) {
-					ZipEntry ze = en.nextElement();
-					if (!ze.isDirectory()) {
-		// if a duplicate exists, first win
-						String key = ze.getName().toLowerCase();
-						if (unofficialParts.get(key) != null) {
-							continue;
-						}
-						unofficialParts.put(key, ze.getName());
-					}
-				}
+				u = new LDrawZipArchive(f, mappedZip);
+				index.addStamp(f);
 			} else {
 				officialOnly = true;
 			}
@@ -118,9 +115,20 @@ public class LDrawLib {
 		}
 		if (o == null)
 			throw new IOException("[LDrawLib] No LDraw Official library file found or no file can be used.");
+		File indexFile = getIndexFile(official, u != null ? unofficial : null);
+		indexReused = indexFile != null
+				&& index.read(indexFile, officialParts, officialStamps, unofficialParts, unofficialStamps);
+		if (!indexReused) {
+			scanZip(o, officialParts, officialStamps);
+			if (u != null)
+				scanZip(u, unofficialParts, unofficialStamps);
+			if (indexFile != null)
+				index.write(indexFile, officialParts, officialStamps, unofficialParts, unofficialStamps);
+		}
 		fromFolder = false;
 		LDrawColor.readFromLibrary(this);
 		LDrawPart.setLdrlib(this);
+		indexingDone(start);
 	}
 
 	/**
@@ -136,152 +144,165 @@ public class LDrawLib {
 	 */
 	public LDrawLib(File off, File unoff) throws IOException {
 
+		long start = System.nanoTime();
 		if (!off.isDirectory() || !off.canRead()) {
 			throw new IOException("[LDrawLib] Path to library root is invalid");
 		}
 		official = off.getAbsolutePath();
-		// scan p folder
-		File p = new File(off.getPath(), "p");
-		if (!p.isDirectory() || !p.canRead())
-			throw new IOException("Cannot read primitive directory: " + p.getPath());
-		for (File f : p.listFiles()) {
-			if (f.isFile() && f.canRead()) {
-				String key = primitivesPath + f.getName().toLowerCase();
-				if (officialParts.get(key) != null) {
-					continue;
-				}
-				officialParts.put(key, f.getAbsolutePath());
-			}
-		}
-		// scan p/48 folder
-		p = new File(off.getPath(), "p/48");
-		if (!p.isDirectory() || !p.canRead())
-			throw new IOException("Cannot read hi-res primitive directory: " + p.getPath());
-		for (File f : p.listFiles()) {
-			if (f.isFile() && f.canRead()) {
-				String key = hiResPrimitivesPath + f.getName().toLowerCase();
-				if (officialParts.get(key) != null) {
-					continue;
-				}
-				officialParts.put(key, f.getAbsolutePath());
-			}
+		boolean useUnofficial = unoff != null && unoff.length() != 0;
+		boolean validUnofficial = useUnofficial && unoff.isDirectory() && unoff.canRead();
+		// folder stamps change only when a file is added, removed or renamed
+		LDrawLibIndex index = new LDrawLibIndex();
+		for (String d : folders) {
+			index.addStamp(new File(off.getPath(), d));
 		}
-		// scan p/8 folder
-		p = new File(off.getPath(), "p/8");
-		if (!p.isDirectory() || !p.canRead())
-			throw new IOException("Cannot read lo-res primitive directory: " + p.getPath());
-		for (File f : p.listFiles()) {
-			if (f.isFile() && f.canRead()) {
-				String key = loResPrimitivesPath + f.getName().toLowerCase();
-				if (officialParts.get(key) != null) {
-					continue;
-				}
-				officialParts.put(key, f.getAbsolutePath());
+		if (validUnofficial) {
+			for (String d : folders) {
+				index.addStamp(new File(unoff.getPath(), d));
 			}
 		}
-		// scan parts folder
-		p = new File(off.getPath(), "parts");
-		if (!p.isDirectory() || !p.canRead())
-			throw new IOException("Cannot read parts directory: " + p.getPath());
-		for (File f : p.listFiles()) {
-			if (f.isFile() && f.canRead()) {
-				String key = partPath + f.getName().toLowerCase();
-				if (officialParts.get(key) != null) {
-					continue;
-				}
-				officialParts.put(key, f.getAbsolutePath());
-			}
-		}
-		// scan parts/s/ folder
-		p = new File(off.getPath(), "parts/s");
-		if (!p.isDirectory() || !p.canRead())
-			throw new IOException("Cannot read subparts directory: " + p.getPath());
-		for (File f : p.listFiles()) {
-			if (f.isFile() && f.canRead()) {
-				String key = partPath + "s/" + f.getName().toLowerCase();
-				if (officialParts.get(key) != null) {
-					continue;
-				}
-				officialParts.put(key, f.getAbsolutePath());
-			}
+		File indexFile = getIndexFile(official, validUnofficial ? unoff.getAbsolutePath() : null);
+		indexReused = indexFile != null
+				&& index.read(indexFile, officialParts, officialStamps, unofficialParts, unofficialStamps);
+		if (!indexReused) {
+			scanFolder(off, primitivesPath, officialParts, officialStamps, "p",
+					"Cannot read primitive directory: ");
+			scanFolder(off, hiResPrimitivesPath, officialParts, officialStamps, "p/48",
+					"Cannot read hi-res primitive directory: ");
+			scanFolder(off, loResPrimitivesPath, officialParts, officialStamps, "p/8",
+					"Cannot read lo-res primitive directory: ");
+			scanFolder(off, partPath, officialParts, officialStamps, "parts", "Cannot read parts directory: ");
+			scanFolder(off, partPath + "s/", officialParts, officialStamps, "parts/s",
+					"Cannot read subparts directory: ");
 		}
 		fromFolder = true;
 		LDrawColor.readFromLibrary(this);
 		LDrawPart.setLdrlib(this);
 
-		if (unoff == null || unoff.length() == 0)
-			return;
-		if (!unoff.isDirectory() || !unoff.canRead())
-			throw new IOException("Cannot read unofficial parts directory: " + unoff.getPath());
-		// reads unofficial parts
-		unofficial = unoff.getAbsolutePath();
-		// in unofficial parts reading is tolerant for missing/invalid folders
-		p = new File(unoff.getPath(), "p");
-		if (p.isDirectory() && p.canRead()) {
-			for (File f : p.listFiles()) {
-				if (f.isFile() && f.canRead()) {
-					String key = uPrimitivesPath + f.getName().toLowerCase();
-					if (unofficialParts.get(key) != null) {
-						continue;
-					}
-					unofficialParts.put(key, f.getAbsolutePath());
-				}
-			}
-		}
-		// scan p/48 folder
-		p = new File(unoff.getPath(), "p/48");
-		if (p.isDirectory() && p.canRead()) {
-			for (File f : p.listFiles()) {
-				if (f.isFile() && f.canRead()) {
-					String key = uHiResPrimitivesPath + f.getName().toLowerCase();
-					if (unofficialParts.get(key) != null) {
-						continue;
-					}
-					unofficialParts.put(key, f.getAbsolutePath());
-				}
+		if (useUnofficial) {
+			if (!validUnofficial)
+				throw new IOException("Cannot read unofficial parts directory: " + unoff.getPath());
+			// reads unofficial parts
+			unofficial = unoff.getAbsolutePath();
+			if (!indexReused) {
+				// in unofficial parts reading is tolerant for missing/invalid folders
+				scanFolder(unoff, uPrimitivesPath, unofficialParts, unofficialStamps, "p", null);
+				scanFolder(unoff, uHiResPrimitivesPath, unofficialParts, unofficialStamps, "p/48", null);
+				scanFolder(unoff, uLoResPrimitivesPath, unofficialParts, unofficialStamps, "p/8", null);
+				scanFolder(unoff, uPartPath, unofficialParts, unofficialStamps, "parts", null);
+				scanFolder(unoff, uPartPath + "s/", unofficialParts, unofficialStamps, "parts/s", null);
 			}
 		}
-		// scan p/8 folder
-		p = new File(unoff.getPath(), "p/8");
-		if (p.isDirectory() && p.canRead()) {
-			for (File f : p.listFiles()) {
-				if (f.isFile() && f.canRead()) {
-					String key = uLoResPrimitivesPath + f.getName().toLowerCase();
-					if (unofficialParts.get(key) != null) {
-						continue;
-					}
-					unofficialParts.put(key, f.getAbsolutePath());
+		if (!indexReused && indexFile != null)
+			index.write(indexFile, officialParts, officialStamps, unofficialParts, unofficialStamps);
+		indexingDone(start);
+	}
+
+	/*
+	 * adds all files in a zip library to part map, if a duplicate exists,
+	 * first win
+	 */
+	private static void scanZip(LDrawZipArchive z, Map<String, String> parts, Map<String, long[]> stamps) {
+
+		for (int i = 0; i < z.size(); i++) {
+			if (!z.isDirectory(i)) {
+				String key = z.getName(i).toLowerCase();
+				if (parts.get(key) != null) {
+					continue;
 				}
+				parts.put(key, z.getName(i));
+				stamps.put(key, new long[] { z.getSize(i), z.getTime(i) });
 			}
 		}
-		// scan parts folder
-		p = new File(unoff.getPath(), "parts");
-		if (p.isDirectory() && p.canRead()) {
-			for (File f : p.listFiles()) {
-				if (f.isFile() && f.canRead()) {
-					String key = uPartPath + f.getName().toLowerCase();
-					if (unofficialParts.get(key) != null) {
-						continue;
-					}
-					unofficialParts.put(key, f.getAbsolutePath());
-				}
-			}
+	}
+
+	/*
+	 * adds all files in a library folder to part map. If error message is
+	 * null a missing folder is silently skipped
+	 */
+	private static void scanFolder(File root, String keyPrefix, Map<String, String> parts,
+			Map<String, long[]> stamps, String folder, String error) throws IOException {
+
+		File p = new File(root.getPath(), folder);
+		if (!p.isDirectory() || !p.canRead()) {
+			if (error != null)
+				throw new IOException(error + p.getPath());
+			return;
 		}
-		// scan parts/s/ folder
-		p = new File(unoff.getPath(), "parts/s");
-		if (p.isDirectory() && p.canRead()) {
-			for (File f : p.listFiles()) {
-				if (f.isFile() && f.canRead()) {
-					String key = uPartPath + "s/" + f.getName().toLowerCase();
-					if (unofficialParts.get(key) != null) {
-						continue;
-					}
-					unofficialParts.put(key, f.getAbsolutePath());
+		for (File f : p.listFiles()) {
+			if (f.isFile() && f.canRead()) {
+				String key = keyPrefix + f.getName().toLowerCase();
+				if (parts.get(key) != null) {
+					continue;
 				}
+				parts.put(key, f.getAbsolutePath());
+				stamps.put(key, new long[] { f.length(), f.lastModified() });
 			}
 		}
 	}
 
+	/*
+	 * index file name depends on library location
+	 */
+	private static File getIndexFile(String off, String unoff) {
+
+		if (indexDirectory == null)
+			return null;
+		return new File(indexDirectory, "ldrawlib-" + libraryId(off, unoff) + ".idx");
+	}
+
+	private static String libraryId(String off, String unoff) {
+
+		String id = off + "|" + (unoff == null ? "" : unoff);
+		return String.format("%08x", id.hashCode());
+	}
+
+	private void indexingDone(long start) {
+
+		indexingTime = (System.nanoTime() - start) / 1000000;
+		System.out.println("[LDrawLib] Library ready in " + indexingTime + " ms ("
+				+ (indexReused ? "warm start, index reused" : "cold start") + ")");
+	}
+
+	/**
+	 * Sets directory where library index is saved and looked for. Index is
+	 * used by all libraries created after this call.
+	 * 
+	 * @param dir
+	 *            index directory, if <b>null</b> (default) libraries are
+	 *            always scanned
+	 */
+	public static void setIndexDirectory(File dir) {
+
+		indexDirectory = dir;
+	}
+
+	public static File getIndexDirectory() {
+
+		return indexDirectory;
+	}
+
+	/**
+	 * Time spent by constructor to build part list, from index or scanning
+	 * library
+	 * 
+	 * @return time in milliseconds
+	 */
+	public long getIndexingTime() {
+
+		return indexingTime;
+	}
+
+	/**
+	 * Checks if part list was loaded from a valid on-disk index
+	 * 
+	 * @return true if library wasn't scanned (warm start)
+	 */
+	public boolean isIndexReused() {
+
+		return indexReused;
+	}
+
 	/**
 	 * Force retrieval of low-resolution primitives, if available. If requested
 	 * primitive is already chosen as lo- or hi- res this setting is ignored
@@ -432,18 +453,18 @@ public class LDrawLib {
 						"[LDrawLib] Unable to read file from folder: " + official + "\n" + e.getLocalizedMessage());
 			}
 		}
-		ZipEntry ze = o.getEntry(officialParts.get(mainPath + pathname));
-		if (ze != null)
-			try {
-				return new LineNumberReader(new InputStreamReader(o.getInputStream(ze)));
-			} catch (IOException e) {
-				throw new IOException(
-						"[LDrawLib] Unable to get file " + pathname + " from zipfile\n" + e.getLocalizedMessage());
-			}
-		else {
+		String ze = officialParts.get(mainPath + pathname);
+		byte[] data;
+		try {
+			data = ze != null ? o.read(ze) : null;
+		} catch (IOException e) {
+			throw new IOException(
+					"[LDrawLib] Unable to get file " + pathname + " from zipfile\n" + e.getLocalizedMessage());
+		}
+		if (data == null) {
 			throw new IOException("[LDrawLib] File not found in zipfile: " + pathname);
 		}
-
+		return new LineNumberReader(new InputStreamReader(new ByteArrayInputStream(data)));
 	}
 
 	/**
@@ -455,101 +476,160 @@ public class LDrawLib {
 	 */
 	public LineNumberReader getPart(String ldrawid) {
 
-		String[] part;
-		String ze = null;
-		boolean unoff = false;
+		byte[] data = getPartData(ldrawid);
+		if (data == null)
+			return null;
+		return new LineNumberReader(new InputStreamReader(new ByteArrayInputStream(data)));
+	}
+
+	/**
+	 * Gets content of part identified by "ldrid", as read from library.
+	 * From zip libraries, many threads can read parts at same time.
+	 * 
+	 * @param ldrid
+	 *            LDraw part ID as full pathname with ".dat" suffix
+	 * @return file content as stored in library, or null if part is not found
+	 */
+	public byte[] getPartData(String ldrawid) {
 
 		String ldrid = ldrawid.toLowerCase();
 		ldrid = ldrid.replace('\\', '/');
+		String key = getPartKey(ldrid);
+		if (key != null) {
+			// official keys are always below "ldraw/"
+			try {
+				return readEntry(key);
+			} catch (IOException ex) {
+				System.out.println("[LDrawLib] Unable to get part " + ldrid + " " + ex.getLocalizedMessage());
+				return null;
+			}
+		} else {
+			System.out.println("[LDrawLib] Unable to get part " + ldrid);
+			return null;
+		}
+	}
+
+	/*
+	 * content of a library entry, by key
+	 */
+	private byte[] readEntry(String key) throws IOException {
+
+		// official keys are always below "ldraw/"
+		boolean unoff = !key.startsWith(mainPath);
+		String ze = unoff ? unofficialParts.get(key) : officialParts.get(key);
+		byte[] data;
+		if (fromFolder) {
+			data = Files.readAllBytes(new File(ze).toPath());
+		} else {
+			data = unoff ? u.read(ze) : o.read(ze);
+		}
+		if (data == null)
+			throw new IOException("entry not found in zipfile");
+		return data;
+	}
+
+	/**
+	 * Finds library entry used for a part, with current resolution and
+	 * official/unofficial settings
+	 * 
+	 * @param ldrid
+	 *            LDraw part ID, lower case with '/' as path separator
+	 * @return key of part in official or unofficial part map, null if part
+	 *         is not found
+	 */
+	String getPartKey(String ldrid) {
+
+		String[] part;
+		String key = null;
+
 		part = ldrid.split("/");
 
 		if (part.length > 1) {
 			if (part[0].equals("s")) {
-				ze = officialParts.get(partPath + ldrid);
-				if (!officialOnly && ze == null && u != null) {
-					ze = unofficialParts.get(uPartPath + ldrid);
-					if (ze != null)
-						unoff = true;
-				}
+				key = findKey(partPath + ldrid, uPartPath + ldrid);
 			} else if (part[0].equals("48")) {
-				ze = officialParts.get(primitivesPath + ldrid);
-				if (!officialOnly && ze == null && u != null) {
-					ze = unofficialParts.get(uPrimitivesPath + ldrid);
-					if (ze != null)
-						unoff = true;
-				}
+				key = findKey(primitivesPath + ldrid, uPrimitivesPath + ldrid);
 			} else if (part[0].equals("8")) {
-				ze = officialParts.get(primitivesPath + ldrid);
-				if (!officialOnly && ze == null && u != null) {
-					ze = unofficialParts.get(uPrimitivesPath + ldrid);
-					if (ze != null)
-						unoff = true;
-				}
+				key = findKey(primitivesPath + ldrid, uPrimitivesPath + ldrid);
 			}
 		} else {
-			if (forceLoRes) {
-				ze = officialParts.get(loResPrimitivesPath + ldrid);
-			} else if (forceHiRes) {
-				ze = officialParts.get(hiResPrimitivesPath + ldrid);
+			if (forceLoRes && officialParts.containsKey(loResPrimitivesPath + ldrid)) {
+				key = loResPrimitivesPath + ldrid;
+			} else if (forceHiRes && officialParts.containsKey(hiResPrimitivesPath + ldrid)) {
+				key = hiResPrimitivesPath + ldrid;
+			} else if (officialParts.containsKey(primitivesPath + ldrid)) {
+				key = primitivesPath + ldrid;
 			}
-			if (ze == null) {
-				ze = officialParts.get(primitivesPath + ldrid);
-			}
-			if (!officialOnly && ze == null && u != null) {
-				if (forceLoRes) {
-					ze = unofficialParts.get(uLoResPrimitivesPath + ldrid);
-				} else if (forceHiRes) {
-					ze = unofficialParts.get(uHiResPrimitivesPath + ldrid);
-				}
-				if (ze == null) {
-					ze = unofficialParts.get(uPrimitivesPath + ldrid);
+			if (!officialOnly && key == null && u != null) {
+				if (forceLoRes && unofficialParts.containsKey(uLoResPrimitivesPath + ldrid)) {
+					key = uLoResPrimitivesPath + ldrid;
+				} else if (forceHiRes && unofficialParts.containsKey(uHiResPrimitivesPath + ldrid)) {
+					key = uHiResPrimitivesPath + ldrid;
+				} else if (unofficialParts.containsKey(uPrimitivesPath + ldrid)) {
+					key = uPrimitivesPath + ldrid;
 				}
-				if (ze != null)
-					unoff = true;
 			}
-			if (ze == null) {
-				ze = officialParts.get(partPath + ldrid);
-				if (!officialOnly && ze == null && u != null) {
-					ze = unofficialParts.get(uPartPath + ldrid);
-					if (ze != null)
-						unoff = true;
-				}
-				if (ze == null) {
-					ze = officialParts.get(modelsPath + ldrid);
-					if (!officialOnly && ze == null && u != null) {
-						ze = unofficialParts.get(uModelsPath + ldrid);
-						if (ze != null)
-							unoff = true;
-					}
-					if (ze == null) {
-						return null;
-					}
+			if (key == null) {
+				key = findKey(partPath + ldrid, uPartPath + ldrid);
+				if (key == null) {
+					key = findKey(modelsPath + ldrid, uModelsPath + ldrid);
 				}
 			}
 		}
-		if (ze != null)
-			try {
-				if (fromFolder) {
-					if (unoff) {
-						return new LineNumberReader(new FileReader(ze));
-					} else {
-						return new LineNumberReader(new FileReader(ze));
-					}
-				} else {
-					if (unoff) {
-						return new LineNumberReader(new InputStreamReader(u.getInputStream(u.getEntry(ze))));
-					} else {
-						return new LineNumberReader(new InputStreamReader(o.getInputStream(o.getEntry(ze))));
-					}
-				}
-			} catch (IOException ex) {
-				System.out.println("[LDrawLib] Unable to get part " + ldrid + " " + ex.getLocalizedMessage());
+		return key;
+	}
+
+	/*
+	 * official key first, unofficial if allowed
+	 */
+	private String findKey(String officialKey, String unofficialKey) {
+
+		if (officialParts.containsKey(officialKey))
+			return officialKey;
+		if (!officialOnly && u != null && unofficialParts.containsKey(unofficialKey))
+			return unofficialKey;
+		return null;
+	}
+
+	/**
+	 * Size and modification time of a library entry. In folder libraries
+	 * file is checked every time, because a file can be modified without
+	 * changing folder stamp
+	 * 
+	 * @param key
+	 *            entry key as returned by getPartKey()
+	 * @return array with size and modification time, or null if entry is
+	 *         unknown
+	 */
+	long[] getPartStamp(String key) {
+
+		boolean unoff = !key.startsWith(mainPath);
+		if (fromFolder) {
+			String path = unoff ? unofficialParts.get(key) : officialParts.get(key);
+			if (path == null)
 				return null;
-			}
-		else {
-			System.out.println("[LDrawLib] Unable to get part " + ldrid);
-			return null;
+			File f = new File(path);
+			return new long[] { f.length(), f.lastModified() };
 		}
+		return unoff ? unofficialStamps.get(key) : officialStamps.get(key);
+	}
+
+	/**
+	 * @return in-memory cache of part definitions read from this library
+	 */
+	LDrawPartMemoryCache getPartMemoryCache() {
+
+		return partCache;
+	}
+
+	/**
+	 * Identifies library location, used to name index and cache files
+	 * 
+	 * @return a short hex string
+	 */
+	String getLibraryId() {
+
+		return libraryId(official, unofficial);
 	}
 
 	/**
@@ -560,11 +640,14 @@ public class LDrawLib {
 	 * @param root 
 	 * 			path in file system, to start searching
 	 * @return a String or null if file is not found
+	 * @deprecated walks whole folder tree at every call, use
+	 *             getSearchResult() that uses library index
 	 */
+	@Deprecated
 	public static String localizePart(String basename, File root) {
 		String result = null;
 		
-		if (root != null)
+		if (root != null && root.isDirectory())
 		for(File f: root.listFiles()) {
 			if (f.getName().compareToIgnoreCase(basename)==0) {
 				return f.isFile() && f.canRead() ? f.getAbsolutePath() : null;
@@ -577,18 +660,107 @@ public class LDrawLib {
 		return result;
 	}
 
+	/*
+	 * library keys by file basename, built at first use. If a basename is
+	 * in many folders, key with less folders wins (parts before subparts,
+	 * p/ before p/48/), official before unofficial
+	 */
+	private Map<String, String> getBasenameIndex() {
+
+		Map<String, String> index = basenameIndex;
+		if (index == null) {
+			synchronized (this) {
+				index = basenameIndex;
+				if (index == null) {
+					index = new HashMap<String, String>();
+					addBasenames(index, officialParts);
+					addBasenames(index, unofficialParts);
+					basenameIndex = index;
+				}
+			}
+		}
+		return index;
+	}
+
+	private static void addBasenames(Map<String, String> index, Map<String, String> parts) {
+
+		Map<String, String> found = new HashMap<String, String>();
+		for (String key : parts.keySet()) {
+			String basename = key.substring(key.lastIndexOf('/') + 1);
+			String other = found.get(basename);
+			if (other == null || depth(key) < depth(other) || (depth(key) == depth(other) && key.compareTo(other) < 0))
+				found.put(basename, key);
+		}
+		for (Map.Entry<String, String> e : found.entrySet()) {
+			if (!index.containsKey(e.getKey()))
+				index.put(e.getKey(), e.getValue());
+		}
+	}
+
+	private static int depth(String key) {
+
+		int n = 0;
+		for (int i = key.indexOf('/'); i >= 0; i = key.indexOf('/', i + 1))
+			n++;
+		return n;
+	}
+
+	/*
+	 * library key for a file basename: a part as found by getPartKey(), or
+	 * any other file in library with that name
+	 */
+	private String findBasename(String basename) {
+
+		String name = basename.toLowerCase();
+		if (name.indexOf('/') < 0 && name.indexOf('\\') < 0) {
+			String key = getPartKey(name);
+			if (key != null)
+				return key;
+		}
+		return getBasenameIndex().get(name);
+	}
+
 	/**
-	 * Get path to part file from file system
+	 * Get path to part file from library index
 	 * 
 	 * @param basename
 	 * 			filename with extension
-	 * @return a String or null if file is not found
+	 * @return file path for a folder library, entry name in zip file
+	 * 			for a zip library, or null if file is not found
 	 */
 	public String getSearchResult(String basename) {
-		String filename = localizePart(basename,new File(this.official));
-		if (filename == null) filename = localizePart(basename,new File(this.unofficial));
-		
-		return filename;
+
+		String key = findBasename(basename);
+		if (key == null)
+			return null;
+		return key.startsWith(mainPath) ? officialParts.get(key) : unofficialParts.get(key);
+	}
+
+	/**
+	 * Description (first line) of a library file, read once and cached:
+	 * used to show target of "~Moved to" parts
+	 * 
+	 * @param basename
+	 *            filename with extension
+	 * @return description, or null if file is not found
+	 */
+	String getDescription(String basename) throws IOException {
+
+		String name = basename.toLowerCase();
+		String d = descriptions.get(name);
+		if (d == null) {
+			String key = findBasename(name);
+			d = NOT_FOUND;
+			if (key != null) {
+				byte[] data = readEntry(key);
+				int end = 0;
+				while (end < data.length && data[end] != '\n' && data[end] != '\r')
+					end++;
+				d = LDrawParser.parseDescription(new String(data, 0, end, Charset.defaultCharset()));
+			}
+			descriptions.putIfAbsent(name, d);
+		}
+		return d == NOT_FOUND ? null : d;
 	}
 
 }
@@ -0,0 +1,216 @@
+/*
+	Copyright 2026 LDraw Instruction Visualizer contributors
+	This file is part of LDrawLib.
+
+	LDrawLib is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	LDrawLib is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with LDrawLib.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package it.romabrick.ldrawlib;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persistent binary index of an LDraw library
+ *
+ * Stores the content of official and unofficial part maps of
+ * {@link LDrawLib} (lower-cased key, entry name or file path, size and
+ * modification time) together with modification stamps of library zip
+ * files or folders. If stamps still match, index is used in place of a
+ * complete scan of library.
+ *
+ * File layout (big-endian):
+ * <pre>
+ *  int     magic "LDIX"
+ *  int     version
+ *  int     stamp count, then for every stamp: string path, long length, long mtime
+ *  int     official entry count, then entries
+ *  int     unofficial entry count, then entries
+ *
+ *  entry:  string key, byte flag (1 = name as key), [string name], long size, long mtime
+ *  string: unsigned short length, UTF-8 bytes
+ * </pre>
+ */
+class LDrawLibIndex {
+
+	private static final int MAGIC = 0x4c444958;
+	private static final int VERSION = 1;
+
+	private List<String> stampPath = new ArrayList<String>();
+	private List<long[]> stampValue = new ArrayList<long[]>();
+
+
+	/**
+	 * Adds a library file or folder to modification stamps checked
+	 * before reusing the index
+	 */
+	void addStamp(File f) {
+
+		stampPath.add(f.getAbsolutePath());
+		stampValue.add(new long[] { f.length(), f.lastModified() });
+	}
+
+
+	/**
+	 * Fills part maps from index file, only if index is valid for current
+	 * stamps
+	 *
+	 * @return true if maps are filled, false if index is missing, stale or
+	 *         unreadable (maps are left empty)
+	 */
+	boolean read(File indexFile, Map<String, String> official, Map<String, long[]> officialStamps,
+			Map<String, String> unofficial, Map<String, long[]> unofficialStamps) {
+
+		if (!indexFile.isFile())
+			return false;
+		try (FileChannel fc = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+			// read in heap, not mapped: a mapped file can't be replaced by
+			// write() on some systems until buffer is collected
+			long size = fc.size();
+			if (size > Integer.MAX_VALUE)
+				throw new IOException("Index too big");
+			ByteBuffer b = ByteBuffer.allocate((int) size);
+			while (b.hasRemaining()) {
+				if (fc.read(b) < 0)
+					throw new IOException("Unexpected end of file");
+			}
+			b.flip();
+			if (b.getInt() != MAGIC || b.getInt() != VERSION)
+				return false;
+			int n = b.getInt();
+			if (n != stampPath.size())
+				return false;
+			byte[] buf = new byte[256];
+			for (int i = 0; i < n; i++) {
+				String path = getString(b, buf);
+				long length = b.getLong();
+				long mtime = b.getLong();
+				if (!path.equals(stampPath.get(i)) || length != stampValue.get(i)[0]
+						|| mtime != stampValue.get(i)[1])
+					return false;
+			}
+			readEntries(b, buf, official, officialStamps);
+			readEntries(b, buf, unofficial, unofficialStamps);
+			return true;
+		} catch (IOException | BufferUnderflowException | IllegalArgumentException ex) {
+			LDlogger.warn("Unable to read library index " + indexFile.getPath() + ": " + ex.getLocalizedMessage());
+			official.clear();
+			officialStamps.clear();
+			unofficial.clear();
+			unofficialStamps.clear();
+			return false;
+		}
+	}
+
+
+	/**
+	 * Writes index file for current stamps and part maps. Errors are only
+	 * logged: a missing index means only a slower startup.
+	 */
+	void write(File indexFile, Map<String, String> official, Map<String, long[]> officialStamps,
+			Map<String, String> unofficial, Map<String, long[]> unofficialStamps) {
+
+		File tmp = new File(indexFile.getPath() + ".tmp");
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 65536));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(stampPath.size());
+				for (int i = 0; i < stampPath.size(); i++) {
+					putString(out, stampPath.get(i));
+					out.writeLong(stampValue.get(i)[0]);
+					out.writeLong(stampValue.get(i)[1]);
+				}
+				writeEntries(out, official, officialStamps);
+				writeEntries(out, unofficial, unofficialStamps);
+			} finally {
+				out.close();
+			}
+			Files.move(tmp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException ex) {
+			LDlogger.warn("Unable to write library index " + indexFile.getPath() + ": " + ex.getLocalizedMessage());
+			tmp.delete();
+		}
+	}
+
+
+	private static void readEntries(ByteBuffer b, byte[] buf, Map<String, String> parts,
+			Map<String, long[]> stamps) {
+
+		int n = b.getInt();
+		for (int i = 0; i < n; i++) {
+			String key = getString(b, buf);
+			String name = b.get() == 1 ? key : getString(b, buf);
+			long size = b.getLong();
+			long mtime = b.getLong();
+			parts.put(key, name);
+			stamps.put(key, new long[] { size, mtime });
+		}
+	}
+
+
+	private static void writeEntries(DataOutputStream out, Map<String, String> parts, Map<String, long[]> stamps)
+			throws IOException {
+
+		out.writeInt(parts.size());
+		for (Map.Entry<String, String> e : parts.entrySet()) {
+			putString(out, e.getKey());
+			if (e.getValue().equals(e.getKey())) {
+				out.writeByte(1);
+			} else {
+				out.writeByte(0);
+				putString(out, e.getValue());
+			}
+			long[] s = stamps.get(e.getKey());
+			out.writeLong(s != null ? s[0] : -1);
+			out.writeLong(s != null ? s[1] : -1);
+		}
+	}
+
+
+	private static String getString(ByteBuffer b, byte[] buf) {
+
+		int len = b.getShort() & 0xffff;
+		if (len > buf.length)
+			buf = new byte[len];
+		b.get(buf, 0, len);
+		return new String(buf, 0, len, StandardCharsets.UTF_8);
+	}
+
+
+	private static void putString(DataOutputStream out, String s) throws IOException {
+
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		if (bytes.length > 0xffff)
+			throw new IOException("Name too long: " + s);
+		out.writeShort(bytes.length);
+		out.write(bytes);
+	}
+
+}
@@ -121,6 +121,28 @@ public class LDrawParser {
 					"([a-z][a-z0-9_]*)\\s+", // colour identifier
 			Pattern.CASE_INSENSITIVE);
 
+	private static boolean fastParser = true;
+
+	/**
+	 * Selects how geometry lines (types 1 to 5) are parsed
+	 * 
+	 * @param fast
+	 *            if true uses hand-written scanner, if false uses regex
+	 *            patterns (the original parser, kept for comparison)
+	 */
+	public static void setFastParser(boolean fast) {
+
+		fastParser = fast;
+	}
+
+	/**
+	 * @return true if geometry lines are parsed with hand-written scanner
+	 */
+	public static boolean isFastParser() {
+
+		return fastParser;
+	}
+
 	/**
 	 * Parses a string representing a color index or a direct color with syntax
 	 * "0x2RRGGBB"
@@ -178,6 +200,12 @@ public class LDrawParser {
 	 */
 	public static LDPrimitive parseLineType1(String l, boolean invert) throws LDrawException {
 
+		if (fastParser) {
+			LDPrimitive p = LDrawScanner.lineType1(l, invert);
+			if (p != null)
+				return p;
+		}
+
 		Matcher partMatch = partPattern.matcher(l);
 		if (partMatch.lookingAt()) {
 			try {
@@ -216,6 +244,12 @@ public class LDrawParser {
 	 */
 	public static LDPrimitive parseLineType2(String l) throws LDrawException {
 
+		if (fastParser) {
+			LDPrimitive p = LDrawScanner.lineType2(l);
+			if (p != null)
+				return p;
+		}
+
 		Matcher lineMatch = linePattern.matcher(l);
 		if (lineMatch.lookingAt()) {
 			try {
@@ -250,6 +284,12 @@ public class LDrawParser {
 	 */
 	public static LDPrimitive parseLineType3(String l, boolean invert) throws LDrawException {
 
+		if (fastParser) {
+			LDPrimitive p = LDrawScanner.lineType3(l, invert);
+			if (p != null)
+				return p;
+		}
+
 		Matcher triangleMatch = trianglePattern.matcher(l);
 		if (triangleMatch.lookingAt()) {
 			try {
@@ -288,6 +328,12 @@ public class LDrawParser {
 	 */
 	public static LDPrimitive parseLineType4(String l, boolean invert) throws LDrawException {
 
+		if (fastParser) {
+			LDPrimitive p = LDrawScanner.lineType4(l, invert);
+			if (p != null)
+				return p;
+		}
+
 		Matcher quadMatch = quadPattern.matcher(l);
 		if (quadMatch.lookingAt()) {
 			try {
@@ -326,6 +372,12 @@ public class LDrawParser {
 	 */
 	public static LDPrimitive parseLineType5(String l) throws LDrawException {
 
+		if (fastParser) {
+			LDPrimitive p = LDrawScanner.lineType5(l);
+			if (p != null)
+				return p;
+		}
+
 		Matcher auxLineMatch = auxLinePattern.matcher(l);
 		if (auxLineMatch.lookingAt()) {
 			try {
@@ -366,6 +418,23 @@ public class LDrawParser {
 
 	public static LDrawCommand parseCommand(String l) {
 
+		if (fastParser) {
+		// geometry lines are classified by first non-blank char only
+			switch (LDrawScanner.lineType(l)) {
+			case 1:
+				return LDrawCommand.REFERENCE;
+			case 2:
+				return LDrawCommand.LINE;
+			case 3:
+				return LDrawCommand.TRIANGLE;
+			case 4:
+				return LDrawCommand.QUAD;
+			case 5:
+				return LDrawCommand.AUXLINE;
+			default:
+				break;
+			}
+		}
 		String[] ld = l.trim().split("\\s+");
 		if (ld.length <= 1) {
 			return LDrawCommand.EMPTY;
@@ -23,13 +23,17 @@ package it.romabrick.ldrawlib;
 import it.romabrick.matrix3d.Matrix3D;
 
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.LineNumberReader;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class LDrawPart {
 
@@ -39,7 +43,6 @@ public class LDrawPart {
 	private String canonicalDescription = null;
 	private String author;
 	private String partName;
-	private String relativePartPath = null;
 	private String category;
 	private String keywords;
 	private Matrix3D matrix;
@@ -48,11 +51,12 @@ public class LDrawPart {
 	private boolean placed = false;
 	private LDrawPartType partType = LDrawPartType.UNKNOWN;
 	private List<LDPrimitive> primitives = new ArrayList<LDPrimitive>();
-	private static LDrawLib ldrlib = null;
-	private static Map<String, LDrawPart> partCache = new LinkedHashMap<String, LDrawPart>();
-	private static Map<String, LDrawPart> customPartCache = new LinkedHashMap<String, LDrawPart>();
-	private static int globalId = 0;
-	private static Map<Integer, LDrawPart> globalPartList = new LinkedHashMap<Integer, LDrawPart>();
+	// unique across contexts
+	private static AtomicInteger globalId = new AtomicInteger();
+	/*
+	 * Library, library part cache, custom parts and placed parts belong
+	 * to current LDrawContext of calling thread
+	 */
 
 	/**
 	 * Private constructor for LDraw Part factory
@@ -65,15 +69,11 @@ public class LDrawPart {
 	 * @throws LDrawException
 	 *             if there are parse or format error
 	 */
-	private LDrawPart(String ldrid) throws IOException, LDrawException {
+	private LDrawPart(LDrawLib ldrlib, String ldrid) throws IOException, LDrawException {
 
-		if (ldrlib == null) {
-			throw new IllegalStateException("[LDrawPart] LDraw library not initialized");
-		}
 		ldrawid = ldrid;
 		id = getUniqueId();
-		LineNumberReader ldf = ldrlib.getPart(ldrawid);
-		parse(ldf);
+		parse(ldrlib.getPartData(ldrawid));
 	}
 
 	/**
@@ -154,14 +154,145 @@ public class LDrawPart {
 		}
 	}
 
+	/*
+	 * library part loaded from binary part cache
+	 */
+	static LDrawPart newCachedPart(String ldrid, String description, String author, String partName,
+			String category, String keywords, LDrawPartType type, List<LDPrimitive> primitives) {
+
+		LDrawPart p = new LDrawPart();
+		p.ldrawid = ldrid;
+		p.description = description;
+		p.author = author;
+		p.partName = partName;
+		p.category = category;
+		p.keywords = keywords;
+		p.partType = type;
+		p.primitives = primitives;
+		return p;
+	}
+
+	/**
+	 * Sets directory for binary cache of parsed library parts. Cached parts
+	 * are checked against library files and are reparsed if library changes.
+	 * 
+	 * @param dir
+	 *            cache directory, if <b>null</b> (default) parts are always
+	 *            parsed from library
+	 */
+	public static void setPartCacheDirectory(File dir) {
+
+		LDrawPartCache.setCacheDirectory(dir);
+	}
+
+	public static int getPartCacheHits() {
+
+		return LDrawPartCache.getHits();
+	}
+
+	public static int getPartCacheMisses() {
+
+		return LDrawPartCache.getMisses();
+	}
+
+	/**
+	 * Sets size limit for in-memory cache of current library parts. Least
+	 * recently used parts are evicted when limit is reached, except pinned
+	 * parts. Default is a quarter of max heap.
+	 * 
+	 * @param bytes
+	 *            limit in estimated bytes of part primitives
+	 */
+	public static void setMemoryCacheLimit(long bytes) {
+
+		partCache().setMaxBytes(bytes);
+	}
+
+	public static long getMemoryCacheLimit() {
+
+		return partCache().getMaxBytes();
+	}
+
+	public static long getMemoryCacheResidentBytes() {
+
+		return partCache().getResidentBytes();
+	}
+
+	public static long getMemoryCacheHits() {
+
+		return partCache().getHits();
+	}
+
+	public static long getMemoryCacheMisses() {
+
+		return partCache().getMisses();
+	}
+
+	public static long getMemoryCacheEvictions() {
+
+		return partCache().getEvictions();
+	}
+
+	public static long getMemoryCacheLoads() {
+
+		return partCache().getLoads();
+	}
+
+	private static LDrawPartMemoryCache partCache() {
+
+		return LDrawContext.current().requireLibrary().getPartMemoryCache();
+	}
+
+	/**
+	 * Pins library parts used by placed parts, and all parts referenced by
+	 * them, so they can't be evicted from in-memory cache until unpinAll()
+	 * is called in same context
+	 * 
+	 * @param parts
+	 *            placed parts of a loaded model
+	 */
+	public static void pinParts(Collection<LDrawPart> parts) {
+
+		LDrawContext context = LDrawContext.current();
+		LDrawPartMemoryCache partCache = context.requireLibrary().getPartMemoryCache();
+		Set<String> seen = new HashSet<String>();
+		Deque<LDrawPart> todo = new ArrayDeque<LDrawPart>();
+		for (LDrawPart p : parts) {
+			if (p.ldrawid != null && seen.add(p.ldrawid.toLowerCase()))
+				todo.push(p);
+		}
+		while (!todo.isEmpty()) {
+			LDrawPart p = todo.pop();
+			for (LDPrimitive prim : p.getPrimitives()) {
+				if (prim.getType() != LDrawCommand.REFERENCE)
+					continue;
+				String id = prim.getId().toLowerCase();
+				if (!seen.add(id))
+					continue;
+				LDrawPart d = partCache.peek(id);
+				if (d == null)
+					d = context.customParts.get(prim.getId());
+				if (d != null)
+					todo.push(d);
+			}
+		}
+		context.pin(seen);
+	}
+
+	public static void unpinAll() {
+
+		LDrawContext.current().unpinAll();
+	}
+
 	public static void listcache() {
 
-		System.out.println("LDraw Part cache: " + partCache.size() + " ----------------------");
-		for (LDrawPart p : partCache.values()) {
+		LDrawContext context = LDrawContext.current();
+		System.out.println("LDraw Part cache: " + partCache() + " ----------------------");
+		for (LDrawPart p : partCache().values()) {
 			System.out.println(p);
 		}
-		System.out.println("LDraw User Part cache: " + customPartCache.size() + " ----------------------");
-		for (LDrawPart p : customPartCache.values()) {
+		System.out.println("LDraw User Part cache: " + context.customParts.size() + " ----------------------");
+		for (LDrawPart p : context.customParts.values()) {
 			System.out.println(p);
 		}
 	}
@@ -176,14 +307,14 @@ public class LDrawPart {
 				+ ", primitives=" + primitives.size() + ", stepNo=" + stepNo + "]";
 	}
 
-	private static synchronized int getUniqueId() {
+	private static int getUniqueId() {
 
-		return ++globalId;
+		return globalId.incrementAndGet();
 	}
 
 	public static void clearParts() {
 
-		globalPartList.clear();
+		LDrawContext.current().placedParts.clear();
 	}
 
 	public static void clearAll() {
@@ -195,7 +326,7 @@ public class LDrawPart {
 
 		LDrawPart part = new LDrawPart(p);
 		part.placed = true;
-		globalPartList.put(part.id, part);
+		LDrawContext.current().placedParts.put(part.id, part);
 		return part;
 	}
 
@@ -223,14 +354,15 @@ public class LDrawPart {
 
 	public static LDrawPart getByGlobalID(int id) {
 
-		return globalPartList.get(id);
+		return LDrawContext.current().placedParts.get(id);
 	}
 
+	/**
+	 * Sets library of default context (see LDrawContext)
+	 */
 	public static void setLdrlib(LDrawLib ldrlib) {
 
-		if (ldrlib == null)
-			throw new NullPointerException("[LDrawPart] LDraw library can't be null");
-		LDrawPart.ldrlib = ldrlib;
+		LDrawContext.getDefault().setLibrary(ldrlib);
 	}
 
 	public int getId() {
@@ -266,14 +398,10 @@ public class LDrawPart {
 		// after split, the result is in example: ['~Moved', 'to', '30027a']
 				String[] designation = description.split(" ");
 				String basename = designation[designation.length-1];
-		// get path from library cache
-				relativePartPath = ldrlib.getSearchResult(basename+".dat");
-				if (relativePartPath != null) {
-		// get and parse first line as part description
-					LineNumberReader content = new LineNumberReader(new FileReader(new File(relativePartPath)));
-					canonicalDescription = LDrawParser.parseDescription(content.readLine());
-					content.close();
-				}
+		// from library index, first line of part read once for every library
+				String d = LDrawContext.current().requireLibrary().getDescription(basename+".dat");
+				if (d != null)
+					canonicalDescription = d;
 			}
 		}
 		return canonicalDescription;
@@ -301,7 +429,7 @@ public class LDrawPart {
 
 	public static void clearCustomParts() {
 
-		customPartCache.clear();
+		LDrawContext.current().customParts.clear();
 	}
 
 	public List<LDPrimitive> getPrimitives() {
@@ -328,26 +456,24 @@ public class LDrawPart {
 
 	public static LDrawPart getLDrawPart(String ldrid) throws IOException, LDrawException {
 
-		if (ldrlib == null) {
-			throw new IllegalStateException("[LDrawPart] LDraw library not initialized");
-		}
-		String id = ldrid.toLowerCase();
-		// it is in cache?
-		LDrawPart p = partCache.get(id);
-		if (p == null) {
-		// first seen part
-			if (ldrlib.checkPart(id) == LDrawPartType.UNKNOWN) {
+		final LDrawLib ldrlib = LDrawContext.current().requireLibrary();
+		final String id = ldrid.toLowerCase();
+		// from cache, or loaded by this thread or by another one, only once
+		return ldrlib.getPartMemoryCache().getOrLoad(id, new Callable<LDrawPart>() {
+			@Override
+			public LDrawPart call() throws IOException, LDrawException {
+				if (ldrlib.checkPart(id) == LDrawPartType.UNKNOWN) {
 		// unknown part
-				return null;
+					return null;
+				}
+				LDrawPart p = LDrawPartCache.read(ldrlib, id);
+				if (p == null) {
+					p = new LDrawPart(ldrlib, id);
+					LDrawPartCache.write(ldrlib, id, p);
+				}
+				return p;
 			}
-			p = new LDrawPart(id);
-		// put in cache
-			partCache.put(id, p);
-			return p;
-		} else {
-		// part in cache
-			return p;
-		}
+		});
 	}
 
 	public static LDrawPart getPart(String name) throws IOException, LDrawException {
@@ -386,32 +512,32 @@ public class LDrawPart {
 		LDrawPart p = new LDrawPart();
 		p.ldrawid = name;
 		p.partName = name;
-		if (customPartCache.containsKey(name)) {
+		if (LDrawContext.current().customParts.putIfAbsent(name, p) != null) {
 			throw new IllegalArgumentException("[LDrawPart.newCustomPart] Duplicated part name: " + name);
 		}
-		customPartCache.put(name, p);
 		return p;
 	}
 
 	public static LDrawPart getCustomPart(String name) {
 
-		return customPartCache.get(name);
+		return LDrawContext.current().customParts.get(name);
 	}
 
 	public static boolean isLdrPart(String ldrid) {
 
-		if (ldrlib == null) {
-			throw new IllegalStateException("[LDrawPart] LDraw library not initialized");
-		}
-		return ldrlib.checkPart(ldrid.toLowerCase()) != LDrawPartType.UNKNOWN;
+		return LDrawContext.current().requireLibrary().checkPart(ldrid.toLowerCase()) != LDrawPartType.UNKNOWN;
 	}
 
 	public static boolean existsCustomPart(String name) {
 
-		return customPartCache.containsKey(name);
+		return LDrawContext.current().customParts.containsKey(name);
 	}
 
-	private void parse(LineNumberReader ldf) throws IOException, LDrawException {
+	/*
+	 * parses file content straight from library bytes, line terminators
+	 * are the same of LineNumberReader
+	 */
+	private void parse(byte[] data) throws IOException, LDrawException {
 
 		String l;
 		boolean invNext = false;
@@ -420,11 +546,20 @@ public class LDrawPart {
 
 		keywords = "";
 
-		if (ldf == null) {
+		if (data == null) {
 			return;
 		}
 
-		while ((l = ldf.readLine()) != null) {
+		Charset cs = Charset.defaultCharset();
+		int next;
+		for (int start = 0; start < data.length; start = next) {
+			int end = start;
+			while (end < data.length && data[end] != '\n' && data[end] != '\r')
+				end++;
+			next = end + 1;
+			if (end + 1 < data.length && data[end] == '\r' && data[end + 1] == '\n')
+				next++;
+			l = new String(data, start, end - start, cs);
 			LDrawCommand cmd = LDrawParser.parseCommand(l);
 			switch (cmd) {
 			case AUTHOR:
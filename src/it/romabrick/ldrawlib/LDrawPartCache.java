@@ -0,0 +1,350 @@
+/*
+	Copyright 2026 LDraw Instruction Visualizer contributors
+	This file is part of LDrawLib.
+
+	LDrawLib is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	LDrawLib is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with LDrawLib.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package it.romabrick.ldrawlib;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * On-disk cache of parsed library parts
+ *
+ * Every part definition is saved in a binary file, named after the library
+ * entry used for that part, below a folder dedicated to current library.
+ * File starts with size and modification time of library entry: when entry
+ * changes, cached file is ignored and rewritten.
+ *
+ * File layout (big-endian):
+ * <pre>
+ *  int     magic "LDPC"
+ *  int     version
+ *  string  entry key, long entry size, long entry mtime
+ *  byte    part type, then strings: description, author, part name, category, keywords
+ *  int     string table size, then strings (reference IDs)
+ *  int     primitive count n
+ *  byte[n] primitive types
+ *  int[n]  color indexes
+ *  int     reference count, then for every reference: int string index, byte invert
+ *  int     float count, then floats: vertices for every line/polygon, followed
+ *          by normal for triangles/quads, 12 matrix values for references
+ *  string: short length (-1 for null), UTF-8 bytes
+ * </pre>
+ *
+ * Parts with local !COLOUR definitions aren't cached.
+ */
+class LDrawPartCache {
+
+	private static final int MAGIC = 0x4c445043;
+	// change every time format or stored enums change
+	private static final int VERSION = 1;
+
+	private static final LDrawCommand[] commands = LDrawCommand.values();
+	private static final LDrawPartType[] partTypes = LDrawPartType.values();
+
+	private static File cacheDirectory = null;
+	private static AtomicInteger hits = new AtomicInteger();
+	private static AtomicInteger misses = new AtomicInteger();
+
+
+	static void setCacheDirectory(File dir) {
+
+		cacheDirectory = dir;
+	}
+
+	static File getCacheDirectory() {
+
+		return cacheDirectory;
+	}
+
+	static int getHits() {
+
+		return hits.get();
+	}
+
+	static int getMisses() {
+
+		return misses.get();
+	}
+
+
+	/*
+	 * cache file for a library entry
+	 */
+	private static File getCacheFile(LDrawLib lib, String key) {
+
+		return new File(new File(cacheDirectory, "parts-" + lib.getLibraryId()), key + ".bin");
+	}
+
+
+	/**
+	 * Loads a part from cache
+	 *
+	 * @param lib
+	 *            library where part comes from
+	 * @param ldrid
+	 *            LDraw part ID, lower case
+	 * @return part or null if cache is disabled, part isn't in cache or
+	 *         cached copy is stale
+	 */
+	static LDrawPart read(LDrawLib lib, String ldrid) {
+
+		if (cacheDirectory == null)
+			return null;
+		String key = lib.getPartKey(ldrid.replace('\\', '/'));
+		if (key == null)
+			return null;
+		long[] stamp = lib.getPartStamp(key);
+		File f = getCacheFile(lib, key);
+		if (stamp == null || !f.isFile()) {
+			misses.incrementAndGet();
+			return null;
+		}
+		try {
+			ByteBuffer b = ByteBuffer.wrap(Files.readAllBytes(f.toPath()));
+			if (b.getInt() != MAGIC || b.getInt() != VERSION || !key.equals(getString(b))
+					|| b.getLong() != stamp[0] || b.getLong() != stamp[1]) {
+				misses.incrementAndGet();
+				return null;
+			}
+			LDrawPartType type = partTypes[b.get()];
+			String description = getString(b);
+			String author = getString(b);
+			String partName = getString(b);
+			String category = getString(b);
+			String keywords = getString(b);
+			String[] strings = new String[b.getInt()];
+			for (int i = 0; i < strings.length; i++) {
+				strings[i] = getString(b).intern();
+			}
+			byte[] types = new byte[b.getInt()];
+			b.get(types);
+			int[] colors = new int[types.length];
+			b.asIntBuffer().get(colors);
+			b.position(b.position() + colors.length * 4);
+			int[] refId = new int[b.getInt()];
+			boolean[] refInvert = new boolean[refId.length];
+			for (int i = 0; i < refId.length; i++) {
+				refId[i] = b.getInt();
+				refInvert[i] = b.get() != 0;
+			}
+			float[] v = new float[b.getInt()];
+			b.asFloatBuffer().get(v);
+
+			List<LDPrimitive> primitives = new ArrayList<LDPrimitive>(types.length);
+			int vi = 0;
+			int ri = 0;
+			for (int i = 0; i < types.length; i++) {
+				LDrawCommand t = commands[types[i]];
+				switch (t) {
+				case LINE:
+					primitives.add(LDPrimitive.newGeometry(t, colors[i], copy(v, vi, 6), null));
+					vi += 6;
+					break;
+				case AUXLINE:
+					primitives.add(LDPrimitive.newGeometry(t, colors[i], copy(v, vi, 12), null));
+					vi += 12;
+					break;
+				case TRIANGLE:
+					primitives.add(LDPrimitive.newGeometry(t, colors[i], copy(v, vi, 9), copy(v, vi + 9, 3)));
+					vi += 12;
+					break;
+				case QUAD:
+					primitives.add(LDPrimitive.newGeometry(t, colors[i], copy(v, vi, 12), copy(v, vi + 12, 3)));
+					vi += 15;
+					break;
+				case REFERENCE:
+					primitives.add(LDPrimitive.newPart(colors[i], strings[refId[ri]], refInvert[ri], v[vi], v[vi + 1],
+							v[vi + 2], v[vi + 3], v[vi + 4], v[vi + 5], v[vi + 6], v[vi + 7], v[vi + 8], v[vi + 9],
+							v[vi + 10], v[vi + 11]));
+					vi += 12;
+					ri++;
+					break;
+				default:
+					misses.incrementAndGet();
+					return null;
+				}
+			}
+			hits.incrementAndGet();
+			return LDrawPart.newCachedPart(ldrid, description, author, partName, category, keywords, type,
+					primitives);
+		} catch (IOException | BufferUnderflowException | IndexOutOfBoundsException ex) {
+			LDlogger.warn("Unable to read cached part " + f.getPath() + ": " + ex.getLocalizedMessage());
+			misses.incrementAndGet();
+			return null;
+		}
+	}
+
+
+	/**
+	 * Saves a part just parsed from library. Errors are only logged.
+	 */
+	static void write(LDrawLib lib, String ldrid, LDrawPart p) {
+
+		if (cacheDirectory == null)
+			return;
+		String key = lib.getPartKey(ldrid.replace('\\', '/'));
+		if (key == null)
+			return;
+		long[] stamp = lib.getPartStamp(key);
+		if (stamp == null)
+			return;
+		List<LDPrimitive> primitives = p.getPrimitives();
+		Map<String, Integer> stringIndex = new HashMap<String, Integer>();
+		List<String> strings = new ArrayList<String>();
+		int refCount = 0;
+		int floatCount = 0;
+		int stringBytes = 0;
+		for (LDPrimitive pr : primitives) {
+			switch (pr.getType()) {
+			case LINE:
+			case AUXLINE:
+				floatCount += pr.getPointsFV().length;
+				break;
+			case TRIANGLE:
+			case QUAD:
+				floatCount += pr.getPointsFV().length + 3;
+				break;
+			case REFERENCE:
+				if (!stringIndex.containsKey(pr.getId())) {
+					stringIndex.put(pr.getId(), strings.size());
+					strings.add(pr.getId());
+					stringBytes += stringSize(pr.getId());
+				}
+				refCount++;
+				floatCount += 12;
+				break;
+			default:
+				// local colours or unexpected commands
+				return;
+			}
+		}
+		String[] header = { key, p.getDescription(), p.getAuthor(), p.getPartName(), p.getCategory(),
+				p.getKeywords() };
+		for (String s : header) {
+			stringBytes += stringSize(s);
+		}
+		ByteBuffer b = ByteBuffer.allocate(
+				41 + stringBytes + primitives.size() * 5 + refCount * 5 + floatCount * 4);
+		b.putInt(MAGIC);
+		b.putInt(VERSION);
+		putString(b, key);
+		b.putLong(stamp[0]);
+		b.putLong(stamp[1]);
+		b.put((byte) p.getPartType().ordinal());
+		for (int i = 1; i < header.length; i++) {
+			putString(b, header[i]);
+		}
+		b.putInt(strings.size());
+		for (String s : strings) {
+			putString(b, s);
+		}
+		b.putInt(primitives.size());
+		for (LDPrimitive pr : primitives) {
+			b.put((byte) pr.getType().ordinal());
+		}
+		for (LDPrimitive pr : primitives) {
+			b.putInt(pr.getColorIndex());
+		}
+		b.putInt(refCount);
+		for (LDPrimitive pr : primitives) {
+			if (pr.getType() == LDrawCommand.REFERENCE) {
+				b.putInt(stringIndex.get(pr.getId()));
+				b.put((byte) (pr.isInvert() ? 1 : 0));
+			}
+		}
+		b.putInt(floatCount);
+		for (LDPrimitive pr : primitives) {
+			if (pr.getType() == LDrawCommand.REFERENCE) {
+				float[] m = pr.getTransformation().getAsOpenGLMatrix();
+				// back to LDraw order a..i, x, y, z
+				b.putFloat(m[0]).putFloat(m[4]).putFloat(m[8]);
+				b.putFloat(m[1]).putFloat(m[5]).putFloat(m[9]);
+				b.putFloat(m[2]).putFloat(m[6]).putFloat(m[10]);
+				b.putFloat(m[12]).putFloat(m[13]).putFloat(m[14]);
+			} else {
+				for (float f : pr.getPointsFV()) {
+					b.putFloat(f);
+				}
+				if (pr.getNormalFV() != null) {
+					for (float f : pr.getNormalFV()) {
+						b.putFloat(f);
+					}
+				}
+			}
+		}
+		File f = getCacheFile(lib, key);
+		File tmp = new File(f.getPath() + "." + Thread.currentThread().getId() + ".tmp");
+		try {
+			f.getParentFile().mkdirs();
+			Files.write(tmp.toPath(), b.array());
+			Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException ex) {
+			LDlogger.warn("Unable to write cached part " + f.getPath() + ": " + ex.getLocalizedMessage());
+			tmp.delete();
+		}
+	}
+
+
+	private static float[] copy(float[] v, int from, int len) {
+
+		float[] r = new float[len];
+		System.arraycopy(v, from, r, 0, len);
+		return r;
+	}
+
+
+	private static int stringSize(String s) {
+
+		return 2 + (s == null ? 0 : s.getBytes(StandardCharsets.UTF_8).length);
+	}
+
+
+	private static String getString(ByteBuffer b) {
+
+		int len = b.getShort();
+		if (len < 0)
+			return null;
+		byte[] buf = new byte[len];
+		b.get(buf);
+		return new String(buf, StandardCharsets.UTF_8);
+	}
+
+
+	private static void putString(ByteBuffer b, String s) {
+
+		if (s == null) {
+			b.putShort((short) -1);
+			return;
+		}
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		b.putShort((short) Math.min(bytes.length, Short.MAX_VALUE));
+		b.put(bytes, 0, Math.min(bytes.length, Short.MAX_VALUE));
+	}
+
+}
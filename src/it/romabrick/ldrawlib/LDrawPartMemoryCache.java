@@ -0,0 +1,315 @@
+/*
+	Copyright 2026 LDraw Instruction Visualizer contributors
+	This file is part of LDrawLib.
+
+	LDrawLib is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	LDrawLib is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with LDrawLib.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package it.romabrick.ldrawlib;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * In-memory cache of library part definitions, bounded in estimated bytes
+ *
+ * Least recently used parts are evicted when resident size goes over
+ * limit, except pinned parts (parts used by models currently loaded).
+ * Every LDrawLib has its own cache, shared by all contexts using that
+ * library: a part stays pinned until every context that pinned it
+ * releases it.
+ * Evicted parts are read again from library (or from binary part cache)
+ * when needed. Size of a part is estimated from its primitives: objects,
+ * vertex and normal arrays and matrices.
+ *
+ * Parts are requested by import and rendering threads at same time. Map
+ * access is synchronized, but loading is done outside of lock, with at
+ * most one loader for every part: other threads asking for a part being
+ * loaded wait for that load (see getOrLoad()), so every definition is
+ * parsed exactly once.
+ */
+class LDrawPartMemoryCache {
+
+	// rough JVM object sizes, 64 bit with compressed oops
+	private static final int OBJECT_SIZE = 16;
+	private static final int PRIMITIVE_SIZE = OBJECT_SIZE + 40;
+	private static final int MATRIX_SIZE = OBJECT_SIZE + 48;
+	private static final int PART_SIZE = OBJECT_SIZE + 80;
+
+	private final LinkedHashMap<String, Entry> cache = new LinkedHashMap<String, Entry>(256, 0.75f, true);
+	// pinned part id -> contexts that pinned it
+	private final Map<String, Integer> pinned = new HashMap<String, Integer>();
+	private long maxBytes;
+	private long residentBytes = 0;
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+	private long loads = 0;
+	// parts being loaded right now, by part id
+	private final ConcurrentHashMap<String, FutureTask<LDrawPart>> loading =
+			new ConcurrentHashMap<String, FutureTask<LDrawPart>>();
+
+
+	private static class Entry {
+
+		final LDrawPart part;
+		final long size;
+
+		Entry(LDrawPart part, long size) {
+			this.part = part;
+			this.size = size;
+		}
+	}
+
+
+
+	LDrawPartMemoryCache(long maxBytes) {
+
+		this.maxBytes = maxBytes;
+	}
+
+
+
+	/**
+	 * @return cached part, or <b>null</b> if not in cache (a miss)
+	 */
+	synchronized LDrawPart get(String id) {
+
+		Entry e = cache.get(id);
+		if (e == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return e.part;
+	}
+
+
+
+	/**
+	 * Returns cached part, or loads it with loader. If another thread is
+	 * already loading same part, waits for its result instead of loading
+	 * it again.
+	 * 
+	 * @return part, or <b>null</b> if loader returns null (unknown part)
+	 */
+	LDrawPart getOrLoad(final String id, final Callable<LDrawPart> loader) throws IOException, LDrawException {
+
+		LDrawPart p = get(id);
+		if (p != null)
+			return p;
+		FutureTask<LDrawPart> task = new FutureTask<LDrawPart>(new Callable<LDrawPart>() {
+			@Override
+			public LDrawPart call() throws Exception {
+				// loaded and removed from loading map just before us?
+				LDrawPart p = peek(id);
+				if (p != null)
+					return p;
+				p = loader.call();
+				synchronized (LDrawPartMemoryCache.this) {
+					loads++;
+				}
+				return p == null ? null : putIfAbsent(id, p);
+			}
+		});
+		FutureTask<LDrawPart> running = loading.putIfAbsent(id, task);
+		if (running == null) {
+			running = task;
+			try {
+				task.run();
+			} finally {
+				loading.remove(id, task);
+			}
+		}
+		try {
+			return running.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("[LDrawPartMemoryCache] Interrupted while loading " + id);
+		} catch (ExecutionException e) {
+			Throwable c = e.getCause();
+			if (c instanceof IOException)
+				throw (IOException) c;
+			if (c instanceof LDrawException)
+				throw (LDrawException) c;
+			if (c instanceof RuntimeException)
+				throw (RuntimeException) c;
+			if (c instanceof Error)
+				throw (Error) c;
+			throw new IOException(c);
+		}
+	}
+
+
+
+	/**
+	 * Like get(), but doesn't count as hit or miss
+	 */
+	synchronized LDrawPart peek(String id) {
+
+		Entry e = cache.get(id);
+		return e == null ? null : e.part;
+	}
+
+
+
+	/**
+	 * Puts part in cache, if another thread was faster returns its copy
+	 */
+	synchronized LDrawPart putIfAbsent(String id, LDrawPart p) {
+
+		Entry e = cache.get(id);
+		if (e != null) {
+			return e.part;
+		}
+		e = new Entry(p, estimateSize(p));
+		cache.put(id, e);
+		residentBytes += e.size;
+		evict();
+		return p;
+	}
+
+
+
+	private void evict() {
+
+		if (residentBytes <= maxBytes)
+			return;
+		// from least recently used
+		Iterator<Map.Entry<String, Entry>> i = cache.entrySet().iterator();
+		while (residentBytes > maxBytes && i.hasNext()) {
+			Map.Entry<String, Entry> e = i.next();
+			if (pinned.containsKey(e.getKey()))
+				continue;
+			i.remove();
+			residentBytes -= e.getValue().size;
+			evictions++;
+		}
+	}
+
+
+
+	synchronized void pin(Collection<String> ids) {
+
+		for (String id : ids) {
+			Integer n = pinned.get(id);
+			pinned.put(id, n == null ? 1 : n + 1);
+		}
+	}
+
+
+
+	synchronized void unpin(Collection<String> ids) {
+
+		for (String id : ids) {
+			Integer n = pinned.get(id);
+			if (n == null)
+				continue;
+			if (n == 1)
+				pinned.remove(id);
+			else
+				pinned.put(id, n - 1);
+		}
+		evict();
+	}
+
+
+
+	synchronized void setMaxBytes(long max) {
+
+		maxBytes = max;
+		evict();
+	}
+
+
+
+	synchronized long getMaxBytes() {
+		return maxBytes;
+	}
+
+	synchronized long getResidentBytes() {
+		return residentBytes;
+	}
+
+	synchronized long getHits() {
+		return hits;
+	}
+
+	synchronized long getMisses() {
+		return misses;
+	}
+
+	synchronized long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * @return parts loaded (read from library or binary cache) by getOrLoad()
+	 */
+	synchronized long getLoads() {
+		return loads;
+	}
+
+
+
+	/**
+	 * @return a copy of cached parts, in LRU order
+	 */
+	synchronized Collection<LDrawPart> values() {
+
+		Collection<LDrawPart> v = new ArrayList<LDrawPart>(cache.size());
+		for (Entry e : cache.values()) {
+			v.add(e.part);
+		}
+		return v;
+	}
+
+
+
+	@Override
+	public synchronized String toString() {
+
+		return "parts=" + cache.size() + ", pinned=" + pinned.size() + ", resident=" + residentBytes / 1024
+				+ "KB of " + maxBytes / 1024 + "KB, hits=" + hits + ", misses=" + misses + ", evictions=" + evictions
+				+ ", loads=" + loads;
+	}
+
+
+
+	static long estimateSize(LDrawPart p) {
+
+		long size = PART_SIZE;
+		for (LDPrimitive prim : p.getPrimitives()) {
+			size += PRIMITIVE_SIZE;
+			if (prim.getPointsFV() != null)
+				size += OBJECT_SIZE + 4 * prim.getPointsFV().length;
+			if (prim.getNormalFV() != null)
+				size += OBJECT_SIZE + 4 * prim.getNormalFV().length;
+			if (prim.getTransformation() != null)
+				size += MATRIX_SIZE;
+		}
+		return size;
+	}
+
+}
@@ -0,0 +1,277 @@
+/*
+	Copyright 2026 LDraw Instruction Visualizer contributors
+	This file is part of LDrawLib
+
+	LDrawLib is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	LDrawLib is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with LDrawLib.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package it.romabrick.ldrawlib;
+
+/**
+ * Hand-written scanner for LDraw geometry lines (line types 1 to 5)
+ *
+ * Reads color index and coordinates straight from the line characters,
+ * without regex matching and without a substring for every token.
+ * Well-formed lines give the same result of regex patterns in
+ * {@link LDrawParser}; everything else is handed back to regex parser, so
+ * errors are reported with the same messages.
+ */
+final class LDrawScanner {
+
+	private static final double[] POW10 = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12,
+			1e13, 1e14, 1e15, 1e16, 1e17, 1e18 };
+
+	private final String line;
+	private final int len;
+	private int pos;
+	private boolean ok = true;
+
+	private LDrawScanner(String l) {
+
+		line = l;
+		len = l.length();
+		pos = 0;
+	}
+
+	/*
+	 * same chars as regex \s
+	 */
+	static boolean isBlank(char c) {
+
+		return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f' || c == 0x0b;
+	}
+
+	/**
+	 * Classifies a line by its first non-blank character
+	 *
+	 * @param l
+	 *            line to check
+	 * @return line type (1..5) if line is a geometry line with at least a
+	 *         second token, 0 otherwise
+	 */
+	static int lineType(String l) {
+
+		int n = l.length();
+		int i = 0;
+		while (i < n && isBlank(l.charAt(i)))
+			i++;
+		if (i + 1 >= n)
+			return 0;
+		char c = l.charAt(i);
+		if (c < '1' || c > '5' || !isBlank(l.charAt(i + 1)))
+			return 0;
+		i += 2;
+		while (i < n && isBlank(l.charAt(i)))
+			i++;
+		return i < n ? c - '0' : 0;
+	}
+
+	/*
+	 * skips leading blanks and line type, checks it is the expected one
+	 */
+	private void lineType(char type) {
+
+		while (pos < len && isBlank(line.charAt(pos)))
+			pos++;
+		if (pos >= len || line.charAt(pos) != type) {
+			ok = false;
+			return;
+		}
+		pos++;
+		separator();
+	}
+
+	/*
+	 * mandatory blanks between tokens (regex \s+)
+	 */
+	private void separator() {
+
+		if (pos >= len || !isBlank(line.charAt(pos)))
+			ok = false;
+		while (pos < len && isBlank(line.charAt(pos)))
+			pos++;
+	}
+
+	/*
+	 * optional blanks until end of line (regex \s*\Z)
+	 */
+	private void end() {
+
+		while (pos < len && isBlank(line.charAt(pos)))
+			pos++;
+		if (pos < len)
+			ok = false;
+	}
+
+	/*
+	 * reads a plain decimal color index, anything else (direct colors
+	 * included) is left to regex parser
+	 */
+	private int color() {
+
+		int start = pos;
+		int value = 0;
+		while (pos < len) {
+			char c = line.charAt(pos);
+			if (c < '0' || c > '9')
+				break;
+			int d = c - '0';
+			if (value > (Integer.MAX_VALUE - d) / 10)
+				ok = false;
+			value = value * 10 + d;
+			pos++;
+		}
+		if (pos == start)
+			ok = false;
+		return value;
+	}
+
+	/*
+	 * reads a token matching [-.0-9]+ as a float
+	 */
+	private float number() {
+
+		int start = pos;
+		boolean negative = false;
+		boolean point = false;
+		long mantissa = 0;
+		int digits = 0;
+		int scale = 0;
+
+		if (pos < len && line.charAt(pos) == '-') {
+			negative = true;
+			pos++;
+		}
+		while (pos < len) {
+			char c = line.charAt(pos);
+			if (c >= '0' && c <= '9') {
+				if (mantissa < 100000000000000000L) {
+					mantissa = mantissa * 10 + (c - '0');
+					if (point)
+						scale++;
+				} else if (!point) {
+					// too many significant digits, only magnitude matters
+					scale--;
+				}
+				digits++;
+			} else if (c == '.' && !point) {
+				point = true;
+			} else {
+				break;
+			}
+			pos++;
+		}
+		if (digits == 0) {
+			ok = false;
+			return 0f;
+		}
+		if (scale < 0 || scale >= POW10.length) {
+			// unusual but valid number: let Float do the job
+			return Float.parseFloat(line.substring(start, pos));
+		}
+		double v = mantissa / POW10[scale];
+		return (float) (negative ? -v : v);
+	}
+
+	/*
+	 * remaining chars as part/file name
+	 */
+	private String name() {
+
+		return line.substring(pos).trim();
+	}
+
+	/*
+	 * reads blank separated numbers until end of line
+	 */
+	private float[] points(float[] v) {
+
+		for (int k = 0; k < v.length && ok; k++) {
+			separator();
+			v[k] = number();
+		}
+		end();
+		return v;
+	}
+
+	/*
+	 * All methods below return null if line isn't a plain, well-formed line:
+	 * caller falls back to regex parser, that reports exact error
+	 */
+
+	static LDPrimitive lineType1(String l, boolean invert) {
+
+		LDrawScanner s = new LDrawScanner(l);
+		s.lineType('1');
+		int color = s.color();
+		float[] v = new float[12];
+		for (int k = 0; k < 12 && s.ok; k++) {
+			s.separator();
+			v[k] = s.number();
+		}
+		s.separator();
+		if (!s.ok)
+			return null;
+		return LDPrimitive.newPart(color, s.name(), invert, v[3], v[4], v[5], v[6], v[7], v[8], v[9], v[10],
+				v[11], v[0], v[1], v[2]);
+	}
+
+	static LDPrimitive lineType2(String l) {
+
+		LDrawScanner s = new LDrawScanner(l);
+		s.lineType('2');
+		int color = s.color();
+		float[] v = s.points(new float[6]);
+		if (!s.ok)
+			return null;
+		return LDPrimitive.newLine(color, v[0], v[1], v[2], v[3], v[4], v[5]);
+	}
+
+	static LDPrimitive lineType3(String l, boolean invert) {
+
+		LDrawScanner s = new LDrawScanner(l);
+		s.lineType('3');
+		int color = s.color();
+		float[] v = s.points(new float[9]);
+		if (!s.ok)
+			return null;
+		return LDPrimitive.newTriangle(color, invert, v[0], v[1], v[2], v[3], v[4], v[5], v[6], v[7], v[8]);
+	}
+
+	static LDPrimitive lineType4(String l, boolean invert) {
+
+		LDrawScanner s = new LDrawScanner(l);
+		s.lineType('4');
+		int color = s.color();
+		float[] v = s.points(new float[12]);
+		if (!s.ok)
+			return null;
+		return LDPrimitive.newQuad(color, invert, v[0], v[1], v[2], v[3], v[4], v[5], v[6], v[7], v[8], v[9],
+				v[10], v[11]);
+	}
+
+	static LDPrimitive lineType5(String l) {
+
+		LDrawScanner s = new LDrawScanner(l);
+		s.lineType('5');
+		int color = s.color();
+		float[] v = s.points(new float[12]);
+		if (!s.ok)
+			return null;
+		return LDPrimitive.newAuxLine(color, v[0], v[1], v[2], v[3], v[4], v[5], v[6], v[7], v[8], v[9], v[10],
+				v[11]);
+	}
+
+}
@@ -0,0 +1,367 @@
+/*
+	Copyright 2026 LDraw Instruction Visualizer contributors
+	This file is part of LDrawLib.
+
+	LDrawLib is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	LDrawLib is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with LDrawLib.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package it.romabrick.ldrawlib;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Calendar;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Read-only access to a library zip file (complete.zip)
+ *
+ * Zip file is memory mapped and its central directory is read once into
+ * a compact index (parallel arrays, plus a name map). Entries are read
+ * without any lock: every thread copies compressed data from mapped
+ * file and inflates it with an Inflater taken from a pool, so many
+ * threads can load parts at once.
+ *
+ * Only stored and deflated entries are supported, without ZIP64. If zip
+ * file can't be mapped (too big, ZIP64, another compression method) or
+ * mapping is disabled (LDrawLib.mappedZip), a java.util.zip.ZipFile is
+ * used instead, with same interface.
+ */
+class LDrawZipArchive {
+
+	private static final int LOCAL_SIG = 0x04034b50;
+	private static final int CENTRAL_SIG = 0x02014b50;
+	private static final int END_SIG = 0x06054b50;
+	private static final int END_SIZE = 22;
+	private static final int STORED = 0;
+	private static final int DEFLATED = 8;
+	// pooled inflaters, more are created when needed, but not kept
+	private static final int MAX_POOLED = 2 * Runtime.getRuntime().availableProcessors();
+
+	private final File file;
+	// mapped zip, null if ZipFile is used
+	private MappedByteBuffer map = null;
+	private ZipFile zip = null;
+	private final Map<String, Integer> index = new HashMap<String, Integer>();
+	private String[] names;
+	private int[] localOffset;
+	private int[] compressedSize;
+	private int[] size;
+	private short[] method;
+	private long[] time;
+	private final ConcurrentLinkedQueue<Inflater> inflaters = new ConcurrentLinkedQueue<Inflater>();
+	private final ThreadLocal<byte[]> input = new ThreadLocal<byte[]>();
+
+
+
+	/**
+	 * Opens zip file, mapped if possible
+	 *
+	 * @param mapped
+	 *            if false, always uses a ZipFile
+	 * @throws IOException
+	 *             if file is unreadable or isn't a zip file
+	 */
+	LDrawZipArchive(File f, boolean mapped) throws IOException {
+
+		file = f;
+		if (mapped) {
+			try {
+				readMapped();
+				return;
+			} catch (IOException | RuntimeException e) {
+				System.out.println("[LDrawZipArchive] Unable to map " + f.getPath() + ", using ZipFile: "
+						+ e.getLocalizedMessage());
+				map = null;
+				index.clear();
+			}
+		}
+		readZipFile();
+	}
+
+
+
+	/*
+	 * central directory from mapped file
+	 */
+	private void readMapped() throws IOException {
+
+		FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			if (fc.size() > Integer.MAX_VALUE)
+				throw new IOException("Zip file too big");
+			map = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+		} finally {
+			// mapping stays valid after close
+			fc.close();
+		}
+		ByteBuffer b = map.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		// end of central directory record, before a comment of up to 64k
+		int end = -1;
+		for (int i = b.limit() - END_SIZE; i >= 0 && i >= b.limit() - END_SIZE - 0xffff; i--) {
+			if (b.getInt(i) == END_SIG) {
+				end = i;
+				break;
+			}
+		}
+		if (end < 0)
+			throw new IOException("Not a zip file");
+		int count = b.getShort(end + 10) & 0xffff;
+		long cdOffset = b.getInt(end + 16) & 0xffffffffL;
+		if (count == 0xffff || cdOffset == 0xffffffffL)
+			throw new IOException("ZIP64 not supported");
+		names = new String[count];
+		localOffset = new int[count];
+		compressedSize = new int[count];
+		size = new int[count];
+		method = new short[count];
+		time = new long[count];
+		int pos = (int) cdOffset;
+		byte[] name = new byte[256];
+		// MS-DOS times are local time
+		Calendar local = Calendar.getInstance();
+		local.setLenient(false);
+		for (int i = 0; i < count; i++) {
+			if (b.getInt(pos) != CENTRAL_SIG)
+				throw new IOException("Bad central directory");
+			int m = b.getShort(pos + 10) & 0xffff;
+			long cs = b.getInt(pos + 20) & 0xffffffffL;
+			long us = b.getInt(pos + 24) & 0xffffffffL;
+			long lo = b.getInt(pos + 42) & 0xffffffffL;
+			int nameLen = b.getShort(pos + 28) & 0xffff;
+			int extraLen = b.getShort(pos + 30) & 0xffff;
+			int commentLen = b.getShort(pos + 32) & 0xffff;
+			if (cs == 0xffffffffL || us == 0xffffffffL || lo == 0xffffffffL || us > Integer.MAX_VALUE - 1)
+				throw new IOException("ZIP64 not supported");
+			if (m != STORED && m != DEFLATED)
+				throw new IOException("Compression method " + m + " not supported");
+			if (name.length < nameLen)
+				name = new byte[nameLen];
+			b.position(pos + 46);
+			b.get(name, 0, nameLen);
+			names[i] = new String(name, 0, nameLen, StandardCharsets.UTF_8);
+			method[i] = (short) m;
+			compressedSize[i] = (int) cs;
+			size[i] = (int) us;
+			localOffset[i] = (int) lo;
+			time[i] = entryTime(b, pos + 46 + nameLen, extraLen, b.getInt(pos + 12), local);
+			if (!index.containsKey(names[i]))
+				index.put(names[i], i);
+			pos += 46 + nameLen + extraLen + commentLen;
+		}
+	}
+
+
+
+	/*
+	 * modification time as given by ZipEntry.getTime(): from extended
+	 * timestamp or NTFS extra field if any, else from MS-DOS date and time
+	 */
+	private static long entryTime(ByteBuffer b, int extra, int extraLen, int dosTime, Calendar local) {
+
+		int end = extra + extraLen;
+		while (extra + 4 <= end) {
+			int tag = b.getShort(extra) & 0xffff;
+			int len = b.getShort(extra + 2) & 0xffff;
+			int data = extra + 4;
+			if (data + len > end)
+				break;
+			if (tag == 0x5455 && len >= 5 && (b.get(data) & 1) != 0) {
+				// extended timestamp, seconds from epoch
+				return (b.getInt(data + 1) & 0xffffffffL) * 1000;
+			}
+			if (tag == 0x000a && len >= 32 && b.getShort(data + 4) == 0x0001 && b.getShort(data + 6) >= 24) {
+				// NTFS, 100ns from 1601-01-01
+				return b.getLong(data + 8) / 10000 - 11644473600000L;
+			}
+			extra = data + len;
+		}
+		local.clear();
+		local.set(((dosTime >> 25) & 0x7f) + 1980, ((dosTime >> 21) & 0x0f) - 1,
+				(dosTime >> 16) & 0x1f, (dosTime >> 11) & 0x1f, (dosTime >> 5) & 0x3f, (dosTime << 1) & 0x3e);
+		try {
+			return local.getTimeInMillis();
+		} catch (IllegalArgumentException e) {
+			// invalid date, as written by some zip tools
+			return 0;
+		}
+	}
+
+
+
+	/*
+	 * entry list from ZipFile
+	 */
+	private void readZipFile() throws IOException {
+
+		zip = new ZipFile(file);
+		int count = zip.size();
+		names = new String[count];
+		size = new int[count];
+		time = new long[count];
+		Enumeration<? extends ZipEntry> en = zip.entries();
+		for (int i = 0; i < count && en.hasMoreElements(); i++) {
+			ZipEntry ze = en.nextElement();
+			names[i] = ze.getName();
+			size[i] = (int) ze.getSize();
+			time[i] = ze.getTime();
+			if (!index.containsKey(names[i]))
+				index.put(names[i], i);
+		}
+	}
+
+
+
+	boolean isMapped() {
+
+		return map != null;
+	}
+
+
+
+	/**
+	 * @return number of entries, in central directory order
+	 */
+	int size() {
+
+		return names.length;
+	}
+
+	String getName(int entry) {
+
+		return names[entry];
+	}
+
+	boolean isDirectory(int entry) {
+
+		return names[entry].endsWith("/");
+	}
+
+	long getSize(int entry) {
+
+		return size[entry];
+	}
+
+	long getTime(int entry) {
+
+		return time[entry];
+	}
+
+
+
+	/**
+	 * Reads a whole entry. Can be called by many threads at once.
+	 *
+	 * @param name
+	 *            entry name, exactly as in zip file
+	 * @return uncompressed content, or <b>null</b> if there is no such entry
+	 * @throws IOException
+	 *             if entry is corrupted
+	 */
+	byte[] read(String name) throws IOException {
+
+		Integer entry = index.get(name);
+		if (entry == null)
+			return null;
+		if (map == null)
+			return readZipFile(name);
+		int i = entry;
+		ByteBuffer b = map.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		int lo = localOffset[i];
+		if (b.getInt(lo) != LOCAL_SIG)
+			throw new IOException("[LDrawZipArchive] Bad local header for " + name + " in " + file.getPath());
+		// local extra field can differ from central one
+		int data = lo + 30 + (b.getShort(lo + 26) & 0xffff) + (b.getShort(lo + 28) & 0xffff);
+		byte[] out = new byte[size[i]];
+		b.position(data);
+		if (method[i] == STORED) {
+			b.get(out);
+			return out;
+		}
+		// one more byte, needed by Inflater without zlib header
+		byte[] in = input.get();
+		if (in == null || in.length < compressedSize[i] + 1) {
+			in = new byte[Math.max(compressedSize[i] + 1, 8192)];
+			input.set(in);
+		}
+		b.get(in, 0, compressedSize[i]);
+		in[compressedSize[i]] = 0;
+		Inflater inf = inflaters.poll();
+		if (inf == null)
+			inf = new Inflater(true);
+		try {
+			inf.setInput(in, 0, compressedSize[i] + 1);
+			int n = 0;
+			while (n < out.length) {
+				int r = inf.inflate(out, n, out.length - n);
+				if (r == 0 && (inf.finished() || inf.needsInput() || inf.needsDictionary()))
+					break;
+				n += r;
+			}
+			if (n != out.length)
+				throw new IOException("[LDrawZipArchive] Truncated entry " + name + " in " + file.getPath());
+		} catch (DataFormatException e) {
+			inf.end();
+			inf = null;
+			throw new IOException("[LDrawZipArchive] Corrupted entry " + name + " in " + file.getPath() + ": "
+					+ e.getLocalizedMessage());
+		} finally {
+			if (inf != null) {
+				inf.reset();
+				if (inflaters.size() < MAX_POOLED)
+					inflaters.offer(inf);
+				else
+					inf.end();
+			}
+		}
+		return out;
+	}
+
+
+
+	private byte[] readZipFile(String name) throws IOException {
+
+		ZipEntry ze = zip.getEntry(name);
+		if (ze == null)
+			return null;
+		InputStream in = zip.getInputStream(ze);
+		try {
+			byte[] out = new byte[(int) ze.getSize()];
+			int n = 0, r;
+			while (n < out.length && (r = in.read(out, n, out.length - n)) > 0) {
+				n += r;
+			}
+			if (n != out.length)
+				throw new IOException("[LDrawZipArchive] Truncated entry " + name + " in " + file.getPath());
+			return out;
+		} finally {
+			in.close();
+		}
+	}
+
+}
@@ -24,7 +24,27 @@
  * Opens and gets parts from library files (official and unofficial) 
  * right from ZIP file.
  * See http://www.ldraw.org/ for LDraw file specifications
- * 
+ * <p>
+ * State is split between LDrawLib and LDrawContext. LDrawLib holds
+ * read-only state, shared by every context using that library: part
+ * definitions (bounded LRU cache) and colors. LDrawContext holds the
+ * state of a single model: custom parts, submodels and placed parts.
+ * Static methods of LDrawPart and LDrawColor use current context of
+ * calling thread (default context if none is set).
+ * <p>
+ * Both can be used by many threads at once (import task, rendering
+ * pool, Swing EDT):
+ * <ul>
+ * <li>a library part asked by many threads is parsed only once, others
+ * wait for it</li>
+ * <li>custom parts, submodels and placed parts are in concurrent maps;
+ * a duplicated custom part name is detected atomically</li>
+ * <li>color table is read once from library and published as an
+ * immutable map</li>
+ * <li>library zip files are memory mapped, parts are inflated by
+ * calling threads without locks</li>
+ * </ul>
+ *
  * @author Mario Pascucci
  *
  */
@@ -452,6 +452,81 @@ public class Matrix3D {
 	}
 	
 	
+	//////////////////////////////////////
+	// allocation free versions: results are written in
+	// caller supplied arrays
+	
+	
+	// same as getAsOpenGLMatrix(), 16 floats from off
+	public void getAsOpenGLMatrix(float[] out, int off) {
+		
+		out[off] = a; out[off+1] = d; out[off+2] = g; out[off+3] = 0f;
+		out[off+4] = b; out[off+5] = e; out[off+6] = h; out[off+7] = 0f;
+		out[off+8] = c; out[off+9] = f; out[off+10] = i; out[off+11] = 0f;
+		out[off+12] = x; out[off+13] = y; out[off+14] = z; out[off+15] = 1f;
+	}
+	
+	
+	// LDraw order a..i,x,y,z, 12 floats from off
+	public void getValues(float[] out, int off) {
+		
+		out[off] = a; out[off+1] = b; out[off+2] = c;
+		out[off+3] = d; out[off+4] = e; out[off+5] = f;
+		out[off+6] = g; out[off+7] = h; out[off+8] = i;
+		out[off+9] = x; out[off+10] = y; out[off+11] = z;
+	}
+	
+	
+	public void transformPoint(float px, float py, float pz, float[] out, int off) {
+		
+		out[off] = a * px + b * py + c * pz + x;
+		out[off+1] = d * px + e * py + f * pz + y;
+		out[off+2] = g * px + h * py + i * pz + z;
+	}
+	
+	
+	public void transformNormal(float px, float py, float pz, float[] out, int off) {
+		
+		out[off] = a * px + b * py + c * pz;
+		out[off+1] = d * px + e * py + f * pz;
+		out[off+2] = g * px + h * py + i * pz;
+	}
+	
+	
+	/*
+	 * transforms count points packed in src, x,y,z every srcStride floats,
+	 * to dst, every dstStride floats. src and dst can be the same array,
+	 * to transform in place.
+	 */
+	public void transformPoints(float[] src, int srcOff, int srcStride, 
+			float[] dst, int dstOff, int dstStride, int count) {
+		
+		for (int k = 0; k < count; k++) {
+			int s = srcOff + k * srcStride;
+			int t = dstOff + k * dstStride;
+			float px = src[s], py = src[s+1], pz = src[s+2];
+			dst[t] = a * px + b * py + c * pz + x;
+			dst[t+1] = d * px + e * py + f * pz + y;
+			dst[t+2] = g * px + h * py + i * pz + z;
+		}
+	}
+	
+	
+	// as transformPoints, without translation
+	public void transformNormals(float[] src, int srcOff, int srcStride, 
+			float[] dst, int dstOff, int dstStride, int count) {
+		
+		for (int k = 0; k < count; k++) {
+			int s = srcOff + k * srcStride;
+			int t = dstOff + k * dstStride;
+			float px = src[s], py = src[s+1], pz = src[s+2];
+			dst[t] = a * px + b * py + c * pz;
+			dst[t+1] = d * px + e * py + f * pz;
+			dst[t+2] = g * px + h * py + i * pz;
+		}
+	}
+	
+	
 	//////////////////////////////////////
 	// static methods returns most used
 	// basic transform matrix 
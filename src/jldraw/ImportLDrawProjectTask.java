@@ -21,15 +21,23 @@ package jldraw;
 
 import it.romabrick.ldrawlib.LDPrimitive;
 import it.romabrick.ldrawlib.LDrawCommand;
+import it.romabrick.ldrawlib.LDrawContext;
 import it.romabrick.ldrawlib.LDrawException;
 import it.romabrick.ldrawlib.LDrawParser;
 import it.romabrick.ldrawlib.LDrawPart;
 import it.romabrick.ldrawlib.LDrawPartType;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.LineNumberReader;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 import javax.swing.SwingWorker;
 
@@ -43,10 +51,31 @@ public class ImportLDrawProjectTask extends SwingWorker<Integer, Void> {
 	private LDrawModel mainModel; 		// model imported
 	private String internalLog = ""; 	// internal log for errors and warnings
 	private boolean warnings = false;
+	private final LDrawContext context;
+	private LDPartPrefetcher prefetcher = null;
+	// load referenced parts in background while reading file
+	public static boolean prefetchParts = true;
+	// chars read again from reader buffer after header lines
+	private static final int HEADER_LIMIT = 65536;
+	private static ExecutorService prefetchPool = null;
 
+	/**
+	 * Task imports in context of thread that creates it (see LDrawContext),
+	 * even when executed by a Swing worker thread
+	 */
 	public ImportLDrawProjectTask(File dat) {
 
 		ldr = dat;
+		context = LDrawContext.current();
+	}
+
+	/**
+	 * Sets pool used to prefetch parts, <b>null</b> for a thread for every
+	 * core
+	 */
+	public static void setPrefetchPool(ExecutorService pool) {
+
+		prefetchPool = pool;
 	}
 
 	public LDrawModel getModel() {
@@ -71,8 +100,55 @@ public class ImportLDrawProjectTask extends SwingWorker<Integer, Void> {
 
 	}
 
+	/*
+	 * part is loaded in background, if prefetch is enabled
+	 */
+	private void prefetch(String id) {
+
+		if (prefetcher != null)
+			prefetcher.prefetch(id);
+	}
+
+	/*
+	 * progress as bytes read from file
+	 */
+	private void updateProgress(FileChannel fc, long size) throws IOException {
+
+		if (size > 0)
+			setProgress((int) Math.min(99, fc.position() * 100 / size));
+	}
+
+	/*
+	 * File is read once. Format is chosen at first FILE command or model
+	 * line (part, primitive or STEP): an MPD file has a FILE command before
+	 * any model line. Main model parts in MPD are placed at end of file,
+	 * when all submodels are known.
+	 * Referenced parts are loaded by prefetch while file is read; task
+	 * ends when they are all loaded, with subparts.
+	 */
 	@Override
 	protected Integer doInBackground() throws IOException {
+
+		LDrawContext previous = LDrawContext.setCurrent(context);
+		if (prefetchParts)
+			prefetcher = new LDPartPrefetcher(context, prefetchPool);
+		try {
+			int count = readProject();
+			if (prefetcher != null)
+				prefetcher.await();
+			return count;
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("[ImportLDrawProjectTask] Import interrupted");
+		} finally {
+			if (prefetcher != null) {
+				prefetcher.cancel();
+				prefetcher = null;
+			}
+			LDrawContext.setCurrent(previous);
+		}
+	}
+
+	private Integer readProject() throws IOException {
 		
 		int count = 0;
 		String modelDir, part;
@@ -80,68 +156,92 @@ public class ImportLDrawProjectTask extends SwingWorker<Integer, Void> {
 		LDPrimitive p = null;
 		LDrawPartType partType;
 
-		LineNumberReader lnr = new LineNumberReader(new FileReader(ldr));
+		FileInputStream fis = new FileInputStream(ldr);
+		FileChannel fc = fis.getChannel();
+		long fileSize = fc.size();
+		LineNumberReader lnr = new LineNumberReader(new InputStreamReader(fis));
 		String line;
-		int lineNo = 0;
 		int currentStepNo = -1;
-		while ((line = lnr.readLine()) != null) {
-			lineNo++;
-		}
-		lnr.close();
-		// we cheats about complete
-		lineNo += 10;
 		setProgress(0);
 		boolean isMpd = false;
 		modelDir = ldr.getParent();
-		lnr = new LineNumberReader(new FileReader(ldr));
+		// header lines (name, author, license, BFC...) may come before
+		// FILE: they are read again when format is known, from reader
+		// buffer if header is short, else from a reopened file
+		lnr.mark(HEADER_LIMIT);
+		int headerChars = 0;
 		while ((line = lnr.readLine()) != null) {
+			// line end is one or two chars
+			headerChars += line.length() + 2;
 			LDrawCommand type = LDrawParser.parseCommand(line);
 			if (type == LDrawCommand.MPDFILE) {
 				isMpd = true;
 				break;
 			}
+			if (type == LDrawCommand.REFERENCE || type == LDrawCommand.LINE || type == LDrawCommand.TRIANGLE
+					|| type == LDrawCommand.QUAD || type == LDrawCommand.AUXLINE || type == LDrawCommand.STEP)
+				break;
 		}
-		lnr.close();
-		lnr = new LineNumberReader(new FileReader(ldr));
+		if (headerChars <= HEADER_LIMIT) {
+			lnr.reset();
+		}
+		else {
+			lnr.close();
+			fis = new FileInputStream(ldr);
+			fc = fis.getChannel();
+			lnr = new LineNumberReader(new InputStreamReader(fis));
+		}
+		line = lnr.readLine();
 		boolean isFirstModel = true;
 		boolean isMainModel = false;
 		boolean isSubModel = false;
 		if (isMpd) {
-		// gets all sub-model and custom part in MPD
-		// and save as LDrawCustomPart
+			// main model primitives and submodel references not yet declared
+			// are resolved at end of file
+			List<LDPrimitive> mainPrimitives = new ArrayList<LDPrimitive>();
+			List<Integer> mainLines = new ArrayList<Integer>();
+			List<LDrawPart> pendingModels = new ArrayList<LDrawPart>();
+			List<LDPrimitive> pendingRefs = new ArrayList<LDPrimitive>();
+			List<Integer> pendingLines = new ArrayList<Integer>();
 			boolean firstLine = false;
+			boolean winding = false;
+			boolean invNext = false;
 			partType = LDrawPartType.UNKNOWN;
-			while ((line = lnr.readLine()) != null) {
+			do {
+				updateProgress(fc, fileSize);
 				LDrawCommand type = LDrawParser.parseCommand(line);
 				try {
 					switch (type) {
 					case MPDFILE:
 					// if a new FILE command is found without NOFILE
 					// first...
-						if (isSubModel && !isMainModel) {
+						if (isSubModel) {
 							subModel.setPartType(partType);
 						}
 						isMainModel = false;
 						isSubModel = false;
+						winding = false;
+						invNext = false;
 						part = LDrawParser.parseMpdFile(line);
+						firstLine = true;
 						if (isFirstModel) {
 							mainModel = LDrawModel.newLDrawModel(part);
 							isFirstModel = false;
 							isMainModel = true;
 						} else {
 							isSubModel = true;
+							partType = LDrawPartType.SUBMODEL;
 							if (!LDrawPart.existsCustomPart(part)) {
 								subModel = LDrawPart.newCustomPart(part);
 							} else {
 					// ------------------- duplicate submodel name
 								addLogLine(ldr.getName(), lnr.getLineNumber(),
 										"Duplicate sub-model name '" + part + "' in MPD");
-								continue;
+								subModel = LDrawPart.getCustomPart(part);
+								partType = subModel.getPartType();
+								firstLine = false;
 							}
 						}
-						firstLine = true;
-						if (!isMainModel)
-							partType = LDrawPartType.SUBMODEL;
 						break;
 					case MPDNOFILE:
 						if (!isSubModel && !isMainModel) {
@@ -152,33 +252,25 @@ public class ImportLDrawProjectTask extends SwingWorker<Integer, Void> {
 						}
 						isMainModel = false;
 						isSubModel = false;
-						break;
+						break;	// no parts alone admitted in MPD files, so we
+								// are always in submodel
 					case FILETYPE:
-						if (isSubModel && !isMainModel) {
+						if (isSubModel) {
 							subModel.setPartType(LDrawParser.parsePartType(line));
 						}
 						break;
 					case AUTHOR:
 						if (isMainModel) {
 							mainModel.setAuthor(LDrawParser.parseAuthor(line));
-						} else {
+						} else if (isSubModel) {
 							subModel.setAuthor(LDrawParser.parseAuthor(line));
 						}
 						break;
 					case NAME:
-						if (!isMainModel) {
+						if (isSubModel) {
 							subModel.setPartName(LDrawParser.parsePartName(line));
 						}
 						break;
-					case TRIANGLE:
-					case LINE:
-					case AUXLINE:
-					case QUAD:
-						partType = LDrawPartType.CUSTOM_PART;
-						break;
-					case COMMENT:
-					case EMPTY:
-						break;
 					case META_UNKNOWN:
 						if (firstLine) {
 							if (isMainModel) {
@@ -189,70 +281,9 @@ public class ImportLDrawProjectTask extends SwingWorker<Integer, Void> {
 							firstLine = false;
 						}
 						break;
-					default:
-						if (!isSubModel && !isMainModel) {
-							addLogLine(ldr.getName(), lnr.getLineNumber(),
-									"Invalid MPD file format: primitive or command outside FILE..NOFILE block:" + line);
-						}
-						break;
-					}
-				} catch (LDrawException exc) {
-					addLogLine(ldr.getName(), lnr.getLineNumber(), exc.getLocalizedMessage());
-				}
-				if (isSubModel && !isMainModel) {
-					subModel.setPartType(partType);
-				}
-			}
-			lnr.close();
-			lnr = new LineNumberReader(new FileReader(ldr));
-			// now read model file
-			isSubModel = false;
-			isFirstModel = true;
-			isMainModel = false;
-			boolean winding = false;
-			boolean invNext = false;
-			firstLine = false;
-			partType = LDrawPartType.UNKNOWN;
-			while ((line = lnr.readLine()) != null) {
-				setProgress(lnr.getLineNumber() * 100 / lineNo);
-				LDrawCommand type = LDrawParser.parseCommand(line);
-				try {
-					switch (type) {
-					case MPDFILE:
-					// in case FILE command is found without NOFILE first
-						if (isSubModel) {
-					// --------- we are in submodel, close and prepare
-					// next submodel
-							isSubModel = false;
-							if (isMainModel) {
-					// end loading main model
-								isMainModel = false;
-							}
-						}
-						winding = false;
-						invNext = false;
-						part = LDrawParser.parseMpdFile(line);
-						isSubModel = true;
-						if (isFirstModel) {
-							isFirstModel = false;
-							isMainModel = true;
-						} else {
-							subModel = LDrawPart.getCustomPart(part);
-						}
-						firstLine = true;
+					case COMMENT:
+					case EMPTY:
 						break;
-					case MPDNOFILE:
-						if (isSubModel) {
-					// --------- we are in submodel, close and prepare
-					// next submodel
-							isSubModel = false;
-							if (isMainModel) {
-						// end loading main model
-								isMainModel = false;
-							}
-						}
-						break;	// no parts alone admitted in MPD files, so we
-								// are always in submodel
 					case BFC_CCW:
 						winding = false;
 						break;
@@ -265,83 +296,98 @@ public class ImportLDrawProjectTask extends SwingWorker<Integer, Void> {
 					case REFERENCE:
 						p = LDrawParser.parseLineType1(line, invNext);
 						invNext = false;
-						if (LDrawPart.isLdrPart(p.getId()) || LDrawPart.existsCustomPart(p.getId())) {
-							if (isMainModel) {
-					// add to main model
-								mainModel.addPart(LDrawPart.newPlacedPart(p));
-								count++;
-							} else if (isSubModel) {
-					// add to current submodel/custom part
-								subModel.addPrimitive(p);
-							} else {
-								addLogLine(ldr.getName(), lnr.getLineNumber(),
-										"Invalid MPD file format: primitive or command outside FILE..NOFILE block:"
-												+ line);
-							}
-						} else {
-							addLogLine(subModel.getDescription(), lnr.getLineNumber(),
-									"Unknown submodel or part: " + p.getId());
-						}
-						break;
-					case TRIANGLE:
-						p = LDrawParser.parseLineType3(line, !winding);
+						prefetch(p.getId());
 						if (isMainModel) {
-					// add to main model
-							mainModel.addPart(LDrawPart.newPlacedPart(p));
-							count++;
+					// placed in main model at end of file
+							mainPrimitives.add(p);
+							mainLines.add(lnr.getLineNumber());
 						} else if (isSubModel) {
 					// add to current submodel/custom part
 							subModel.addPrimitive(p);
+							if (!LDrawPart.isLdrPart(p.getId()) && !LDrawPart.existsCustomPart(p.getId())) {
+					// may be a submodel declared later
+								pendingModels.add(subModel);
+								pendingRefs.add(p);
+								pendingLines.add(lnr.getLineNumber());
+							}
+						} else {
+							addLogLine(ldr.getName(), lnr.getLineNumber(),
+									"Invalid MPD file format: primitive or command outside FILE..NOFILE block:"
+											+ line);
 						}
 						break;
+					case TRIANGLE:
 					case AUXLINE:
-						p = LDrawParser.parseLineType5(line);
-						if (isMainModel) {
-					// add to main model
-							mainModel.addPart(LDrawPart.newPlacedPart(p));
-							count++;
-						} else if (isSubModel) {
-					// add to current submodel/custom part
-							subModel.addPrimitive(p);
-						}
-						break;
 					case LINE:
-						p = LDrawParser.parseLineType2(line);
-						if (isMainModel) {
-					// add to main model
-							mainModel.addPart(LDrawPart.newPlacedPart(p));
-							count++;
-						} else if (isSubModel) {
-					// add to current submodel/custom part
-							subModel.addPrimitive(p);
-						}
-						break;
 					case QUAD:
-						p = LDrawParser.parseLineType4(line, !winding);
+						if (type == LDrawCommand.TRIANGLE)
+							p = LDrawParser.parseLineType3(line, !winding);
+						else if (type == LDrawCommand.QUAD)
+							p = LDrawParser.parseLineType4(line, !winding);
+						else if (type == LDrawCommand.LINE)
+							p = LDrawParser.parseLineType2(line);
+						else
+							p = LDrawParser.parseLineType5(line);
 						if (isMainModel) {
-					// add to main model
-							mainModel.addPart(LDrawPart.newPlacedPart(p));
-							count++;
+					// placed in main model at end of file
+							mainPrimitives.add(p);
+							mainLines.add(lnr.getLineNumber());
 						} else if (isSubModel) {
 					// add to current submodel/custom part
+							partType = LDrawPartType.CUSTOM_PART;
 							subModel.addPrimitive(p);
 						}
 						break;
 					default:
+						if (!isSubModel && !isMainModel) {
+							addLogLine(ldr.getName(), lnr.getLineNumber(),
+									"Invalid MPD file format: primitive or command outside FILE..NOFILE block:" + line);
+						}
 						break;
 					}
 				} catch (LDrawException exc) {
 					addLogLine(ldr.getName(), lnr.getLineNumber(), exc.getLocalizedMessage());
 				}
+				if (isSubModel) {
+					subModel.setPartType(partType);
+				}
+			} while ((line = lnr.readLine()) != null);
+			// now all submodels are known
+			for (int i = 0; i < pendingRefs.size(); i++) {
+				p = pendingRefs.get(i);
+				if (!LDrawPart.existsCustomPart(p.getId())) {
+					pendingModels.get(i).getPrimitives().remove(p);
+					addLogLine(pendingModels.get(i).getDescription(), pendingLines.get(i),
+							"Unknown submodel or part: " + p.getId());
+				}
+			}
+			for (int i = 0; i < mainPrimitives.size(); i++) {
+				p = mainPrimitives.get(i);
+				try {
+					if (p.getType() == LDrawCommand.REFERENCE && !LDrawPart.isLdrPart(p.getId())
+							&& !LDrawPart.existsCustomPart(p.getId())) {
+						addLogLine(ldr.getName(), mainLines.get(i), "Unknown submodel or part: " + p.getId());
+						continue;
+					}
+					mainModel.addPart(LDrawPart.newPlacedPart(p));
+					count++;
+				} catch (LDrawException exc) {
+					addLogLine(ldr.getName(), mainLines.get(i), exc.getLocalizedMessage());
+				}
 			}
-		} else { 
+		} else if (line != null) { 
 			// it is LDR/DAT format
 			mainModel = LDrawModel.newLDrawModel(ldr.getName());
 			boolean winding = false;
 			boolean invNext = false;
 			boolean firstLine = false;
-			while ((line = lnr.readLine()) != null) {
-				setProgress(lnr.getLineNumber() * 100 / lineNo);
+			// parts are placed at end of file, while prefetch loads them
+			List<LDPrimitive> placed = new ArrayList<LDPrimitive>();
+			List<Integer> placedLines = new ArrayList<Integer>();
+			// step index of placed part, null to leave it unset
+			List<Integer> placedSteps = new ArrayList<Integer>();
+			do {
+				updateProgress(fc, fileSize);
 				LDrawCommand type = LDrawParser.parseCommand(line);
 				try {
 					switch (type) {
@@ -361,6 +407,10 @@ public class ImportLDrawProjectTask extends SwingWorker<Integer, Void> {
 					case BFC_INVERTNEXT:
 						invNext = true;
 						break;
+					case MPDFILE:
+					// FILE after model lines
+						addLogLine(ldr.getName(), lnr.getLineNumber(), "Displaced 'FILE' command, model read as LDR");
+						break;
 					case REFERENCE:
 						p = LDrawParser.parseLineType1(line, invNext);
 						if (!LDrawPart.isLdrPart(p.getId())) {
@@ -376,40 +426,53 @@ public class ImportLDrawProjectTask extends SwingWorker<Integer, Void> {
 									LDrawPart pt = LDrawPart.newCustomPart(p.getId());
 									expandSubFile(pt, modelDir, invNext);
 								}
-								mainModel.addPart(LDrawPart.newPlacedPart(p));
+								placed.add(p);
+								placedLines.add(lnr.getLineNumber());
+								placedSteps.add(null);
 							}
 						} else {
 							count++;
-							LDrawPart ldpart = LDrawPart.newPlacedPart(p);
-							ldpart.setStepIndex(currentStepNo);
-							mainModel.addPart(ldpart);
+							prefetch(p.getId());
+							placed.add(p);
+							placedLines.add(lnr.getLineNumber());
+							placedSteps.add(currentStepNo);
 						}
 						invNext = false;
 						break;
 					case COLOUR:
-						mainModel
-								.addPart(LDrawPart.newPlacedPart(LDPrimitive.cmdColour(LDrawParser.parseColour(line))));
+						p = LDPrimitive.cmdColour(LDrawParser.parseColour(line));
+						placed.add(p);
+						placedLines.add(lnr.getLineNumber());
+						placedSteps.add(null);
 						break;
 					case AUXLINE:
 						p = LDrawParser.parseLineType5(line);
 					// add to main model
-						mainModel.addPart(LDrawPart.newPlacedPart(p));
+						placed.add(p);
+						placedLines.add(lnr.getLineNumber());
+						placedSteps.add(null);
 						count++;
 						break;
 					case LINE:
 						p = LDrawParser.parseLineType2(line);
 					// add to main model
-						mainModel.addPart(LDrawPart.newPlacedPart(p));
+						placed.add(p);
+						placedLines.add(lnr.getLineNumber());
+						placedSteps.add(null);
 						count++;
 						break;
 					case TRIANGLE:
 						p = LDrawParser.parseLineType3(line, winding);
-						mainModel.addPart(LDrawPart.newPlacedPart(p));
+						placed.add(p);
+						placedLines.add(lnr.getLineNumber());
+						placedSteps.add(null);
 						count++;
 						break;
 					case QUAD:
 						p = LDrawParser.parseLineType4(line, winding);
-						mainModel.addPart(LDrawPart.newPlacedPart(p));
+						placed.add(p);
+						placedLines.add(lnr.getLineNumber());
+						placedSteps.add(null);
 						count++;
 						break;
 					case META_UNKNOWN:
@@ -424,7 +487,20 @@ public class ImportLDrawProjectTask extends SwingWorker<Integer, Void> {
 				} catch (LDrawException exc) {
 					addLogLine(ldr.getName(), lnr.getLineNumber(), exc.getLocalizedMessage());
 				}
+			} while ((line = lnr.readLine()) != null);
+			for (int i = 0; i < placed.size(); i++) {
+				try {
+					LDrawPart ldpart = LDrawPart.newPlacedPart(placed.get(i));
+					if (placedSteps.get(i) != null)
+						ldpart.setStepIndex(placedSteps.get(i));
+					mainModel.addPart(ldpart);
+				} catch (LDrawException exc) {
+					addLogLine(ldr.getName(), placedLines.get(i), exc.getLocalizedMessage());
+				}
 			}
+		} else {
+			// empty file
+			mainModel = LDrawModel.newLDrawModel(ldr.getName());
 		}
 		try {
 			lnr.close();
@@ -476,6 +552,7 @@ public class ImportLDrawProjectTask extends SwingWorker<Integer, Void> {
 							}
 						}
 					} else {
+						prefetch(p.getId());
 						model.addPrimitive(p);
 					}
 					invNext = false;
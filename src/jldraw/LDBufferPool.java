@@ -0,0 +1,138 @@
+/*
+	Copyright 2026 LDraw Instruction Visualizer contributors
+	This file is part of JLDraw
+
+	JLDraw is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	JLDraw is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with JLDraw.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+
+package jldraw;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
+
+/**
+ * Off-heap memory for vertex buffers
+ *
+ * Buffers are direct and in native byte order, so they are handed to
+ * glBufferData() as they are. Allocating and freeing a direct buffer is
+ * slow, so small buffers are slices of a bigger block: every thread
+ * slices its own block, without locks. A block is freed by garbage
+ * collector when all buffers sliced from it are unreachable.
+ */
+final class LDBufferPool {
+
+	private static final int BLOCK_SIZE = 1 << 20;
+	// bigger buffers get a direct buffer of their own
+	private static final int MAX_SLICE = BLOCK_SIZE / 8;
+
+	private static final ThreadLocal<ByteBuffer> block = new ThreadLocal<ByteBuffer>();
+	private static final ByteBuffer EMPTY = ByteBuffer.allocateDirect(0).order(ByteOrder.nativeOrder());
+
+
+
+	private LDBufferPool() {
+	}
+
+
+
+	/**
+	 * @return a direct buffer of size bytes, position 0, native order
+	 */
+	static ByteBuffer allocate(int size) {
+
+		if (size == 0)
+			return EMPTY.duplicate().order(ByteOrder.nativeOrder());
+		if (size > MAX_SLICE)
+			return ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+		ByteBuffer b = block.get();
+		if (b == null || b.remaining() < size) {
+			b = ByteBuffer.allocateDirect(BLOCK_SIZE);
+			block.set(b);
+		}
+		int start = b.position();
+		b.limit(start + size);
+		ByteBuffer s = b.slice().order(ByteOrder.nativeOrder());
+		// next slice aligned to 8 bytes
+		b.limit(b.capacity());
+		b.position(Math.min((start + size + 7) & ~7, b.capacity()));
+		return s;
+	}
+
+
+
+	static FloatBuffer allocateFloats(int count) {
+
+		return allocate(count * 4).asFloatBuffer();
+	}
+
+
+
+	/**
+	 * @return a direct copy of first count floats of v
+	 */
+	static FloatBuffer copyOf(float[] v, int count) {
+
+		FloatBuffer f = allocateFloats(count);
+		f.put(v, 0, count);
+		f.rewind();
+		return f;
+	}
+
+
+
+	/**
+	 * @return a direct copy of first count ints of v
+	 */
+	static IntBuffer copyOf(int[] v, int count) {
+
+		IntBuffer b = allocate(count * 4).asIntBuffer();
+		b.put(v, 0, count);
+		b.rewind();
+		return b;
+	}
+
+
+
+	/**
+	 * @return a direct copy of first count ints of v, as unsigned shorts
+	 */
+	static ShortBuffer copyOfShort(int[] v, int count) {
+
+		ShortBuffer b = allocate(count * 2).asShortBuffer();
+		for (int i = 0; i < count; i++) {
+			b.put(i, (short) v[i]);
+		}
+		return b;
+	}
+
+
+
+	/**
+	 * @return a direct copy of first count bytes of v
+	 */
+	static ByteBuffer copyOf(byte[] v, int count) {
+
+		ByteBuffer b = allocate(count);
+		b.put(v, 0, count);
+		b.rewind();
+		return b;
+	}
+
+}
@@ -0,0 +1,193 @@
+/*
+	Copyright 2026 LDraw Instruction Visualizer contributors
+	This file is part of JLDraw
+
+	JLDraw is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	JLDraw is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with JLDraw.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+
+package jldraw;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+
+/**
+ * Compact triangle vertex format, for OpenGL buffers
+ *
+ * Position, normal and color of a vertex are interleaved in a single
+ * buffer. Normal is packed in a signed 10:10:10:2 integer
+ * (GL_INT_2_10_10_10_REV), color is r,g,b,a bytes. Position is:
+ * <ul>
+ * <li>three floats: 20 bytes for every vertex (FLOAT_STRIDE)</li>
+ * <li>three signed shorts and two bytes of padding, quantized in part
+ * bounding box: 16 bytes for every vertex (QUANTIZED_STRIDE). Position
+ * is <code>(x,y,z) * scale + offset</code>, with same scale on every
+ * axis, so normals keep their direction.</li>
+ * </ul>
+ * Float vertex with separate color takes 28 bytes.
+ */
+public final class LDCompactVertex {
+
+	public static final int FLOAT_STRIDE = 20;
+	public static final int QUANTIZED_STRIDE = 16;
+	// offset of normal and color in a vertex
+	public static final int FLOAT_NORMAL = 12;
+	public static final int FLOAT_COLOR = 16;
+	public static final int QUANTIZED_NORMAL = 8;
+	public static final int QUANTIZED_COLOR = 12;
+
+
+
+	private LDCompactVertex() {
+	}
+
+
+
+	/**
+	 * Packs vertices with float position
+	 *
+	 * @param v		vertices x,y,z,nx,ny,nz
+	 * @param c		colors r,g,b,a
+	 * @param count	vertex count
+	 * @return a direct buffer, count * FLOAT_STRIDE bytes
+	 */
+	public static ByteBuffer pack(FloatBuffer v, ByteBuffer c, int count) {
+
+		ByteBuffer b = LDBufferPool.allocate(count * FLOAT_STRIDE);
+		for (int i = 0; i < count; i++) {
+			int o = i * FLOAT_STRIDE;
+			b.putFloat(o, v.get(i*6));
+			b.putFloat(o + 4, v.get(i*6+1));
+			b.putFloat(o + 8, v.get(i*6+2));
+			b.putInt(o + FLOAT_NORMAL, packNormal(v.get(i*6+3), v.get(i*6+4), v.get(i*6+5)));
+			putColor(b, o + FLOAT_COLOR, c, i);
+		}
+		return b;
+	}
+
+
+
+	/**
+	 * Dequantization transform for vertices in a bounding box
+	 *
+	 * @param box	min x,y,z and max x,y,z
+	 * @return	offset x,y,z and scale
+	 */
+	public static float[] getDequantization(float[] box) {
+
+		float size = Math.max(box[3] - box[0], Math.max(box[4] - box[1], box[5] - box[2]));
+		float scale = size > 0 ? size / 65535f : 1f;
+		return new float[] {
+				box[0] + 32768f * scale,
+				box[1] + 32768f * scale,
+				box[2] + 32768f * scale,
+				scale };
+	}
+
+
+
+	/**
+	 * Packs vertices with quantized position
+	 *
+	 * @param dequant	transform from getDequantization()
+	 * @return a direct buffer, count * QUANTIZED_STRIDE bytes
+	 */
+	public static ByteBuffer packQuantized(FloatBuffer v, ByteBuffer c, int count, float[] dequant) {
+
+		ByteBuffer b = LDBufferPool.allocate(count * QUANTIZED_STRIDE);
+		float inv = 1f / dequant[3];
+		for (int i = 0; i < count; i++) {
+			int o = i * QUANTIZED_STRIDE;
+			b.putShort(o, quantize(v.get(i*6), dequant[0], inv));
+			b.putShort(o + 2, quantize(v.get(i*6+1), dequant[1], inv));
+			b.putShort(o + 4, quantize(v.get(i*6+2), dequant[2], inv));
+			b.putInt(o + QUANTIZED_NORMAL, packNormal(v.get(i*6+3), v.get(i*6+4), v.get(i*6+5)));
+			putColor(b, o + QUANTIZED_COLOR, c, i);
+		}
+		return b;
+	}
+
+
+
+	/*
+	 * r,g,b,a bytes, copied one by one: a getInt()/putInt() pair swaps
+	 * them if the two buffers have a different byte order
+	 */
+	private static void putColor(ByteBuffer b, int offset, ByteBuffer c, int vertex) {
+
+		for (int k = 0; k < 4; k++) {
+			b.put(offset + k, c.get(vertex*4 + k));
+		}
+	}
+
+
+
+	private static short quantize(float x, float offset, float inv) {
+
+		int q = Math.round((x - offset) * inv);
+		return (short) Math.max(-32768, Math.min(32767, q));
+	}
+
+
+
+	/**
+	 * Packs a unit vector in a signed 10:10:10:2 integer, w is 0
+	 */
+	public static int packNormal(float x, float y, float z) {
+
+		return packComponent(x) | packComponent(y) << 10 | packComponent(z) << 20;
+	}
+
+
+
+	private static int packComponent(float f) {
+
+		int i = Math.round(Math.max(-1f, Math.min(1f, f)) * 511f);
+		return i & 0x3ff;
+	}
+
+
+
+	/**
+	 * Unpacks a normal as OpenGL does
+	 *
+	 * @param out	receives x,y,z
+	 */
+	public static void unpackNormal(int n, float[] out) {
+
+		for (int k = 0; k < 3; k++) {
+			// sign extension of 10 bit component
+			int i = (n << (22 - 10 * k)) >> 22;
+			out[k] = Math.max(i / 511f, -1f);
+		}
+	}
+
+
+
+	/**
+	 * Unpacks a quantized position
+	 *
+	 * @param b		buffer from packQuantized()
+	 * @param out	receives x,y,z
+	 */
+	public static void unpackQuantized(ByteBuffer b, int vertex, float[] dequant, float[] out) {
+
+		for (int k = 0; k < 3; k++) {
+			out[k] = b.getShort(vertex * QUANTIZED_STRIDE + 2 * k) * dequant[3] + dequant[k];
+		}
+	}
+
+}
@@ -0,0 +1,98 @@
+/*
+	Copyright 2026 LDraw Instruction Visualizer contributors
+	This file is part of JLDraw
+
+	JLDraw is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	JLDraw is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with JLDraw.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+
+package jldraw;
+
+import java.util.Collection;
+
+
+/**
+ * View frustum culling of rendered parts
+ *
+ * Part bounding boxes (model space) are in a bounding volume hierarchy
+ * (see LDPartBVH). Frustum planes are taken from projection and model
+ * view matrices, and every part is marked as culled or not (see
+ * LDRenderedPart.isCulled()). Boxes are tested whole, so a culled part
+ * is surely out of view, but a part not culled may be out of view, too.
+ */
+public class LDFrustumCuller {
+
+	private final LDPartBVH bvh;
+	private final float[] clip = new float[16];
+	private final float[] planes = new float[24];
+	private int culled = 0;
+
+
+
+	/**
+	 * @param parts	parts to cull, with triangles or lines
+	 */
+	public LDFrustumCuller(Collection<LDRenderedPart> parts) {
+
+		bvh = new LDPartBVH(parts, true);
+	}
+
+
+
+	/**
+	 * Marks parts outside view
+	 *
+	 * @param projection	projection matrix, as OpenGL (column major)
+	 * @param modelView		model view matrix, as OpenGL
+	 * @return	number of culled parts
+	 */
+	public int cull(float[] projection, float[] modelView) {
+
+		for (int c = 0; c < 4; c++) {
+			for (int r = 0; r < 4; r++) {
+				clip[c*4+r] = projection[r] * modelView[c*4] + projection[4+r] * modelView[c*4+1]
+						+ projection[8+r] * modelView[c*4+2] + projection[12+r] * modelView[c*4+3];
+			}
+		}
+		// left, right, bottom, top, near, far: row 3 +/- row 0, 1, 2
+		for (int p = 0; p < 6; p++) {
+			int r = p / 2;
+			float sign = p % 2 == 0 ? 1f : -1f;
+			for (int c = 0; c < 4; c++) {
+				planes[p*4+c] = clip[c*4+3] + sign * clip[c*4+r];
+			}
+		}
+		culled = bvh.cull(planes);
+		return culled;
+	}
+
+
+
+	/**
+	 * @return parts culled by last cull()
+	 */
+	public int getCulledCount() {
+		return culled;
+	}
+
+
+	/**
+	 * @return parts tested for culling
+	 */
+	public int getPartCount() {
+		return bvh.getPartCount();
+	}
+
+}
@@ -0,0 +1,412 @@
+/*
+	Copyright 2026 LDraw Instruction Visualizer contributors
+	This file is part of JLDraw
+
+	JLDraw is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	JLDraw is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with JLDraw.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+
+package jldraw;
+
+import it.romabrick.ldrawlib.LDrawException;
+import it.romabrick.ldrawlib.LDrawPart;
+import it.romabrick.ldrawlib.LDrawPartType;
+import it.romabrick.matrix3d.Matrix3D;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+
+
+/**
+ * Local space geometry of a part definition in a color, shared by all
+ * placed parts with same definition and color (instances)
+ *
+ * Geometry has same layout as LDRenderedPart vertex arrays, with colors
+ * resolved and normals normalized, but it isn't placed: display draws
+ * it once for every instance, with instance transform.
+ *
+ * Instances drawn in a frame are collected by display, and packed in
+ * an instance array: for every instance the three rows of placement
+ * matrix (a,b,c,x; d,e,f,y; g,h,i,z), unselected instances first.
+ */
+final class LDInstancedMesh {
+
+	// floats for every instance
+	static final int INSTANCE_SIZE = 12;
+
+	private final FloatBuffer tri;
+	private final ByteBuffer triColor;
+	private final Buffer triIndex;		// null if not indexed
+	private final FloatBuffer line;
+	private final ByteBuffer lineColor;
+	private final FloatBuffer aux;
+	private final ByteBuffer auxColor;
+	private final int triangleVertexCount;
+	private final int triangleBufferVertexCount;
+	private final int lineVertexCount;
+	private final int auxLineVertexCount;
+
+	// OpenGL buffer names, set by display
+	private int triangleName;
+	private int triangleColorName;
+	private int triangleIndexName;
+	private int lineName;
+	private int lineColorName;
+	private int auxLineName;
+	private int auxLineColorName;
+	private int instanceName;
+
+	// instances to draw in current frame, and instances in instance buffer
+	private final List<LDRenderedPart> frame = new ArrayList<LDRenderedPart>();
+	private LDRenderedPart[] instances = new LDRenderedPart[0];
+	private int unselected = 0;
+
+
+
+	private LDInstancedMesh(LDPartMesh mesh, int color, boolean indexed) {
+
+		int tri = mesh.getTriangleVertexCount();
+		int line = mesh.getLineVertexCount();
+		int aux = mesh.getAuxLineVertexCount();
+		LDPartMesh local = LDPartMesh.placementMesh(tri, line, aux);
+		mesh.placeInto(local, new Matrix3D(), color, false);
+		LDVertexKernel.getKernel().normalize(local.tri, 3, 6, tri);
+		int unique = tri;
+		int[] index = null;
+		if (indexed) {
+			LDVertexWelder w = LDVertexWelder.get();
+			unique = w.weld(local.tri, local.triColor, tri);
+			index = w.getIndex();
+		}
+		this.tri = LDBufferPool.copyOf(local.tri, unique*6);
+		triColor = LDBufferPool.copyOf(local.triColor, unique*4);
+		if (index != null)
+			triIndex = unique <= 0x10000 ? LDBufferPool.copyOfShort(index, tri) : LDBufferPool.copyOf(index, tri);
+		else
+			triIndex = null;
+		this.line = LDBufferPool.copyOf(local.line, line*3);
+		lineColor = LDBufferPool.copyOf(local.lineColor, line*4);
+		this.aux = LDBufferPool.copyOf(local.aux, aux*3);
+		auxColor = LDBufferPool.copyOf(local.auxColor, aux*4);
+		triangleVertexCount = tri;
+		triangleBufferVertexCount = unique;
+		lineVertexCount = line;
+		auxLineVertexCount = aux;
+	}
+
+
+
+	/**
+	 * Returns shared mesh for definition and color of a placed part,
+	 * building it at first request
+	 *
+	 * @return <b>null</b> if part is a primitive or its definition is unknown
+	 */
+	static LDInstancedMesh getMesh(LDrawPart p) throws IOException {
+
+		LDrawPartType type = p.getPartType();
+		if (type == LDrawPartType.GEOM_PRIMITIVE || type == LDrawPartType.COMMAND)
+			return null;
+		String key = LDPartMesh.getKey(p.getLdrawid()) + "/" + p.getColorIndex();
+		ConcurrentMap<String,LDInstancedMesh> cache = LDRenderRegistry.current().instancedMeshes;
+		LDInstancedMesh m = cache.get(key);
+		if (m == null) {
+			LDPartMesh mesh;
+			try {
+				mesh = LDPartMesh.getMesh(p.getLdrawid());
+			} catch (LDrawException e) {
+				return null;
+			}
+		// two threads may build same mesh, first one wins
+			m = new LDInstancedMesh(mesh, p.getColorIndex(), LDRenderedPart.indexedTriangles);
+			LDInstancedMesh other = cache.putIfAbsent(key, m);
+			if (other != null)
+				m = other;
+		}
+		return m;
+	}
+
+
+
+	/*
+	 * instances of current frame (display only)
+	 */
+
+	void clearFrame() {
+
+		frame.clear();
+	}
+
+
+	void addInstance(LDRenderedPart p) {
+
+		frame.add(p);
+	}
+
+
+	int getFrameCount() {
+
+		return frame.size();
+	}
+
+
+	/**
+	 * Puts instances of current frame in instance array, if they
+	 * aren't the same as last call
+	 *
+	 * @return instance data, <b>null</b> if instance array is unchanged
+	 */
+	FloatBuffer updateInstances() {
+
+		int n = frame.size();
+		int sel = 0;
+		for (LDRenderedPart p : frame) {
+			if (p.isSelected())
+				sel++;
+		}
+		// unselected instances, then selected, in frame order
+		LDRenderedPart[] sorted = new LDRenderedPart[n];
+		int u = 0, s = n - sel;
+		for (LDRenderedPart p : frame) {
+			if (p.isSelected())
+				sorted[s++] = p;
+			else
+				sorted[u++] = p;
+		}
+		if (u == unselected && Arrays.equals(sorted, instances))
+			return null;
+		instances = sorted;
+		unselected = u;
+		FloatBuffer data = LDBufferPool.allocateFloats(n * INSTANCE_SIZE);
+		float[] m = new float[16];
+		for (int i = 0; i < n; i++) {
+			sorted[i].placedPart.getTransform().getAsOpenGLMatrix(m, 0);
+			for (int r = 0; r < 3; r++) {
+				data.put(m[r]).put(m[r+4]).put(m[r+8]).put(m[r+12]);
+			}
+		}
+		data.rewind();
+		return data;
+	}
+
+
+	/**
+	 * @return instances in instance array
+	 */
+	int getInstanceCount() {
+		return instances.length;
+	}
+
+
+	/**
+	 * @return unselected instances, at start of instance array
+	 */
+	int getUnselectedCount() {
+		return unselected;
+	}
+
+
+	/**
+	 * @return instances in instance array
+	 */
+	LDRenderedPart[] getInstances() {
+		return instances;
+	}
+
+
+	/*
+	 * forgets buffers (display only)
+	 */
+	void clearBuffers() {
+
+		triangleName = triangleColorName = triangleIndexName = 0;
+		lineName = lineColorName = 0;
+		auxLineName = auxLineColorName = 0;
+		instanceName = 0;
+		instances = new LDRenderedPart[0];
+		unselected = 0;
+		frame.clear();
+	}
+
+
+
+	/*
+	 * vertex arrays: every call returns a new view, from position 0
+	 */
+
+	FloatBuffer getTrianglesVBO() {
+		return tri.duplicate();
+	}
+
+
+	ByteBuffer getTriangleColorVA() {
+		return triColor.duplicate();
+	}
+
+
+	/**
+	 * @return triangle index, a ShortBuffer (unsigned) or an IntBuffer,
+	 * 		<b>null</b> if mesh isn't indexed
+	 */
+	Buffer getTriangleIndex() {
+		if (triIndex == null)
+			return null;
+		if (triIndex instanceof ShortBuffer)
+			return ((ShortBuffer) triIndex).duplicate();
+		return ((IntBuffer) triIndex).duplicate();
+	}
+
+
+	boolean isIndexed() {
+		return triIndex != null;
+	}
+
+
+	boolean isShortIndex() {
+		return triIndex instanceof ShortBuffer;
+	}
+
+
+	FloatBuffer getWireFrameVBO() {
+		return line.duplicate();
+	}
+
+
+	ByteBuffer getWireColorVA() {
+		return lineColor.duplicate();
+	}
+
+
+	FloatBuffer getAuxWireFrameVBO() {
+		return aux.duplicate();
+	}
+
+
+	ByteBuffer getAuxWireColorVA() {
+		return auxColor.duplicate();
+	}
+
+
+	int getTriangleVertexCount() {
+		return triangleVertexCount;
+	}
+
+
+	int getTriangleBufferVertexCount() {
+		return triangleBufferVertexCount;
+	}
+
+
+	int getLineVertexCount() {
+		return lineVertexCount;
+	}
+
+
+	int getAuxLineVertexCount() {
+		return auxLineVertexCount;
+	}
+
+
+	int getTriangleName() {
+		return triangleName;
+	}
+
+
+	void setTriangleName(int triangleName) {
+		this.triangleName = triangleName;
+	}
+
+
+	int getTriangleColorName() {
+		return triangleColorName;
+	}
+
+
+	void setTriangleColorName(int triangleColorName) {
+		this.triangleColorName = triangleColorName;
+	}
+
+
+	int getTriangleIndexName() {
+		return triangleIndexName;
+	}
+
+
+	void setTriangleIndexName(int triangleIndexName) {
+		this.triangleIndexName = triangleIndexName;
+	}
+
+
+	int getLineName() {
+		return lineName;
+	}
+
+
+	void setLineName(int lineName) {
+		this.lineName = lineName;
+	}
+
+
+	int getLineColorName() {
+		return lineColorName;
+	}
+
+
+	void setLineColorName(int lineColorName) {
+		this.lineColorName = lineColorName;
+	}
+
+
+	int getAuxLineName() {
+		return auxLineName;
+	}
+
+
+	void setAuxLineName(int auxLineName) {
+		this.auxLineName = auxLineName;
+	}
+
+
+	int getAuxLineColorName() {
+		return auxLineColorName;
+	}
+
+
+	void setAuxLineColorName(int auxLineColorName) {
+		this.auxLineColorName = auxLineColorName;
+	}
+
+
+	/**
+	 * @return name of instance buffer, 0 if mesh isn't in buffers
+	 */
+	int getInstanceName() {
+		return instanceName;
+	}
+
+
+	void setInstanceName(int instanceName) {
+		this.instanceName = instanceName;
+	}
+
+}
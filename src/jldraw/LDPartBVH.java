@@ -0,0 +1,462 @@
+/*
+	Copyright 2026 LDraw Instruction Visualizer contributors
+	This file is part of JLDraw
+
+	JLDraw is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	JLDraw is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with JLDraw.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+
+package jldraw;
+
+import java.nio.Buffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+
+/**
+ * Bounding volume hierarchy over rendered parts, for picking by ray casting
+ * and view frustum culling
+ *
+ * Tree nodes are axis aligned boxes, stored in flat arrays. Leaves hold a
+ * few parts, a ray is tested against triangles of parts whose box is hit,
+ * nearest nodes first. Every node covers a contiguous range of parts, so
+ * a node wholly outside (or inside) view frustum culls (or keeps) all its
+ * parts at once.
+ */
+final class LDPartBVH {
+
+	// max parts in a leaf
+	private static final int LEAF_SIZE = 4;
+	private static final float EPSILON = 1e-7f;
+	// ray in part local space, after part transform (see toLocal())
+	private static final int LOCAL_ORIGIN = 12;
+	private static final int LOCAL_DIR = 15;
+	// box against frustum
+	private static final int OUTSIDE = 0;
+	private static final int INSIDE = 1;
+	private static final int INTERSECTS = 2;
+
+	private final LDRenderedPart[] parts;
+	private final float[][] partBox;
+	// nodes: box (6 floats), children (-1 for leaves) and range of parts
+	private float[] box;
+	private int[] left;
+	private int[] right;
+	private int[] first;
+	private int[] count;
+	private int nodes = 0;
+
+
+
+	/**
+	 * Tree of parts with triangles, for picking
+	 */
+	LDPartBVH(Collection<LDRenderedPart> renderedParts) {
+
+		this(renderedParts, false);
+	}
+
+
+
+	/**
+	 * @param withLines	if true, parts with lines only are in tree, too
+	 */
+	LDPartBVH(Collection<LDRenderedPart> renderedParts, boolean withLines) {
+
+		List<LDRenderedPart> l = new ArrayList<LDRenderedPart>();
+		for (LDRenderedPart p : renderedParts) {
+			if (p.getTriangleVertexCount() > 0 || 
+					(withLines && p.getBoundingBox() != null))
+				l.add(p);
+		}
+		parts = l.toArray(new LDRenderedPart[l.size()]);
+		partBox = new float[parts.length][];
+		for (int i = 0; i < parts.length; i++) {
+			partBox[i] = parts[i].getBoundingBox();
+		}
+		int maxNodes = Math.max(1, 2 * parts.length);
+		box = new float[maxNodes * 6];
+		left = new int[maxNodes];
+		right = new int[maxNodes];
+		first = new int[maxNodes];
+		count = new int[maxNodes];
+		if (parts.length > 0)
+			build(0, parts.length);
+	}
+
+
+
+	/*
+	 * builds node for parts in [from, to), splitting at median of longest axis
+	 */
+	private int build(int from, int to) {
+
+		int node = nodes++;
+		int b = node * 6;
+		box[b] = box[b+1] = box[b+2] = Float.MAX_VALUE;
+		box[b+3] = box[b+4] = box[b+5] = -Float.MAX_VALUE;
+		for (int i = from; i < to; i++) {
+			float[] pb = partBox[i];
+			for (int k = 0; k < 3; k++) {
+				if (pb[k] < box[b+k]) box[b+k] = pb[k];
+				if (pb[k+3] > box[b+k+3]) box[b+k+3] = pb[k+3];
+			}
+		}
+		if (to - from <= LEAF_SIZE) {
+			left[node] = -1;
+			right[node] = -1;
+			first[node] = from;
+			count[node] = to - from;
+			return node;
+		}
+		int axis = 0;
+		float size = box[b+3] - box[b];
+		for (int k = 1; k < 3; k++) {
+			if (box[b+k+3] - box[b+k] > size) {
+				size = box[b+k+3] - box[b+k];
+				axis = k;
+			}
+		}
+		int mid = (from + to) / 2;
+		select(from, to - 1, mid, axis);
+		left[node] = build(from, mid);
+		right[node] = build(mid, to);
+		first[node] = from;
+		count[node] = to - from;
+		return node;
+	}
+
+
+
+	private float center(int i, int axis) {
+
+		return partBox[i][axis] + partBox[i][axis+3];
+	}
+
+
+	private void swap(int i, int j) {
+
+		LDRenderedPart p = parts[i];
+		parts[i] = parts[j];
+		parts[j] = p;
+		float[] b = partBox[i];
+		partBox[i] = partBox[j];
+		partBox[j] = b;
+	}
+
+
+	/*
+	 * partial sort (quickselect) of parts by box center, so part k is in place
+	 */
+	private void select(int lo, int hi, int k, int axis) {
+
+		while (hi > lo) {
+			float pivot = center((lo + hi) >>> 1, axis);
+			int i = lo, j = hi;
+			while (i <= j) {
+				while (center(i, axis) < pivot) i++;
+				while (center(j, axis) > pivot) j--;
+				if (i <= j) {
+					swap(i, j);
+					i++;
+					j--;
+				}
+			}
+			if (k <= j)
+				hi = j;
+			else if (k >= i)
+				lo = i;
+			else
+				return;
+		}
+	}
+
+
+
+	/*
+	 * ray/box distance, or +infinity if box is missed
+	 */
+	private float hitBox(int node, float[] o, float[] invDir, float maxT) {
+
+		int b = node * 6;
+		float tmin = 0f;
+		float tmax = maxT;
+		for (int k = 0; k < 3; k++) {
+			float t1 = (box[b+k] - o[k]) * invDir[k];
+			float t2 = (box[b+k+3] - o[k]) * invDir[k];
+			if (t1 > t2) {
+				float t = t1;
+				t1 = t2;
+				t2 = t;
+			}
+			if (t1 > tmin) tmin = t1;
+			if (t2 < tmax) tmax = t2;
+			if (tmin > tmax)
+				return Float.POSITIVE_INFINITY;
+		}
+		return tmin;
+	}
+
+
+
+	/*
+	 * nearest ray/triangle distance for a part (Moller-Trumbore, both faces)
+	 */
+	private static float hitPart(LDRenderedPart p, float[] o, float[] d, float maxT, float[] local) {
+
+		LDInstancedMesh im = p.getInstancedMesh();
+		if (im != null && toLocal(p, o, d, local)) {
+			// shared mesh, with ray in part space: distance is the same
+			return hitTriangles(im.getTrianglesVBO(), im.getTriangleIndex(), im.getTriangleVertexCount(), 
+					local, LOCAL_ORIGIN, local, LOCAL_DIR, maxT);
+		}
+		boolean built = p.hasGeometry();
+		float t = hitTriangles(p.getTrianglesVBO(), p.getTriangleIndex(), p.getTriangleVertexCount(), 
+				o, 0, d, 0, maxT);
+		// geometry built again only for this test is dropped again
+		if (!built)
+			p.releaseGeometry();
+		return t;
+	}
+
+
+
+	/*
+	 * ray in part local space: local receives part transform (12 floats),
+	 * then origin (LOCAL_ORIGIN) and direction (LOCAL_DIR). False if
+	 * transform can't be inverted.
+	 */
+	private static boolean toLocal(LDRenderedPart p, float[] o, float[] d, float[] local) {
+
+		p.placedPart.getTransform().getValues(local, 0);
+		float a = local[0], b = local[1], c = local[2];
+		float e = local[3], f = local[4], g = local[5];
+		float h = local[6], i = local[7], j = local[8];
+		// inverse of 3x3 part, as adjugate / determinant
+		float c0 = f * j - g * i, c1 = g * h - e * j, c2 = e * i - f * h;
+		float det = a * c0 + b * c1 + c * c2;
+		if (det > -EPSILON && det < EPSILON)
+			return false;
+		float inv = 1f / det;
+		float i00 = c0 * inv, i01 = (c * i - b * j) * inv, i02 = (b * g - c * f) * inv;
+		float i10 = c1 * inv, i11 = (a * j - c * h) * inv, i12 = (c * e - a * g) * inv;
+		float i20 = c2 * inv, i21 = (b * h - a * i) * inv, i22 = (a * f - b * e) * inv;
+		float ox = o[0] - local[9], oy = o[1] - local[10], oz = o[2] - local[11];
+		local[LOCAL_ORIGIN] = i00 * ox + i01 * oy + i02 * oz;
+		local[LOCAL_ORIGIN+1] = i10 * ox + i11 * oy + i12 * oz;
+		local[LOCAL_ORIGIN+2] = i20 * ox + i21 * oy + i22 * oz;
+		local[LOCAL_DIR] = i00 * d[0] + i01 * d[1] + i02 * d[2];
+		local[LOCAL_DIR+1] = i10 * d[0] + i11 * d[1] + i12 * d[2];
+		local[LOCAL_DIR+2] = i20 * d[0] + i21 * d[1] + i22 * d[2];
+		return true;
+	}
+
+
+
+	/*
+	 * triangles are read in place, vertices x,y,z,nx,ny,nz and an optional
+	 * index (ShortBuffer or IntBuffer). Ray origin and direction are at
+	 * ro in o and rd in d.
+	 */
+	private static float hitTriangles(FloatBuffer v, Buffer index, int vertexCount, 
+			float[] o, int ro, float[] d, int rd, float maxT) {
+
+		ShortBuffer shortIndex = index instanceof ShortBuffer ? (ShortBuffer) index : null;
+		IntBuffer intIndex = index instanceof IntBuffer ? (IntBuffer) index : null;
+		float dx = d[rd], dy = d[rd+1], dz = d[rd+2];
+		float best = maxT;
+		for (int k = 0; k + 2 < vertexCount; k += 3) {
+			// first float of triangle vertices
+			int i = vertex(shortIndex, intIndex, k) * 6;
+			int j = vertex(shortIndex, intIndex, k + 1) * 6;
+			int l = vertex(shortIndex, intIndex, k + 2) * 6;
+			float x0 = v.get(i), y0 = v.get(i+1), z0 = v.get(i+2);
+			float e1x = v.get(j) - x0, e1y = v.get(j+1) - y0, e1z = v.get(j+2) - z0;
+			float e2x = v.get(l) - x0, e2y = v.get(l+1) - y0, e2z = v.get(l+2) - z0;
+			float px = dy * e2z - dz * e2y;
+			float py = dz * e2x - dx * e2z;
+			float pz = dx * e2y - dy * e2x;
+			float det = e1x * px + e1y * py + e1z * pz;
+			if (det > -EPSILON && det < EPSILON)
+				continue;
+			float inv = 1f / det;
+			float tx = o[ro] - x0, ty = o[ro+1] - y0, tz = o[ro+2] - z0;
+			float u = (tx * px + ty * py + tz * pz) * inv;
+			if (u < 0f || u > 1f)
+				continue;
+			float qx = ty * e1z - tz * e1y;
+			float qy = tz * e1x - tx * e1z;
+			float qz = tx * e1y - ty * e1x;
+			float w = (dx * qx + dy * qy + dz * qz) * inv;
+			if (w < 0f || u + w > 1f)
+				continue;
+			float t = (e2x * qx + e2y * qy + e2z * qz) * inv;
+			if (t > 0f && t < best)
+				best = t;
+		}
+		return best;
+	}
+
+
+
+	private static int vertex(ShortBuffer shortIndex, IntBuffer intIndex, int k) {
+
+		if (shortIndex != null)
+			return shortIndex.get(k) & 0xffff;
+		if (intIndex != null)
+			return intIndex.get(k);
+		return k;
+	}
+
+
+
+	/**
+	 * Finds nearest visible part hit by a ray
+	 *
+	 * @param origin	ray origin, model space
+	 * @param dir		ray direction, model space
+	 * @return	nearest part or null if no part is hit
+	 */
+	LDRenderedPart pick(float[] origin, float[] dir) {
+
+		if (parts.length == 0)
+			return null;
+		float[] invDir = new float[] { 1f / dir[0], 1f / dir[1], 1f / dir[2] };
+		float best = Float.POSITIVE_INFINITY;
+		LDRenderedPart picked = null;
+		float[] local = new float[18];
+		int[] stack = new int[64];
+		int sp = 0;
+		stack[sp++] = 0;
+		while (sp > 0) {
+			int node = stack[--sp];
+			if (hitBox(node, origin, invDir, best) >= best)
+				continue;
+			if (left[node] < 0) {
+				for (int i = first[node]; i < first[node] + count[node]; i++) {
+					if (parts[i].isHidden())
+						continue;
+					float t = hitPart(parts[i], origin, dir, best, local);
+					if (t < best) {
+						best = t;
+						picked = parts[i];
+					}
+				}
+				continue;
+			}
+			// nearest child last, so it is visited first
+			float tl = hitBox(left[node], origin, invDir, best);
+			float tr = hitBox(right[node], origin, invDir, best);
+			if (sp + 2 > stack.length) {
+				int[] s = new int[stack.length * 2];
+				System.arraycopy(stack, 0, s, 0, sp);
+				stack = s;
+			}
+			if (tl <= tr) {
+				if (tr < best) stack[sp++] = right[node];
+				if (tl < best) stack[sp++] = left[node];
+			}
+			else {
+				if (tl < best) stack[sp++] = left[node];
+				if (tr < best) stack[sp++] = right[node];
+			}
+		}
+		return picked;
+	}
+
+
+	/**
+	 * Marks parts outside a view frustum as culled, others as not culled
+	 *
+	 * @param planes	six planes (a,b,c,d), a point is inside a plane if 
+	 * 					a*x+b*y+c*z+d >= 0
+	 * @return number of culled parts
+	 */
+	int cull(float[] planes) {
+
+		if (parts.length == 0)
+			return 0;
+		int culled = 0;
+		int[] stack = new int[64];
+		int sp = 0;
+		stack[sp++] = 0;
+		while (sp > 0) {
+			int node = stack[--sp];
+			int side = classify(box, node * 6, planes);
+			if (side != INTERSECTS) {
+				// whole subtree on one side
+				for (int i = first[node]; i < first[node] + count[node]; i++) {
+					parts[i].setCulled(side == OUTSIDE);
+				}
+				if (side == OUTSIDE)
+					culled += count[node];
+				continue;
+			}
+			if (left[node] < 0) {
+				for (int i = first[node]; i < first[node] + count[node]; i++) {
+					boolean out = classify(partBox[i], 0, planes) == OUTSIDE;
+					parts[i].setCulled(out);
+					if (out)
+						culled++;
+				}
+				continue;
+			}
+			if (sp + 2 > stack.length) {
+				int[] s = new int[stack.length * 2];
+				System.arraycopy(stack, 0, s, 0, sp);
+				stack = s;
+			}
+			stack[sp++] = right[node];
+			stack[sp++] = left[node];
+		}
+		return culled;
+	}
+
+
+
+	/*
+	 * box from off (min x,y,z, max x,y,z) against frustum planes, testing 
+	 * for every plane nearest and farthest corners along plane normal
+	 */
+	private static int classify(float[] b, int off, float[] planes) {
+
+		int side = INSIDE;
+		for (int p = 0; p < 24; p += 4) {
+			float a = planes[p], c = planes[p+1], e = planes[p+2], d = planes[p+3];
+			float far = a * (a > 0 ? b[off+3] : b[off]) 
+					+ c * (c > 0 ? b[off+4] : b[off+1]) 
+					+ e * (e > 0 ? b[off+5] : b[off+2]) + d;
+			if (far < 0)
+				return OUTSIDE;
+			float near = a * (a > 0 ? b[off] : b[off+3]) 
+					+ c * (c > 0 ? b[off+1] : b[off+4]) 
+					+ e * (e > 0 ? b[off+2] : b[off+5]) + d;
+			if (near < 0)
+				side = INTERSECTS;
+		}
+		return side;
+	}
+
+
+
+	int getPartCount() {
+		return parts.length;
+	}
+
+}
@@ -0,0 +1,407 @@
+/*
+	Copyright 2026 LDraw Instruction Visualizer contributors
+	This file is part of JLDraw
+
+	JLDraw is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	JLDraw is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with JLDraw.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+
+package jldraw;
+
+import it.romabrick.ldrawlib.LDPrimitive;
+import it.romabrick.ldrawlib.LDrawColor;
+import it.romabrick.ldrawlib.LDrawException;
+import it.romabrick.ldrawlib.LDrawPart;
+import it.romabrick.matrix3d.Matrix3D;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+
+
+/*
+ * Flattened geometry of a part definition, in part local coordinates.
+ *
+ * Whole sub-part tree is walked only once for every definition: triangles,
+ * lines and aux lines are stored in the same layout used by LDRenderedPart
+ * VBOs. Vertex colors that depends on placed part color (CURRENT or EDGE)
+ * are marked in a mode array and resolved only when mesh is placed.
+ *
+ * Triangle vertex: x,y,z,nx,ny,nz (normals not normalized)
+ * Line vertex: x,y,z
+ * Color: r,g,b,a for every vertex
+ */
+final class LDPartMesh {
+
+	static final byte FIXED = 0;
+	static final byte CURRENT = 1;
+	static final byte EDGE = 2;
+
+	// shared by rendering threads: meshes are immutable once cached
+
+	float[] tri;
+	byte[] triColor;
+	byte[] triMode;
+	float[] line;
+	byte[] lineColor;
+	byte[] lineMode;
+	float[] aux;
+	byte[] auxColor;
+	byte[] auxMode;
+
+	// placed part geometry, copied to vertex buffers when done
+	private static final ThreadLocal<LDPartMesh> placement = new ThreadLocal<LDPartMesh>();
+	// bigger placement meshes aren't kept (vertex)
+	private static final int MAX_PLACEMENT = 1 << 18;
+
+	private int triCount;		// vertex count
+	private int lineCount;
+	private int auxCount;
+	private int ti = 0;			// fill index, as vertex
+	private int li = 0;
+	private int ai = 0;
+
+
+	/*
+	 * a mesh without modes is a "final" mesh: every color is resolved
+	 */
+	LDPartMesh(int triangleVertex, int lineVertex, int auxLineVertex, boolean withModes) {
+
+		triCount = triangleVertex;
+		lineCount = lineVertex;
+		auxCount = auxLineVertex;
+		tri = new float[triCount*6];
+		triColor = new byte[triCount*4];
+		line = new float[lineCount*3];
+		lineColor = new byte[lineCount*4];
+		aux = new float[auxCount*3];
+		auxColor = new byte[auxCount*4];
+		if (withModes) {
+			triMode = new byte[triCount];
+			lineMode = new byte[lineCount];
+			auxMode = new byte[auxCount];
+		}
+	}
+
+
+	/*
+	 * a final mesh, empty, with room for at least given vertex counts.
+	 * It is reused by calling thread, valid until next call.
+	 */
+	static LDPartMesh placementMesh(int triangleVertex, int lineVertex, int auxLineVertex) {
+
+		LDPartMesh m = placement.get();
+		if (m == null || m.triCount < triangleVertex || m.lineCount < lineVertex || m.auxCount < auxLineVertex) {
+			if (m != null) {
+				triangleVertex = Math.max(triangleVertex, m.triCount);
+				lineVertex = Math.max(lineVertex, m.lineCount);
+				auxLineVertex = Math.max(auxLineVertex, m.auxCount);
+			}
+			m = new LDPartMesh(triangleVertex, lineVertex, auxLineVertex, false);
+			if (triangleVertex + lineVertex + auxLineVertex <= MAX_PLACEMENT)
+				placement.set(m);
+		}
+		m.ti = 0;
+		m.li = 0;
+		m.ai = 0;
+		return m;
+	}
+
+
+	static void clearCache() {
+
+		LDRenderRegistry.current().meshes.clear();
+		LDRenderRegistry.current().instancedMeshes.clear();
+	}
+
+
+	static int cacheSize() {
+
+		return LDRenderRegistry.current().meshes.size();
+	}
+
+
+	int getTriangleVertexCount() {
+		return triCount;
+	}
+
+
+	int getLineVertexCount() {
+		return lineCount;
+	}
+
+
+	int getAuxLineVertexCount() {
+		return auxCount;
+	}
+
+
+	/**
+	 * Cache key of a part definition: library parts are named as in
+	 * library lookups (lower case, '/' as separator), so every spelling
+	 * of a part shares a mesh; custom parts and submodels by exact name,
+	 * as in LDrawPart.getPart()
+	 */
+	static String getKey(String ldrid) {
+
+		if (LDrawPart.isLdrPart(ldrid))
+			return ldrid.toLowerCase().replace('\\', '/');
+		return ldrid;
+	}
+
+
+	/**
+	 * Returns flattened mesh for part definition identified by ldrid,
+	 * building it at first request
+	 *
+	 * @param ldrid	LDraw part id or custom part/submodel name
+	 * @throws LDrawException if part or one of its sub-parts is unknown
+	 */
+	static LDPartMesh getMesh(String ldrid) throws IOException, LDrawException {
+
+		ConcurrentMap<String,LDPartMesh> meshCache = LDRenderRegistry.current().meshes;
+		String key = getKey(ldrid);
+		LDPartMesh mesh = meshCache.get(key);
+		if (mesh == null) {
+		// two threads may build same mesh, first one wins
+			mesh = newMesh(LDrawPart.getPart(ldrid).getPrimitives());
+			LDPartMesh other = meshCache.putIfAbsent(key, mesh);
+			if (other != null)
+				mesh = other;
+		}
+		return mesh;
+	}
+
+
+	/**
+	 * Flattens a primitive list in local coordinates (not cached)
+	 */
+	static LDPartMesh newMesh(Collection<LDPrimitive> pt) throws IOException {
+
+		int triangles = 0;
+		int lines = 0;
+		int auxlines = 0;
+		List<LDPartMesh> subParts = new ArrayList<LDPartMesh>();
+
+		// count vertex, sub-parts are flattened (and cached) first
+		for (LDPrimitive p : pt) {
+			switch (p.getType()) {
+			case TRIANGLE:
+				triangles += 3;
+				break;
+			case QUAD:
+				triangles += 6;
+				break;
+			case LINE:
+				lines += 2;
+				break;
+			case AUXLINE:
+				auxlines += 2;
+				break;
+			case REFERENCE:
+				LDPartMesh sub = null;
+				try {
+					sub = getMesh(p.getId());
+					triangles += sub.triCount;
+					lines += sub.lineCount;
+					auxlines += sub.auxCount;
+				} catch (LDrawException e) {
+					e.printStackTrace();
+				}
+				subParts.add(sub);
+				break;
+			default:
+				break;
+			}
+		}
+		LDPartMesh mesh;
+		try {
+			mesh = new LDPartMesh(triangles, lines, auxlines, true);
+		}
+		catch (OutOfMemoryError ex) {
+			throw new OutOfMemoryError("Your model is too big to render.");
+		}
+		int sub = 0;
+		for (LDPrimitive p : pt) {
+			float[] v = p.getPointsFV();
+			float[] n = p.getNormalFV();
+			switch (p.getType()) {
+			case TRIANGLE:
+				mesh.addTriangleVertex(v, 0, n, p.getColorIndex());
+				mesh.addTriangleVertex(v, 1, n, p.getColorIndex());
+				mesh.addTriangleVertex(v, 2, n, p.getColorIndex());
+				break;
+			case QUAD:
+			// quad, rendered as two adjacent triangles: vertex 0,1,2 and 0,2,3
+				mesh.addTriangleVertex(v, 0, n, p.getColorIndex());
+				mesh.addTriangleVertex(v, 1, n, p.getColorIndex());
+				mesh.addTriangleVertex(v, 2, n, p.getColorIndex());
+				mesh.addTriangleVertex(v, 0, n, p.getColorIndex());
+				mesh.addTriangleVertex(v, 2, n, p.getColorIndex());
+				mesh.addTriangleVertex(v, 3, n, p.getColorIndex());
+				break;
+			case LINE:
+				mesh.li = addLineVertex(mesh.line, mesh.lineColor, mesh.lineMode, mesh.li, v, 0, p.getColorIndex());
+				mesh.li = addLineVertex(mesh.line, mesh.lineColor, mesh.lineMode, mesh.li, v, 1, p.getColorIndex());
+				break;
+			case AUXLINE:
+				mesh.ai = addLineVertex(mesh.aux, mesh.auxColor, mesh.auxMode, mesh.ai, v, 0, p.getColorIndex());
+				mesh.ai = addLineVertex(mesh.aux, mesh.auxColor, mesh.auxMode, mesh.ai, v, 1, p.getColorIndex());
+				break;
+			case REFERENCE:
+				LDPartMesh sm = subParts.get(sub++);
+				if (sm == null)
+					break;
+				int localColor = p.getColorIndex();
+				if (localColor == LDrawColor.EDGE) {
+			// edge color is illegal in sub-part!
+					System.out.println("[LDRenderedPart] Illegal EDGE color in sub-part:\n"+p.toString());
+					localColor = LDrawColor.CURRENT;
+				}
+				sm.placeInto(mesh, p.getTransformation(), localColor, p.isInvert());
+				break;
+			default:
+				break;
+			}
+		}
+		return mesh;
+	}
+
+
+
+	private static byte colorMode(int colorIndex) {
+
+		if (colorIndex == LDrawColor.CURRENT)
+			return CURRENT;
+		if (colorIndex == LDrawColor.EDGE)
+			return EDGE;
+		return FIXED;
+	}
+
+
+
+	private static void putColor(byte[] ca, int vertex, Color c) {
+
+		ca[vertex*4] = (byte)c.getRed();
+		ca[vertex*4+1] = (byte)c.getGreen();
+		ca[vertex*4+2] = (byte)c.getBlue();
+		ca[vertex*4+3] = (byte)c.getAlpha();
+	}
+
+
+
+	private void addTriangleVertex(float[] v, int i, float[] n, int colorIndex) {
+
+		int k = ti*6;
+		tri[k] = v[i*3];
+		tri[k+1] = v[i*3+1];
+		tri[k+2] = v[i*3+2];
+		tri[k+3] = n[0];
+		tri[k+4] = n[1];
+		tri[k+5] = n[2];
+		triMode[ti] = colorMode(colorIndex);
+		if (triMode[ti] == FIXED)
+			putColor(triColor, ti, LDrawColor.getById(colorIndex).getColor());
+		ti++;
+	}
+
+
+
+	private static int addLineVertex(float[] la, byte[] ca, byte[] ma, int idx, float[] v, int i, int colorIndex) {
+
+		la[idx*3] = v[i*3];
+		la[idx*3+1] = v[i*3+1];
+		la[idx*3+2] = v[i*3+2];
+		ma[idx] = colorMode(colorIndex);
+		if (ma[idx] == FIXED)
+			putColor(ca, idx, LDrawColor.getById(colorIndex).getColor());
+		return idx+1;
+	}
+
+
+
+	/**
+	 * Appends this mesh to target, transformed by m
+	 *
+	 * @param target	mesh to fill
+	 * @param m			placement matrix
+	 * @param color		placed color: if target keeps color modes and color
+	 * 					is CURRENT, dependent colors are left unresolved
+	 * @param invert	if normals must be inverted
+	 */
+	void placeInto(LDPartMesh target, Matrix3D m, int color, boolean invert) {
+
+		boolean keepModes = target.triMode != null && color == LDrawColor.CURRENT;
+		Color current = null;
+		Color edge = null;
+		if (!keepModes) {
+			LDrawColor c = LDrawColor.getById(color);
+			current = c.getColor();
+			edge = c.getEdge();
+		}
+
+		// vertices and normals are transformed in place in target arrays
+		LDVertexKernel kernel = LDVertexKernel.getKernel();
+		int dst = target.ti*6;
+		kernel.transformPoints(m, tri, 0, 6, target.tri, dst, 6, triCount);
+		kernel.transformNormals(m, tri, 3, 6, target.tri, dst+3, 6, triCount);
+		if (invert) {
+			for (int k=dst+3;k<dst+triCount*6;k+=6) {
+				target.tri[k] = -target.tri[k];
+				target.tri[k+1] = -target.tri[k+1];
+				target.tri[k+2] = -target.tri[k+2];
+			}
+		}
+		for (int k=0;k<triCount;k++) {
+			copyColor(triColor, triMode, k, target.triColor, target.triMode, target.ti, keepModes, current, edge);
+			target.ti++;
+		}
+		kernel.transformPoints(m, line, 0, 3, target.line, target.li*3, 3, lineCount);
+		for (int k=0;k<lineCount;k++) {
+			copyColor(lineColor, lineMode, k, target.lineColor, target.lineMode, target.li, keepModes, current, edge);
+			target.li++;
+		}
+		kernel.transformPoints(m, aux, 0, 3, target.aux, target.ai*3, 3, auxCount);
+		for (int k=0;k<auxCount;k++) {
+			copyColor(auxColor, auxMode, k, target.auxColor, target.auxMode, target.ai, keepModes, current, edge);
+			target.ai++;
+		}
+	}
+
+
+
+	private static void copyColor(byte[] sc, byte[] sm, int s, byte[] dc, byte[] dm, int d,
+			boolean keepModes, Color current, Color edge) {
+
+		byte mode = sm == null ? FIXED : sm[s];
+		if (keepModes) {
+			dm[d] = mode;
+			System.arraycopy(sc, s*4, dc, d*4, 4);
+		}
+		else if (mode == CURRENT) {
+			putColor(dc, d, current);
+		}
+		else if (mode == EDGE) {
+			putColor(dc, d, edge);
+		}
+		else {
+			System.arraycopy(sc, s*4, dc, d*4, 4);
+		}
+	}
+
+}
@@ -0,0 +1,190 @@
+/*
+	Copyright 2026 LDraw Instruction Visualizer contributors
+	This file is part of JLDraw.
+
+	JLDraw is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	JLDraw is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with JLDraw.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package jldraw;
+
+import it.romabrick.ldrawlib.LDPrimitive;
+import it.romabrick.ldrawlib.LDrawCommand;
+import it.romabrick.ldrawlib.LDrawContext;
+import it.romabrick.ldrawlib.LDrawException;
+import it.romabrick.ldrawlib.LDrawPart;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads library parts in background while a model file is read
+ *
+ * Import task hands every referenced part id to prefetch(). Part is
+ * loaded by a pool thread and its own references (subparts and
+ * primitives) are prefetched in turn, so a whole part hierarchy is
+ * read, inflated and parsed on many cores while import goes on.
+ * Parts go in library part cache: when import (or rendering) asks for a
+ * part, it is already there, or it waits for load in progress (see
+ * LDrawPart.getLDrawPart()). Every id is asked only once by a prefetcher.
+ *
+ * Errors are ignored here: same part is asked again by import, that
+ * reports them.
+ */
+class LDPartPrefetcher {
+
+	private static ExecutorService defaultPool = null;
+
+	private final ExecutorService pool;
+	private final LDrawContext context;
+	private final Set<String> requested = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	private final ConcurrentLinkedQueue<Future<?>> tasks = new ConcurrentLinkedQueue<Future<?>>();
+	private volatile boolean cancelled = false;
+
+
+
+	/**
+	 * Prefetcher for parts of context, running on pool (null for default
+	 * pool)
+	 */
+	LDPartPrefetcher(LDrawContext context, ExecutorService pool) {
+
+		this.context = context;
+		this.pool = pool != null ? pool : getDefaultPool();
+	}
+
+
+
+	/*
+	 * a daemon thread for every core, threads mostly wait for I/O
+	 */
+	private static synchronized ExecutorService getDefaultPool() {
+
+		if (defaultPool == null) {
+			final AtomicInteger n = new AtomicInteger();
+			defaultPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+					new ThreadFactory() {
+						@Override
+						public Thread newThread(Runnable r) {
+							Thread t = new Thread(r, "ldraw-prefetch-" + n.incrementAndGet());
+							t.setDaemon(true);
+							return t;
+						}
+					});
+		}
+		return defaultPool;
+	}
+
+
+
+	/**
+	 * Loads part and its subparts in background, if not asked before
+	 */
+	void prefetch(String id) {
+
+		if (cancelled || id == null || id.length() == 0)
+			return;
+		final String ldrid = id.toLowerCase();
+		if (!requested.add(ldrid))
+			return;
+		try {
+			tasks.add(pool.submit(new Runnable() {
+				@Override
+				public void run() {
+					load(ldrid);
+				}
+			}));
+		} catch (RejectedExecutionException e) {
+			// pool is shut down, part is loaded when needed
+		}
+	}
+
+
+
+	private void load(String id) {
+
+		if (cancelled)
+			return;
+		LDrawContext previous = LDrawContext.setCurrent(context);
+		try {
+			// submodels and missing parts are left to import
+			if (!LDrawPart.isLdrPart(id))
+				return;
+			LDrawPart part = LDrawPart.getLDrawPart(id);
+			if (part == null)
+				return;
+			for (LDPrimitive p : part.getPrimitives()) {
+				if (p.getType() == LDrawCommand.REFERENCE)
+					prefetch(p.getId());
+			}
+		} catch (IOException | LDrawException | RuntimeException e) {
+			// reported by import
+		} finally {
+			LDrawContext.setCurrent(previous);
+		}
+	}
+
+
+
+	/**
+	 * Waits until all parts asked so far, and their subparts, are loaded
+	 */
+	void await() throws InterruptedException {
+
+		Future<?> f;
+		// a task queues its subparts before it ends
+		while ((f = tasks.poll()) != null) {
+			try {
+				f.get();
+			} catch (ExecutionException e) {
+				// load() doesn't throw
+			}
+		}
+	}
+
+
+
+	/**
+	 * Stops prefetch, parts not loaded yet are skipped
+	 */
+	void cancel() {
+
+		cancelled = true;
+		Future<?> f;
+		while ((f = tasks.poll()) != null) {
+			f.cancel(false);
+		}
+	}
+
+
+
+	/**
+	 * @return number of different part ids asked
+	 */
+	int getRequested() {
+
+		return requested.size();
+	}
+
+}
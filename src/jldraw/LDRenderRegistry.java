@@ -0,0 +1,58 @@
+/*
+	Copyright 2026 LDraw Instruction Visualizer contributors
+	This file is part of JLDraw
+
+	JLDraw is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	JLDraw is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with JLDraw.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+
+package jldraw;
+
+import it.romabrick.ldrawlib.LDrawContext;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+
+/**
+ * Rendered parts and flattened part meshes of a LDrawContext
+ *
+ * Attached to context on first use, so every context renders its own
+ * model without touching other contexts.
+ */
+final class LDRenderRegistry {
+
+	// shared by rendering threads (see LDRenderedModel)
+	final ConcurrentMap<Integer,LDRenderedPart> renderedParts = new ConcurrentHashMap<Integer,LDRenderedPart>();
+	// flattened definitions, by part id
+	final ConcurrentMap<String,LDPartMesh> meshes = new ConcurrentHashMap<String,LDPartMesh>();
+	// shared local space meshes, by part id and color (see LDInstancedMesh)
+	final ConcurrentMap<String,LDInstancedMesh> instancedMeshes = new ConcurrentHashMap<String,LDInstancedMesh>();
+
+
+
+	/**
+	 * @return registry of current context of calling thread
+	 */
+	static LDRenderRegistry current() {
+
+		LDrawContext context = LDrawContext.current();
+		LDRenderRegistry r = context.getExtension(LDRenderRegistry.class);
+		if (r == null)
+			r = context.putExtensionIfAbsent(LDRenderRegistry.class, new LDRenderRegistry());
+		return r;
+	}
+
+}
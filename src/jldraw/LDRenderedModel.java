@@ -22,14 +22,24 @@
 package jldraw;
 
 
+import it.romabrick.ldrawlib.LDrawContext;
 import it.romabrick.ldrawlib.LDrawPart;
 import it.romabrick.matrix3d.Matrix3D;
 
 import java.io.IOException;
 import java.lang.Thread.UncaughtExceptionHandler;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * LDraw model rendered in OpenGL-ready vertex array objects
@@ -40,12 +50,41 @@ import java.util.Map;
 public class LDRenderedModel implements Runnable, UncaughtExceptionHandler {
 	
 	private LDrawModel mainModel;
-	private Map<Integer,LDRenderedPart> parts = new HashMap<Integer,LDRenderedPart>();
+	// context of thread that created this model, used by all rendering threads
+	private final LDrawContext context;
+	private Map<Integer,LDRenderedPart> parts = new LinkedHashMap<Integer,LDRenderedPart>();
 	private ProgressUpdater updater;
 	private LDrawGLDisplay display;
 	private boolean completed;
+	private int partsDone;
+	private int partsTotal;
+	// parts sorted by step index, in model order inside a step
+	private LDRenderedPart[] byStep = new LDRenderedPart[0];
+	private int[] stepOf = new int[0];
+	// parts byStep[0..rendered-1] are ready
+	private int rendered = 0;
+	// visible parts are byStep[visibleFrom..visibleTo-1]
+	private int visibleFrom = 0, visibleTo = 0;
+	// last step selected with toggleVisibiltyForAllParts(), for parts still to render
+	private boolean stepSelected = false;
+	private int selectedStep;
+	private boolean selectedStandalone;
+	// parts selected, hidden or shown by user since last step change
+	private final Set<LDRenderedPart> changed = new LinkedHashSet<LDRenderedPart>();
 	
 	public static boolean singleStepMode= false;
+	public static boolean parallelRender = true;
+	// parts are handed to display while model is rendering, first steps first
+	public static boolean progressiveRender = true;
+	private static ForkJoinPool renderPool = null;
+	// pool used when none is set, created at first parallel render
+	private static ForkJoinPool defaultPool = null;
+	// parts rendered by a single fork/join leaf task
+	private static final int RENDER_BATCH = 16;
+	// parts handed to display at once: first chunk is small, so first step
+	// is shown soon, following chunks are bigger
+	private static final int FIRST_CHUNK = 64;
+	private static final int MAX_CHUNK = 4096;
 	public static int selectedStepIndex = 0;
 	
 	public Map<Integer,Matrix3D> stepMatrix = new HashMap<Integer,Matrix3D>();
@@ -53,30 +92,193 @@ public class LDRenderedModel implements Runnable, UncaughtExceptionHandler {
 	private LDRenderedModel(LDrawModel model) {
 		
 		mainModel = model;
+		context = LDrawContext.current();
+	}
+	
+	
+	
+	/**
+	 * Uses pool for parallel rendering of parts
+	 * 
+	 * @param pool	fork/join pool for rendering, <b>null</b> to use default pool
+	 */
+	public static void setRenderPool(ForkJoinPool pool) {
+		
+		renderPool = pool;
+	}
+	
+	
+	
+	private static synchronized ForkJoinPool getRenderPool() {
+		
+		if (renderPool != null)
+			return renderPool;
+		// one worker for every processor
+		if (defaultPool == null)
+			defaultPool = new ForkJoinPool();
+		return defaultPool;
+	}
+	
+	
+	
+	/*
+	 * called by every rendering thread when a part is ready
+	 */
+	private synchronized void partDone() {
+		
+		partsDone++;
+		if (updater != null) updater.updateDone(partsDone, partsTotal);
+	}
+	
+	
+	
+	private LDRenderedPart renderPart(LDrawPart p) throws IOException {
+		
+		// it is in rendered part cache?
+		LDRenderedPart pp = LDRenderedPart.getByGlobalId(p.getId());
+		if (pp == null) {
+		// render part
+			pp = LDRenderedPart.newRenderedPart(p);
+		}
+		partDone();
+		return pp;
+	}
+	
+	
+	
+	/*
+	 * carries an I/O error out of a fork/join task
+	 */
+	@SuppressWarnings("serial")
+	private static class RenderException extends RuntimeException {
+		
+		RenderException(IOException cause) {
+			
+			super(cause);
+		}
+	}
+	
+	
+	
+	/*
+	 * renders a slice of part list, splitting it if too big
+	 */
+	@SuppressWarnings("serial")
+	private class RenderTask extends RecursiveAction {
+		
+		private final LDrawPart[] source;
+		private final LDRenderedPart[] result;
+		private final int from, to;
+		
+		RenderTask(LDrawPart[] source, LDRenderedPart[] result, int from, int to) {
+			
+			this.source = source;
+			this.result = result;
+			this.from = from;
+			this.to = to;
+		}
+		
+		@Override
+		protected void compute() {
+			
+			if (to - from <= RENDER_BATCH) {
+				LDrawContext previous = LDrawContext.setCurrent(context);
+				try {
+					for (int i = from; i < to; i++) {
+						result[i] = renderPart(source[i]);
+					}
+				} catch (IOException e) {
+					throw new RenderException(e);
+				} finally {
+					LDrawContext.setCurrent(previous);
+				}
+			}
+			else {
+				int middle = (from + to) >>> 1;
+				invokeAll(new RenderTask(source, result, from, middle), 
+						new RenderTask(source, result, middle, to));
+			}
+		}
 	}
 	
 	
 	
 	/**
 	 * WARNING! May be a LOOOOONG task
+	 * 
+	 * Parts are rendered by step, in chunks: every chunk is handed to
+	 * display when ready, so model is shown while it is rendering.
+	 * If parallelRender is set, parts of a chunk are rendered on a 
+	 * fork/join pool. At end, parts are placed in model order.
 	 * @throws IOException 
 	 */
 	private void render() throws IOException {
 		
 		if (updater != null) updater.updateStart();
 		parts.clear();
-		// for every part in model
-		for (LDrawPart p : mainModel.getPartList()) {
-		// it is in rendered part cache?
-			LDRenderedPart pp = LDRenderedPart.getByGlobalId(p.getId());
-			if (pp != null) {
-		// part exists already rendered
-				parts.put(pp.getId(),pp);
+		final LDrawPart[] source = mainModel.getPartList().toArray(new LDrawPart[0]);
+		// keep library parts used by this model in memory
+		LDrawPart.pinParts(mainModel.getPartList());
+		partsDone = 0;
+		partsTotal = source.length;
+		// stable, model order is kept inside a step
+		Integer[] order = new Integer[source.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Integer.compare(source[a].getStepIndex(), source[b].getStepIndex());
 			}
-			else {
-		// render part
-				pp = LDRenderedPart.newRenderedPart(p);
-				parts.put(pp.getId(),pp);
+		});
+		LDrawPart[] sorted = new LDrawPart[source.length];
+		int[] steps = new int[source.length];
+		for (int i = 0; i < sorted.length; i++) {
+			sorted[i] = source[order[i]];
+			steps[i] = sorted[i].getStepIndex();
+		}
+		LDRenderedPart[] result = new LDRenderedPart[source.length];
+		synchronized (this) {
+			byStep = result;
+			stepOf = steps;
+			rendered = 0;
+			visibleFrom = 0;
+			visibleTo = 0;
+			stepSelected = false;
+			changed.clear();
+		}
+		if (display != null)
+			display.beginModel(this);
+		try {
+			int chunk = progressiveRender ? FIRST_CHUNK : sorted.length;
+			for (int from = 0; from < sorted.length; from += chunk, chunk = Math.min(2 * chunk, MAX_CHUNK)) {
+				int to = Math.min(from + chunk, sorted.length);
+				if (parallelRender) {
+					try {
+						getRenderPool().invoke(new RenderTask(sorted, result, from, to));
+					} catch (RenderException e) {
+						throw (IOException) e.getCause();
+					}
+				}
+				else {
+					for (int i = from; i < to; i++) {
+						result[i] = renderPart(sorted[i]);
+					}
+				}
+				partsRendered(to);
+				if (display != null)
+					display.partsRendered(this, Arrays.copyOfRange(result, from, to));
+			}
+		} finally {
+			// parts rendered so far, in model order
+			LDRenderedPart[] inModelOrder = new LDRenderedPart[source.length];
+			for (int i = 0; i < rendered; i++) {
+				inModelOrder[order[i]] = result[i];
+			}
+			for (LDRenderedPart pp : inModelOrder) {
+				if (pp != null)
+					parts.put(pp.getId(),pp);
 			}
 		}
 		if (updater != null) updater.updateDone();
@@ -84,11 +286,60 @@ public class LDRenderedModel implements Runnable, UncaughtExceptionHandler {
 	
 	
 	
+	/*
+	 * parts byStep[rendered..to-1] are ready: shown or hidden as last 
+	 * step selected, all parts visible if none
+	 */
+	private synchronized void partsRendered(int to) {
+		
+		for (int i = rendered; i < to; i++) {
+			byStep[i].setState(false, stepSelected && !isStepVisible(stepOf[i]));
+			byStep[i].setOwner(this);
+		}
+		rendered = to;
+		if (stepSelected) {
+			visibleFrom = selectedStandalone ? firstOfStep(selectedStep) : 0;
+			visibleTo = firstOfStep(selectedStep + 1);
+		}
+		else {
+			visibleTo = rendered;
+		}
+	}
+	
+	
+	
+	private boolean isStepVisible(int stepIndex) {
+		
+		return selectedStandalone ? stepIndex == selectedStep : stepIndex <= selectedStep;
+	}
+	
+	
+	
+	/*
+	 * called by a part when selected, hidden or shown
+	 */
+	synchronized void partChanged(LDRenderedPart p) {
+		
+		changed.add(p);
+	}
+	
+	
+	
+	/*
+	 * context of this model, for rendering threads
+	 */
+	LDrawContext getContext() {
+		
+		return context;
+	}
+	
+	
+	
 	public static LDRenderedModel newLDRenderedModel(LDrawModel m, LDrawGLDisplay gldisplay) {
 		
 		LDRenderedModel model = new LDRenderedModel(m);
 		// place model to OpenGL coordinate origin
-		model.parts = new HashMap<Integer,LDRenderedPart>();
+		model.parts = new LinkedHashMap<Integer,LDRenderedPart>();
 		model.display = gldisplay;
 		return model;
 	}
@@ -97,6 +348,75 @@ public class LDRenderedModel implements Runnable, UncaughtExceptionHandler {
 	public Collection<LDRenderedPart> getParts() {
 		return parts.values();
 	}
+	
+	
+	
+	/**
+	 * Parts of steps shown by last toggleVisibiltyForAllParts(), sorted
+	 * by step: parts from first step for cumulative mode, parts of
+	 * selected step only for single step mode. Parts hidden by user
+	 * are in list, too.
+	 * 
+	 * @return a read-only view, valid until next step change
+	 */
+	public synchronized Collection<LDRenderedPart> getVisibleParts() {
+		
+		return Collections.unmodifiableList(Arrays.asList(byStep).subList(visibleFrom, visibleTo));
+	}
+	
+	
+	
+	/**
+	 * Parts rendered so far, sorted by step. While model is rendering
+	 * list grows, parts are always added at end.
+	 * 
+	 * @return a read-only view of parts ready now
+	 */
+	public synchronized List<LDRenderedPart> getRenderedParts() {
+		
+		return Collections.unmodifiableList(Arrays.asList(byStep).subList(0, rendered));
+	}
+	
+	
+	
+	/**
+	 * @return first and last+1 position of visible parts in list of 
+	 * 		rendered parts (see getRenderedParts())
+	 */
+	public synchronized int[] getVisibleRange() {
+		
+		return new int[] { visibleFrom, visibleTo };
+	}
+	
+	
+	
+	/**
+	 * Triangle vertex drawn for every vertex in buffers, for parts 
+	 * rendered so far: 1 if parts aren't indexed (see 
+	 * LDRenderedPart.indexedTriangles)
+	 */
+	public synchronized float getVertexReuse() {
+		
+		long drawn = 0, stored = 0;
+		for (int i = 0; i < rendered; i++) {
+			drawn += byStep[i].getTriangleVertexCount();
+			stored += byStep[i].getTriangleBufferVertexCount();
+		}
+		return stored == 0 ? 1f : (float) drawn / stored;
+	}
+	
+	
+	
+	/**
+	 * @return first and last step index of visible parts, or <b>null</b>
+	 * 		if no part is visible
+	 */
+	public synchronized int[] getVisibleStepRange() {
+		
+		if (visibleFrom >= visibleTo)
+			return null;
+		return new int[] { stepOf[visibleFrom], stepOf[visibleTo-1] };
+	}
 
 	
 	
@@ -104,12 +424,17 @@ public class LDRenderedModel implements Runnable, UncaughtExceptionHandler {
 	public void run() {
 		
 		completed = false;
+		LDrawContext previous = LDrawContext.setCurrent(context);
 		try {
 			render();
 		} catch (IOException e) {
 			throw new IllegalArgumentException("[LDRenderedModel] Unable to render: "+e.getLocalizedMessage());
+		} finally {
+			LDrawContext.setCurrent(previous);
 		}
-		display.placeModel(this);
+		// no display when rendered for export only
+		if (display != null)
+			display.placeModel(this);
 		completed = true;
 	}
 	
@@ -134,8 +459,10 @@ public class LDRenderedModel implements Runnable, UncaughtExceptionHandler {
 	@Override
 	public void uncaughtException(Thread t, Throwable e) {
 		
-		display.placeModel(this);
-		updater.updateIncomplete();
+		if (display != null)
+			display.placeModel(this);
+		if (updater != null)
+			updater.updateIncomplete();
 		e.printStackTrace();
 	}
 	
@@ -148,24 +475,58 @@ public class LDRenderedModel implements Runnable, UncaughtExceptionHandler {
 	 * @param standalone	describe if only part connected to selected step
 	 * 						can be visible on scene
 	 */
-	public void toggleVisibiltyForAllParts(int index, boolean standalone) {
-		if (parts.size() > 1) {
+	public synchronized void toggleVisibiltyForAllParts(int index, boolean standalone) {
+		if (byStep.length > 1) {
 			LDrawPart step = mainModel.getStep(index);
 			if (step != null) {
 				int stepIndex = step.getStepIndex();
-				for (LDRenderedPart rp : parts.values()) {
-					LDrawPart pp = rp.placedPart;
-					boolean state = standalone ? pp.getStepIndex() == stepIndex	: pp.getStepIndex() <= stepIndex;
-					rp.unSelect();
-					if (state) {
-						rp.show();
-					}
-					if (!state) {
-						rp.hide();
-					}
+				// kept for parts not rendered yet
+				stepSelected = true;
+				selectedStep = stepIndex;
+				selectedStandalone = standalone;
+				int from = standalone ? firstOfStep(stepIndex) : 0;
+				int to = firstOfStep(stepIndex + 1);
+				// parts changed by user go back to step visibility, unselected
+				for (LDRenderedPart rp : changed) {
+					rp.setState(false, !isStepVisible(rp.placedPart.getStepIndex()));
 				}
+				changed.clear();
+				// only parts leaving or entering visible range change
+				setHidden(visibleFrom, Math.min(visibleTo, from), true);
+				setHidden(Math.max(visibleFrom, to), visibleTo, true);
+				setHidden(from, Math.min(to, visibleFrom), false);
+				setHidden(Math.max(from, visibleTo), to, false);
+				visibleFrom = from;
+				visibleTo = to;
 			}
 		}
 	}	
+	
+	
+	
+	/*
+	 * position of first rendered part with step index >= stepIndex
+	 */
+	private int firstOfStep(int stepIndex) {
+		
+		int low = 0, high = rendered;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (stepOf[mid] < stepIndex)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+	
+	
+	
+	private void setHidden(int from, int to, boolean hidden) {
+		
+		for (int i = from; i < to; i++) {
+			byStep[i].setState(false, hidden);
+		}
+	}
 
 }
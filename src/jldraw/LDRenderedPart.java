@@ -20,16 +20,17 @@
 
 package jldraw;
 
-import it.romabrick.matrix3d.Matrix3D;
-import it.romabrick.ldrawlib.LDrawColor;
-import it.romabrick.ldrawlib.LDPrimitive;
+import it.romabrick.ldrawlib.LDrawContext;
 import it.romabrick.ldrawlib.LDrawException;
 import it.romabrick.ldrawlib.LDrawPart;
+import it.romabrick.ldrawlib.LDrawPartType;
 
-import java.awt.Color;
 import java.io.IOException;
-import java.util.Collection;
-import java.util.HashMap;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
 import java.util.Map;
 
 
@@ -50,18 +51,36 @@ import java.util.Map;
  *  - aux lines vertex (no normals, floats)
  *  - color per vertex (bytes)
  *  
+ * If indexedTriangles is set, equal triangle vertices are merged and 
+ * an index array gives vertex for every triangle (see LDVertexWelder).
+ *  
+ * Arrays are direct buffers (see LDBufferPool), ready for OpenGL. 
+ * Display drops them when in OpenGL buffers (see keepGeometry): 
+ * they are built again if needed.
+ *  
  */
 public class LDRenderedPart {
 	
 	
 	
+	// geometry is dropped when in OpenGL buffers, unless kept (-Dldiv.keepgeometry=true)
+	public static boolean keepGeometry = "true".equals(System.getProperty("ldiv.keepgeometry"));
+	// triangles with index array, for parts rendered from now on (-Dldiv.indexed=true)
+	public static boolean indexedTriangles = "true".equals(System.getProperty("ldiv.indexed"));
+	// parts rendered from now on share a local space mesh with parts of same definition 
+	// and color, placed geometry is built only if asked (-Dldiv.instanced=true)
+	public static boolean instancedParts = "true".equals(System.getProperty("ldiv.instanced"));
+	
 	public LDrawPart placedPart;
-	private float[] polyVBO = null; 	// Vertex Buffer Object for triangles
-	private float[] wireVBO = null;		// Vertex for  lines
-	private float[] auxWireVBO = null;	// aux lines
-	private byte[] polyColorVA = null;
-	private byte[] wireColorVA = null;
-	private byte[] auxWireColorVA = null;
+	private FloatBuffer polyVBO = null; 	// Vertex Buffer Object for triangles
+	private FloatBuffer wireVBO = null;		// Vertex for  lines
+	private FloatBuffer auxWireVBO = null;	// aux lines
+	private ByteBuffer polyColorVA = null;
+	private ByteBuffer wireColorVA = null;
+	private ByteBuffer auxWireColorVA = null;
+	private Buffer polyIndex = null;		// ShortBuffer or IntBuffer, if indexed
+	private final boolean indexed;
+	private final LDInstancedMesh instancedMesh;	// shared mesh, null if not instanced
 	
 	private int triangleName;			// VBO names for OpenGL
 	private int triangleColorName;
@@ -69,25 +88,28 @@ public class LDRenderedPart {
 	private int lineColorName;
 	private int auxLineName;
 	private int auxLineColorName;
-	private int triangleVertexCount = 0;
+	private int triangleIndexName;
+	private float[] dequantization = null;	// if triangle buffer has quantized positions
+	private int triangleVertexCount = 0;	// vertex drawn
+	private int triangleBufferVertexCount = 0;	// vertex in buffer, less than drawn if indexed
 	private int lineVertexCount = 0;
 	private int auxLineVertexCount = 0;
 	private boolean selected = false;
 	private boolean hidden = false;
+	private boolean culled = false;		// outside view, set by display
+	private float[] bounds = null;		// bounding box, model space
+	// model notified when selection or visibility is changed from outside
+	private volatile LDRenderedModel owner = null;
 
-	private static Map<Integer,LDRenderedPart> renderedParts = new HashMap<Integer,LDRenderedPart>();
-	private int tvertexIndex;
-	private int tColorIndex;
-	private int lvertexIndex;
-	private int lcolorIndex;
-	private int avertexIndex;
-	private int acolorIndex;
 	
 	
 	private LDRenderedPart (LDrawPart p) throws IOException {
 		
 		placedPart = p;
-		generatePartVBOs();
+		instancedMesh = instancedParts ? LDInstancedMesh.getMesh(p) : null;
+		// instances use index of shared mesh
+		indexed = indexedTriangles && instancedMesh == null;
+		generatePartVBOs(instancedMesh == null);
 	}
 	
 	
@@ -99,80 +121,59 @@ public class LDRenderedPart {
 	@Override
 	public String toString() {
 		return "LDRenderedPart [pp=" + placedPart + ", "
-				+ "polyVBO[" + polyVBO.length + "], "
-				+ "wireVBO[" + wireVBO.length + "], "
-				+ "auxWireVBO[" + auxWireVBO.length + "], "
-				+ "polyColorVA[" + polyColorVA.length + "], "
-				+ "wireColorVA[" + wireColorVA.length + "], "
-				+ "auxWireColorVA[" + auxWireColorVA.length + "] ]";
+				+ "polyVBO[" + triangleVertexCount*6 + "], "
+				+ "wireVBO[" + lineVertexCount*3 + "], "
+				+ "auxWireVBO[" + auxLineVertexCount*3 + "], "
+				+ "polyColorVA[" + triangleVertexCount*4 + "], "
+				+ "wireColorVA[" + lineVertexCount*4 + "], "
+				+ "auxWireColorVA[" + auxLineVertexCount*4 + "] ]";
 	}
 
 
 	
 	static public void clearRenderedParts() {
 		
-		renderedParts.clear();
+		LDRenderRegistry.current().renderedParts.clear();
+		LDPartMesh.clearCache();
 	}
 
 	
 	
-	public static void listCache() {
+	/**
+	 * Gets flattened definition of a placed part, from cache or built
+	 * now, without placing it (used by benchmarks)
+	 * 
+	 * @return triangle vertices of definition, 0 if part has no cached definition
+	 */
+	public static int getDefinitionVertexCount(LDrawPart p) throws IOException {
 		
-		System.out.println("Rendered parts: "+ renderedParts.size() +" ---------------------");
-		for (LDRenderedPart p : renderedParts.values()) {
-			System.out.println(p);
+		LDrawPartType type = p.getPartType();
+		if (type == LDrawPartType.GEOM_PRIMITIVE || type == LDrawPartType.COMMAND)
+			return 0;
+		try {
+			return LDPartMesh.getMesh(p.getLdrawid()).getTriangleVertexCount();
+		} catch (LDrawException e) {
+			return 0;
 		}
 	}
 	
 	
 	
-	private void addPolyVertex(float[] point, float[] normal, Color c) {
-		polyVBO[tvertexIndex++] = point[0];
-		polyVBO[tvertexIndex++] = point[1];
-		polyVBO[tvertexIndex++] = point[2];
-		polyVBO[tvertexIndex++] = normal[0];
-		polyVBO[tvertexIndex++] = normal[1];
-		polyVBO[tvertexIndex++] = normal[2];
-		polyColorVA[tColorIndex++] = (byte)c.getRed();
-		polyColorVA[tColorIndex++] = (byte)c.getGreen();
-		polyColorVA[tColorIndex++] = (byte)c.getBlue();
-		polyColorVA[tColorIndex++] = (byte)c.getAlpha();
-	}
-	
-	
-	
-	private void addLineVertex(float[] point, Color c) {
+	public static void listCache() {
 		
-		wireVBO[lvertexIndex++] = point[0];
-		wireVBO[lvertexIndex++] = point[1];
-		wireVBO[lvertexIndex++] = point[2];
-		wireColorVA[lcolorIndex++] = (byte)c.getRed();
-		wireColorVA[lcolorIndex++] = (byte)c.getGreen();
-		wireColorVA[lcolorIndex++] = (byte)c.getBlue();
-		wireColorVA[lcolorIndex++] = (byte)c.getAlpha();
-
+		Map<Integer,LDRenderedPart> renderedParts = LDRenderRegistry.current().renderedParts;
+		System.out.println("Rendered parts: "+ renderedParts.size() +" ---------------------");
+		System.out.println("Flattened part definitions: "+ LDPartMesh.cacheSize());
+		for (LDRenderedPart p : renderedParts.values()) {
+			System.out.println(p);
+		}
 	}
-
-
 	
-	private void addAuxLineVertex(float[] point, Color c) {
-		
-		auxWireVBO[avertexIndex++] = point[0];
-		auxWireVBO[avertexIndex++] = point[1];
-		auxWireVBO[avertexIndex++] = point[2];
-		auxWireColorVA[acolorIndex++] = (byte)c.getRed();
-		auxWireColorVA[acolorIndex++] = (byte)c.getGreen();
-		auxWireColorVA[acolorIndex++] = (byte)c.getBlue();
-		auxWireColorVA[acolorIndex++] = (byte)c.getAlpha();
-
-	}
-
-
+	
 	
 	/**
-	 * A really complex function that uses OpenGL Vertex Buffer Object
-	 * specification to create arrays of float for a part vertex and
-	 * arrays of byte for colors
+	 * Uses OpenGL Vertex Buffer Object specification to create arrays
+	 * of float for a part vertex and arrays of byte for colors
 	 *
 	 * Triangles with attribute array:
 	 *  - coordinate (x,y,z)
@@ -188,254 +189,129 @@ public class LDRenderedPart {
 	 *  Separate color attribute byte array:
 	 *  - color (r,g,b,a)
 	 *  for every vertex
+	 *
+	 * Part geometry comes from flattened mesh of part definition
+	 * (see LDPartMesh), so only placement matrix and color are
+	 * applied here for every placed part. It is placed in a mesh
+	 * reused by thread, then copied to direct buffers.
+	 * 
+	 * @param buffers	if false, only bounding box and vertex counts are
+	 * 					computed (instanced part)
 	 * @throws IOException 
 	 * 
 	 */ 
-	private void renderPart(Collection<LDPrimitive> pt, int color, Matrix3D m, boolean invert) throws IOException {
-
-		float[] nm = new float[3];
-		Color pc;
-
-		for (LDPrimitive p : pt) {
-			switch (p.getType()) {
-			case TRIANGLE:
-			// triangle:
-				if (p.getColorIndex() == LDrawColor.CURRENT) {
-			// current color
-					pc = LDrawColor.getById(color).getColor();
-				}
-				else if (p.getColorIndex() == LDrawColor.EDGE) {
-			// edge color
-					pc = LDrawColor.getById(color).getEdge();
-				}
-				else {
-			// specific color
-					pc = LDrawColor.getById(p.getColorIndex()).getColor();
-				}
-			// place every vertex with color and normal on array
-				if (invert) {
-					nm = m.transformNormal(-p.getNormalFV()[0], -p.getNormalFV()[1],-p.getNormalFV()[2]);
-				}
-				else {
-					nm = m.transformNormal(p.getNormalFV()[0], p.getNormalFV()[1],p.getNormalFV()[2]);
-				}
-				for (int i=0;i<3;i++) {
-					addPolyVertex(
-							m.transformPoint(p.getPointsFV()[i*3], p.getPointsFV()[i*3+1],p.getPointsFV()[i*3+2]),
-							nm, pc);
-				}
-
-				break;
-			case QUAD:
-			// quad, rendered as two adjacent triangles:
-				if (p.getColorIndex() == LDrawColor.CURRENT) {
-			// current color
-					pc = LDrawColor.getById(color).getColor();
-				}
-				else if (p.getColorIndex() == LDrawColor.EDGE) {
-			// edge color
-					pc = LDrawColor.getById(color).getEdge();
-				}
-				else {
-			// specific color
-					pc = LDrawColor.getById(p.getColorIndex()).getColor();
-				}
-			// place every vertex with color and normal on array
-				if (invert) {
-					nm = m.transformNormal(-p.getNormalFV()[0], -p.getNormalFV()[1],-p.getNormalFV()[2]);
-				}
-				else {
-					nm = m.transformNormal(p.getNormalFV()[0], p.getNormalFV()[1],p.getNormalFV()[2]);
-				}
-				for (int i=0;i<3;i++) {
-					addPolyVertex(
-							m.transformPoint(p.getPointsFV()[i*3], p.getPointsFV()[i*3+1],p.getPointsFV()[i*3+2]),
-							nm, pc);
-				}
-			// now vertex 0,2,3
-				addPolyVertex(
-						m.transformPoint(p.getPointsFV()[0*3], p.getPointsFV()[0*3+1],p.getPointsFV()[0*3+2]),
-						nm, pc);
-				addPolyVertex(
-						m.transformPoint(p.getPointsFV()[2*3], p.getPointsFV()[2*3+1],p.getPointsFV()[2*3+2]),
-						nm, pc);
-				addPolyVertex(
-						m.transformPoint(p.getPointsFV()[3*3], p.getPointsFV()[3*3+1],p.getPointsFV()[3*3+2]),
-						nm, pc);
-				
-
-				break;
-			case REFERENCE:
-			// sub-part
-				int localColor = 0;
-				if (p.getColorIndex() == LDrawColor.CURRENT) {
-			// current color
-					localColor = color;
-				}
-				else if (p.getColorIndex() == LDrawColor.EDGE) {
-			// edge color is illegal in sub-part!
-					System.out.println("[LDRenderedPart] Illegal EDGE color in sub-part:\n"+p.toString());
-					localColor = color;
-				}
-				else {
-			// specific color
-					localColor = p.getColorIndex();
-				}
-			// get as VBO
-				try {
-					renderPart(LDrawPart.getPart(p.getId()).getPrimitives(), 
-							localColor, p.getTransformation().transform(m), p.isInvert()^invert);
-				} catch (LDrawException e) {
-					e.printStackTrace();
-				}
-				break;
-			case LINE:
-			// it is a line, so place in a wireframe VBO
-				if (p.getColorIndex() == LDrawColor.CURRENT) {
-			// current color
-					pc = LDrawColor.getById(color).getColor();
-				}
-				else if (p.getColorIndex() == LDrawColor.EDGE) {
-			// edge color
-					pc = LDrawColor.getById(color).getEdge();
-				}
-				else {
-			// specific color
-					pc = LDrawColor.getById(p.getColorIndex()).getColor();
-				}
-			// place every vertex with color and normal on array
-				for (int i=0;i<2;i++) {
-					addLineVertex(
-							m.transformPoint(p.getPointsFV()[i*3], p.getPointsFV()[i*3+1],p.getPointsFV()[i*3+2]),
-							pc);
-				}
-				break;
-			case AUXLINE:
-			// it is an aux line, so place in a auxWireframe VBO
-				if (p.getColorIndex() == LDrawColor.CURRENT) {
-			// current color
-					pc = LDrawColor.getById(color).getColor();
-				}
-				else if (p.getColorIndex() == LDrawColor.EDGE) {
-			// edge color
-					pc = LDrawColor.getById(color).getEdge();
-				}
-				else {
-			// specific color
-					pc = LDrawColor.getById(p.getColorIndex()).getColor();
-				}
-			// place every vertex with color and normal on array
-				for (int i=0;i<2;i++) {
-					addAuxLineVertex(
-							m.transformPoint(p.getPointsFV()[i*3], p.getPointsFV()[i*3+1],p.getPointsFV()[i*3+2]),
-							pc);
-				}
-				break;
-			default:
-				break;
+	private void generatePartVBOs(boolean buffers) throws IOException {
+		
+		LDPartMesh mesh = null;
+		LDrawPartType type = placedPart.getPartType();
+		if (type != LDrawPartType.GEOM_PRIMITIVE && type != LDrawPartType.COMMAND) {
+		// a placed part or submodel: shares flattened definition
+			try {
+				mesh = LDPartMesh.getMesh(placedPart.getLdrawid());
+			} catch (LDrawException e) {
+				e.printStackTrace();
 			}
 		}
-	}
+		if (mesh == null) {
+		// a single primitive, not worth caching
+			mesh = LDPartMesh.newMesh(placedPart.getPrimitives());
+		}
+		int tri = mesh.getTriangleVertexCount();
+		int line = mesh.getLineVertexCount();
+		int aux = mesh.getAuxLineVertexCount();
+		LDPartMesh placed;
+		try {
+			placed = LDPartMesh.placementMesh(tri, line, aux);
+		}
+		catch (OutOfMemoryError ex) {
+			throw new OutOfMemoryError("Your model is too big to render."); 
+		}
+		mesh.placeInto(placed, placedPart.getTransform(), placedPart.getColorIndex(), false);
 
+		// normalize normals
+		LDVertexKernel.getKernel().normalize(placed.tri, 3, 6, tri);
+		
+		if (bounds == null)
+			bounds = boundingBox(placed.tri, tri, placed.line, line);
+		triangleVertexCount = tri;
+		lineVertexCount = line;
+		auxLineVertexCount = aux;
+		if (!buffers) {
+			triangleBufferVertexCount = tri;
+			return;
+		}
+		int unique = tri;
+		int[] index = null;
+		if (indexed) {
+			LDVertexWelder w = LDVertexWelder.get();
+			unique = w.weld(placed.tri, placed.triColor, tri);
+			index = w.getIndex();
+		}
+		try {
+			polyVBO = LDBufferPool.copyOf(placed.tri, unique*6);
+			polyColorVA = LDBufferPool.copyOf(placed.triColor, unique*4);
+			if (index != null)
+				polyIndex = unique <= 0x10000 ? LDBufferPool.copyOfShort(index, tri) : LDBufferPool.copyOf(index, tri);
+			wireVBO = LDBufferPool.copyOf(placed.line, line*3);
+			wireColorVA = LDBufferPool.copyOf(placed.lineColor, line*4);
+			auxWireVBO = LDBufferPool.copyOf(placed.aux, aux*3);
+			auxWireColorVA = LDBufferPool.copyOf(placed.auxColor, aux*4);
+		}
+		catch (OutOfMemoryError ex) {
+			throw new OutOfMemoryError("Your model is too big to render (direct buffer memory)."); 
+		}
+		triangleBufferVertexCount = unique;
+	}
+	
+	
 	
 	/**
-	 * A "preventive" function to count vertex needed for a rendered part 
-	 * 
-	 * @return an int[3] array with: triangle count, line count, aux line count
-	 * @throws IOException 
+	 * Drops geometry, if it isn't kept (see keepGeometry). Display calls
+	 * it when geometry is in OpenGL buffers.
 	 */
-	private int[] countVertex(Collection<LDPrimitive> lp) throws IOException {
-
-		int triangles = 0;
-		int lines = 0;
-		int auxlines = 0;
+	synchronized void releaseGeometry() {
 		
-		for (LDPrimitive p : lp) {
-			switch (p.getType()) {
-			case TRIANGLE:
-				triangles++;
-				break;
-			case QUAD:
-				triangles += 2;
-				break;
-			case REFERENCE:
-				// get as VBO
-				int[] c;
-				try {
-					c = countVertex(LDrawPart.getPart(p.getId()).getPrimitives());
-					triangles += c[0];
-					lines += c[1];
-					auxlines += c[2];
-				} catch (LDrawException e) {
-					e.printStackTrace();
-				}
-				break;
-			case LINE:
-				lines++;
-				break;
-			case AUXLINE:
-				auxlines++;
-				break;
-			default:
-				break;
-			}
-		}
-		return new int[] {triangles,lines,auxlines};
-
+		if (keepGeometry && instancedMesh == null)
+			return;
+		polyVBO = null;
+		polyColorVA = null;
+		polyIndex = null;
+		wireVBO = null;
+		wireColorVA = null;
+		auxWireVBO = null;
+		auxWireColorVA = null;
 	}
 	
 	
-
 	
-	private void generatePartVBOs() throws IOException {
+	/*
+	 * false if geometry was dropped (or never built, for instanced parts)
+	 */
+	synchronized boolean hasGeometry() {
 		
-		// count vertex for triangles and lines
-		int[] c = countVertex(placedPart.getPrimitives());
-
+		return polyVBO != null;
+	}
+	
+	
+	
+	/*
+	 * geometry dropped by releaseGeometry() is built again, in context
+	 * of model that rendered part
+	 */
+	private synchronized void checkGeometry() {
+		
+		if (polyVBO != null)
+			return;
+		LDRenderedModel m = owner;
+		LDrawContext previous = m != null ? LDrawContext.setCurrent(m.getContext()) : null;
 		try {
-			polyVBO = new float[c[0]*3*6];
-			polyColorVA = new byte[c[0]*3*4];
-			wireVBO = new float[c[1]*2*3];
-			wireColorVA = new byte[c[1]*2*4];
-			auxWireVBO = new float[c[2]*2*3];
-			auxWireColorVA = new byte[c[2]*2*4];
-		}
-		catch (OutOfMemoryError ex) {
-			polyVBO = null;
-			polyColorVA = null;
-			wireVBO = null;
-			wireColorVA = null;
-			auxWireVBO = null;
-			auxWireColorVA = null;
-			throw new OutOfMemoryError("Your model is too big to render."); 
-		}
-		tvertexIndex = 0;
-		tColorIndex = 0;
-		lvertexIndex = 0;
-		lcolorIndex = 0;
-		avertexIndex = 0;
-		acolorIndex = 0;
-
-		renderPart(placedPart.getPrimitives(),placedPart.getColorIndex(),placedPart.getTransform(),false);
-
-		// normalize normals
-		for (int i=3;i<c[0]*3*6;i+=6) {
-			float x = polyVBO[i];
-			float y = polyVBO[i+1];
-			float z = polyVBO[i+2];
-			float d = (float) Math.sqrt((float)x*x+y*y+z*z);
-			if (d == 0) {
-				polyVBO[i] = 0f;
-				polyVBO[i+1] = 0f;
-				polyVBO[i+2] = 1f;
-			}
-			else {
-				polyVBO[i] = x/d;
-				polyVBO[i+1] = y/d;
-				polyVBO[i+2] = z/d;
-			}
+			generatePartVBOs(true);
+		} catch (IOException e) {
+			throw new IllegalStateException("[LDRenderedPart] Unable to rebuild geometry: " + e.getLocalizedMessage(), e);
+		} finally {
+			if (m != null)
+				LDrawContext.setCurrent(previous);
 		}
-		
 	}
 	
 	
@@ -443,14 +319,7 @@ public class LDRenderedPart {
 	public static LDRenderedPart newRenderedPart(LDrawPart p) throws IOException {
 		
 		LDRenderedPart part = new LDRenderedPart(p);
-		renderedParts.put(p.getId(),part);
-		part.polyVBO = part.getTrianglesVBO();
-		part.polyColorVA = part.getTriangleColorVA();
-		part.wireVBO = part.getWireFrameVBO();
-		part.wireColorVA = part.getWireColorVa();
-		part.triangleVertexCount = part.polyVBO.length/6;  // 3*coords + 3*normal
-		part.lineVertexCount = part.wireVBO.length/3;
-		part.auxLineVertexCount = part.auxWireVBO.length/3;
+		LDRenderRegistry.current().renderedParts.put(p.getId(),part);
 		return part;
 	}
 	
@@ -458,13 +327,13 @@ public class LDRenderedPart {
 	
 	public static LDRenderedPart getByGlobalId(int id) {
 		
-		return renderedParts.get(id);
+		return LDRenderRegistry.current().renderedParts.get(id);
 	}
 	
 	
 	public static void deleteFromCache(int id) {
 		
-		renderedParts.remove(id);
+		LDRenderRegistry.current().renderedParts.remove(id);
 	}
 	
 	
@@ -472,6 +341,7 @@ public class LDRenderedPart {
 	public void select() {
 		
 		selected = true;
+		changed();
 	}
 	
 	
@@ -479,6 +349,7 @@ public class LDRenderedPart {
 	public void unSelect() {
 		
 		selected = false;
+		changed();
 	}
 	
 
@@ -491,12 +362,38 @@ public class LDRenderedPart {
 	public void hide() {
 		
 		hidden = true;
+		changed();
 	}
 	
 	
 	public void show() {
 		
 		hidden = false;
+		changed();
+	}
+	
+	
+	private void changed() {
+		
+		LDRenderedModel m = owner;
+		if (m != null)
+			m.partChanged(this);
+	}
+	
+	
+	/*
+	 * used by model to set step visibility, without notifying it
+	 */
+	void setState(boolean selected, boolean hidden) {
+		
+		this.selected = selected;
+		this.hidden = hidden;
+	}
+	
+	
+	void setOwner(LDRenderedModel model) {
+		
+		owner = model;
 	}
 
 	
@@ -504,36 +401,161 @@ public class LDRenderedPart {
 		
 		return hidden;
 	}
+	
+	
+	/**
+	 * @return true if part was outside view at last culling
+	 */
+	public boolean isCulled() {
+		
+		return culled;
+	}
+	
+	
+	void setCulled(boolean culled) {
+		
+		this.culled = culled;
+	}
 
 	
 	
-	public float[] getTrianglesVBO() {
-		return polyVBO;
+	/**
+	 * Axis aligned bounding box of triangles and lines, in model space
+	 * 
+	 * @return array with min x, y, z and max x, y, z, or null if part has no geometry
+	 */
+	public float[] getBoundingBox() {
+		
+		return bounds;
+	}
+	
+	
+	/*
+	 * bounding box of tri triangle vertex and line lines vertex, null if none
+	 */
+	private static float[] boundingBox(float[] triangles, int tri, float[] lines, int line) {
+		
+		if (tri + line == 0)
+			return null;
+		float[] b = new float[] {
+				Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE,
+				-Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE };
+		for (int i=0;i<tri*6;i+=6) {
+			addToBox(b, triangles[i], triangles[i+1], triangles[i+2]);
+		}
+		for (int i=0;i<line*3;i+=3) {
+			addToBox(b, lines[i], lines[i+1], lines[i+2]);
+		}
+		return b;
+	}
+	
+	
+	private static void addToBox(float[] b, float x, float y, float z) {
+		
+		if (x < b[0]) b[0] = x;
+		if (y < b[1]) b[1] = y;
+		if (z < b[2]) b[2] = z;
+		if (x > b[3]) b[3] = x;
+		if (y > b[4]) b[4] = y;
+		if (z > b[5]) b[5] = z;
+	}
+
+	
+	
+	/*
+	 * vertex arrays: every call returns a new view, from position 0
+	 */
+	
+	public synchronized FloatBuffer getTrianglesVBO() {
+		checkGeometry();
+		return polyVBO.duplicate();
 	}
 
 	
-	public float[] getWireFrameVBO() {
-		return wireVBO;
+	/**
+	 * @return triangle index, a ShortBuffer (unsigned) or an IntBuffer, 
+	 * 		<b>null</b> if part isn't indexed
+	 */
+	public synchronized Buffer getTriangleIndex() {
+		if (!indexed)
+			return null;
+		checkGeometry();
+		if (polyIndex instanceof ShortBuffer)
+			return ((ShortBuffer) polyIndex).duplicate();
+		return ((IntBuffer) polyIndex).duplicate();
+	}
+	
+	
+	/**
+	 * @return triangle index as an array, <b>null</b> if part isn't indexed
+	 */
+	int[] getTriangleIndexArray() {
+		
+		Buffer b = getTriangleIndex();
+		if (b == null)
+			return null;
+		int[] index = new int[triangleVertexCount];
+		if (b instanceof ShortBuffer) {
+			ShortBuffer sb = (ShortBuffer) b;
+			for (int i = 0; i < index.length; i++) {
+				index[i] = sb.get(i) & 0xffff;
+			}
+		}
+		else {
+			((IntBuffer) b).get(index);
+		}
+		return index;
 	}
 	
 	
-	public byte[] getTriangleColorVA() {
-		return polyColorVA;
+	public boolean isIndexed() {
+		return indexed;
 	}
 	
 	
-	public byte[] getWireColorVa() {
-		return wireColorVA;
+	/**
+	 * @return mesh shared with other instances, <b>null</b> if part isn't instanced
+	 */
+	LDInstancedMesh getInstancedMesh() {
+		return instancedMesh;
+	}
+	
+	
+	/**
+	 * @return true if triangle index is a ShortBuffer
+	 */
+	public boolean isShortIndex() {
+		return indexed && triangleBufferVertexCount <= 0x10000;
+	}
+	
+	
+	public synchronized FloatBuffer getWireFrameVBO() {
+		checkGeometry();
+		return wireVBO.duplicate();
+	}
+	
+	
+	public synchronized ByteBuffer getTriangleColorVA() {
+		checkGeometry();
+		return polyColorVA.duplicate();
+	}
+	
+	
+	public synchronized ByteBuffer getWireColorVa() {
+		checkGeometry();
+		return wireColorVA.duplicate();
 	}
 
 
-	public float[] getAuxWireFrameVBO() {
-		return auxWireVBO;
+	public synchronized FloatBuffer getAuxWireFrameVBO() {
+		checkGeometry();
+		return auxWireVBO.duplicate();
 	}
 	
 	
-	public byte[] getAuxWireColorVa() {
-		return auxWireColorVA;
+	public synchronized ByteBuffer getAuxWireColorVa() {
+		checkGeometry();
+		return auxWireColorVA.duplicate();
 	}
 
 
@@ -542,6 +564,15 @@ public class LDRenderedPart {
 	}
 
 
+	/**
+	 * @return vertex in triangle buffer: same as triangle vertex count, 
+	 * 		unless part is indexed
+	 */
+	public int getTriangleBufferVertexCount() {
+		return triangleBufferVertexCount;
+	}
+
+
 	public int getLineVertexCount() {
 		return lineVertexCount;
 	}
@@ -562,6 +593,30 @@ public class LDRenderedPart {
 	}
 
 
+	public int getTriangleIndexName() {
+		return triangleIndexName;
+	}
+
+
+	public void setTriangleIndexName(int triangleIndexName) {
+		this.triangleIndexName = triangleIndexName;
+	}
+
+
+	/**
+	 * @return offset x,y,z and scale of quantized positions in triangle 
+	 * 		buffer, <b>null</b> if positions are floats
+	 */
+	public float[] getDequantization() {
+		return dequantization;
+	}
+
+
+	public void setDequantization(float[] dequantization) {
+		this.dequantization = dequantization;
+	}
+
+
 	public int getTriangleColorName() {
 		return triangleColorName;
 	}
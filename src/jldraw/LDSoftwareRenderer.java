@@ -0,0 +1,539 @@
+/*
+	Copyright 2026 LDraw Instruction Visualizer contributors
+	This file is part of JLDraw
+
+	JLDraw is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	JLDraw is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with JLDraw.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+
+package jldraw;
+
+import it.romabrick.matrix3d.Matrix3D;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+
+/**
+ * Z-buffer renderer in plain Java for rendered parts, for use without
+ * a display or an OpenGL context
+ *
+ * Draws the same triangles and lines used for OpenGL vertex buffers,
+ * with an orthographic view like LDrawGLDisplay. Vertices are projected
+ * part by part and image is rasterized by bands of rows, both on a
+ * fork/join pool.
+ */
+public class LDSoftwareRenderer {
+
+	// rows rasterized by a single fork/join task
+	private static final int BAND_ROWS = 32;
+	// parts projected by a single fork/join task
+	private static final int PROJECT_BATCH = 16;
+	// same as glClearColor in LDrawGLDisplay
+	private static final int BACKGROUND = 0xe6e6e6;
+	// lines are drawn over coplanar faces
+	private static final float LINE_DEPTH_BIAS = 0.5f;
+	// light as LIGHT1 in LDrawGLDisplay, ambient is global plus light ambient
+	private static final float AMBIENT = 0.4f;
+	private static final float DIFFUSE = 0.8f;
+	private static final float[] LIGHT = normalize(5f, -9f, -10f);
+
+	private final int width;
+	private final int height;
+	private final float[] depth;
+	private ForkJoinPool pool = null;
+	// shared by renderers without a pool, created at first use
+	private static ForkJoinPool defaultPool = null;
+	// part vertices, for every projecting thread
+	private final ThreadLocal<float[]> scratch = new ThreadLocal<float[]>();
+	private boolean lighting = true;
+	private boolean wireframe = true;
+	private Matrix3D viewMatrix = new Matrix3D();
+	private float scale = 1f;
+	private float centerx = 0f;
+	private float centery = 0f;
+
+
+
+	public LDSoftwareRenderer(int width, int height) {
+
+		if (width <= 0 || height <= 0) {
+			throw new IllegalArgumentException("[LDSoftwareRenderer] Invalid image size: " + width + "x" + height);
+		}
+		this.width = width;
+		this.height = height;
+		depth = new float[width * height];
+	}
+
+
+
+	/**
+	 * @param pool	fork/join pool for rendering, <b>null</b> to use default pool
+	 */
+	public void setPool(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+
+	private ForkJoinPool getPool() {
+		if (pool != null)
+			return pool;
+		synchronized (LDSoftwareRenderer.class) {
+			if (defaultPool == null)
+				defaultPool = new ForkJoinPool();
+			return defaultPool;
+		}
+	}
+
+
+	public void setLighting(boolean lighting) {
+		this.lighting = lighting;
+	}
+
+
+	public void setWireframe(boolean wireframe) {
+		this.wireframe = wireframe;
+	}
+
+
+	public int getWidth() {
+		return width;
+	}
+
+
+	public int getHeight() {
+		return height;
+	}
+
+
+
+	/**
+	 * Sets view as viewMatrix and zoom in LDrawGLDisplay
+	 *
+	 * @param view		view matrix
+	 * @param scale		pixels for LDraw unit
+	 * @param x			point in view space placed at image center
+	 * @param y			point in view space placed at image center
+	 */
+	public void setView(Matrix3D view, float scale, float x, float y) {
+
+		viewMatrix = view;
+		this.scale = scale;
+		centerx = x;
+		centery = y;
+	}
+
+
+
+	/**
+	 * Sets view so all parts, even hidden, fit image
+	 *
+	 * Use it once for a model, so every step is drawn with same
+	 * framing.
+	 *
+	 * @param parts		rendered parts
+	 * @param view		view matrix
+	 */
+	public void fitView(Collection<LDRenderedPart> parts, Matrix3D view) {
+
+		float[] min = new float[] { Float.MAX_VALUE, Float.MAX_VALUE };
+		float[] max = new float[] { -Float.MAX_VALUE, -Float.MAX_VALUE };
+		float[] v = new float[3];
+		for (LDRenderedPart p : parts) {
+			float[] b = p.getBoundingBox();
+			if (b == null)
+				continue;
+			for (int c = 0; c < 8; c++) {
+				view.transformPoint(b[(c & 1) != 0 ? 3 : 0], b[(c & 2) != 0 ? 4 : 1], b[(c & 4) != 0 ? 5 : 2], v, 0);
+				for (int k = 0; k < 2; k++) {
+					if (v[k] < min[k]) min[k] = v[k];
+					if (v[k] > max[k]) max[k] = v[k];
+				}
+			}
+		}
+		if (min[0] > max[0]) {
+		// no geometry
+			setView(view, 1f, 0f, 0f);
+			return;
+		}
+		// 5% margin on every side
+		float sx = width * 0.9f / Math.max(max[0] - min[0], 1f);
+		float sy = height * 0.9f / Math.max(max[1] - min[1], 1f);
+		setView(view, Math.min(sx, sy), (min[0] + max[0]) / 2, (min[1] + max[1]) / 2);
+	}
+
+
+
+	/*
+	 * parts in screen space: x, y, depth for every vertex,
+	 * shaded color (ARGB) for every triangle or line
+	 */
+	private static class Projected {
+
+		float[] tri;
+		int[] triColor;
+		float[] line;
+		int[] lineColor;
+		boolean transparent;
+		// rows covered by part
+		float miny = Float.MAX_VALUE;
+		float maxy = -Float.MAX_VALUE;
+	}
+
+
+
+	/*
+	 * vertices to screen space, stride is vertex size in source
+	 */
+	private static void toScreen(Matrix3D screen, float[] v, int stride, int n, float[] out, Projected s) {
+
+		screen.transformPoints(v, 0, stride, out, 0, 3, n);
+		for (int i = 1; i < n * 3; i += 3) {
+			if (out[i] < s.miny) s.miny = out[i];
+			if (out[i] > s.maxy) s.maxy = out[i];
+		}
+	}
+
+
+
+	/*
+	 * part vertices, copied from direct buffer to an array reused by
+	 * calling thread
+	 */
+	private float[] vertices(FloatBuffer b) {
+
+		float[] v = scratch.get();
+		if (v == null || v.length < b.remaining()) {
+			v = new float[b.remaining()];
+			scratch.set(v);
+		}
+		b.get(v, 0, b.remaining());
+		return v;
+	}
+
+
+
+	private Projected project(LDRenderedPart p, Matrix3D screen) {
+
+		Projected s = new Projected();
+		float[] v = vertices(p.getTrianglesVBO());
+		ByteBuffer c = p.getTriangleColorVA();
+		int n = p.getTriangleVertexCount();
+		int[] index = p.getTriangleIndexArray();
+		float[] nv = new float[3];
+		s.tri = new float[n * 3];
+		s.triColor = new int[n / 3];
+		if (index == null) {
+			toScreen(screen, v, 6, n, s.tri, s);
+		}
+		else {
+		// indexed: unique vertices, then triangles
+			float[] u = new float[p.getTriangleBufferVertexCount() * 3];
+			toScreen(screen, v, 6, p.getTriangleBufferVertexCount(), u, s);
+			for (int i = 0; i < n; i++) {
+				System.arraycopy(u, index[i] * 3, s.tri, i * 3, 3);
+			}
+		}
+		for (int i = 0; i < n / 3; i++) {
+			int k = index == null ? i * 3 : index[i * 3];
+			float shade = 1f;
+			if (lighting) {
+				viewMatrix.transformNormal(v[k*6+3], v[k*6+4], v[k*6+5], nv, 0);
+				float d = nv[0] * LIGHT[0] + nv[1] * LIGHT[1] + nv[2] * LIGHT[2];
+				shade = Math.min(1f, AMBIENT + DIFFUSE * Math.max(0f, d));
+			}
+			int a = c.get(k*4+3) & 0xff;
+			if (a < 255)
+				s.transparent = true;
+			s.triColor[i] = (a << 24)
+					| ((int) ((c.get(k*4) & 0xff) * shade) << 16)
+					| ((int) ((c.get(k*4+1) & 0xff) * shade) << 8)
+					| (int) ((c.get(k*4+2) & 0xff) * shade);
+		}
+		if (wireframe) {
+			v = vertices(p.getWireFrameVBO());
+			c = p.getWireColorVa();
+			n = p.getLineVertexCount();
+			s.line = new float[n * 3];
+			s.lineColor = new int[n / 2];
+			toScreen(screen, v, 3, n, s.line, s);
+			for (int i = 0; i < n / 2; i++) {
+				int k = i * 8;
+				s.lineColor[i] = ((c.get(k+3) & 0xff) << 24) | ((c.get(k) & 0xff) << 16) | ((c.get(k+1) & 0xff) << 8) 
+						| (c.get(k+2) & 0xff);
+			}
+		}
+		return s;
+	}
+
+
+
+	@SuppressWarnings("serial")
+	private class ProjectTask extends RecursiveAction {
+
+		private final LDRenderedPart[] source;
+		private final Projected[] result;
+		private final Matrix3D screen;
+		private final int from, to;
+
+		ProjectTask(LDRenderedPart[] source, Projected[] result, Matrix3D screen, int from, int to) {
+
+			this.source = source;
+			this.screen = screen;
+			this.result = result;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+
+			if (to - from <= PROJECT_BATCH) {
+				for (int i = from; i < to; i++) {
+					result[i] = project(source[i], screen);
+				}
+			}
+			else {
+				int middle = (from + to) >>> 1;
+				invokeAll(new ProjectTask(source, result, screen, from, middle),
+						new ProjectTask(source, result, screen, middle, to));
+			}
+		}
+	}
+
+
+
+	@SuppressWarnings("serial")
+	private class BandTask extends RecursiveAction {
+
+		private final Projected[] parts;
+		private final int[] pixels;
+		private final int from, to;
+
+		BandTask(Projected[] parts, int[] pixels, int from, int to) {
+
+			this.parts = parts;
+			this.pixels = pixels;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+
+			if (to - from <= BAND_ROWS) {
+				rasterBand(parts, pixels, from, to);
+			}
+			else {
+				int middle = ((from + to) / 2 / BAND_ROWS) * BAND_ROWS;
+				if (middle <= from)
+					middle = from + BAND_ROWS;
+				invokeAll(new BandTask(parts, pixels, from, middle),
+						new BandTask(parts, pixels, middle, to));
+			}
+		}
+	}
+
+
+
+	/**
+	 * Renders visible parts
+	 *
+	 * Not thread safe: depth buffer is shared by every call.
+	 *
+	 * @param parts		rendered parts, hidden parts are skipped
+	 * @return	a new image
+	 */
+	public BufferedImage render(Collection<LDRenderedPart> parts) {
+
+		List<LDRenderedPart> visible = new ArrayList<LDRenderedPart>();
+		for (LDRenderedPart p : parts) {
+			if (!p.isHidden())
+				visible.add(p);
+		}
+		LDRenderedPart[] source = visible.toArray(new LDRenderedPart[visible.size()]);
+		Projected[] projected = new Projected[source.length];
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		ForkJoinPool fjp = getPool();
+		// view, then scale and origin at image center
+		Matrix3D screen = viewMatrix.scale(scale, scale, 1f).moveTo(width / 2f - centerx * scale,
+				height / 2f - centery * scale, 0f);
+		fjp.invoke(new ProjectTask(source, projected, screen, 0, source.length));
+		fjp.invoke(new BandTask(projected, pixels, 0, height));
+		return image;
+	}
+
+
+
+	/*
+	 * draws rows in [y0, y1): opaque triangles, lines, then transparent
+	 * triangles blended without depth write
+	 */
+	private void rasterBand(Projected[] parts, int[] pixels, int y0, int y1) {
+
+		Arrays.fill(pixels, y0 * width, y1 * width, BACKGROUND);
+		Arrays.fill(depth, y0 * width, y1 * width, Float.POSITIVE_INFINITY);
+		// parts crossing this band
+		List<Projected> band = new ArrayList<Projected>();
+		for (Projected p : parts) {
+			if (p.maxy >= y0 - 1 && p.miny <= y1 + 1)
+				band.add(p);
+		}
+		boolean transparent = false;
+		for (Projected p : band) {
+			for (int i = 0; i < p.triColor.length; i++) {
+				if ((p.triColor[i] >>> 24) == 255)
+					fillTriangle(p.tri, i * 9, p.triColor[i], pixels, y0, y1, false);
+			}
+			transparent |= p.transparent;
+		}
+		if (wireframe) {
+			for (Projected p : band) {
+				for (int i = 0; i < p.lineColor.length; i++) {
+					drawLine(p.line, i * 6, p.lineColor[i], pixels, y0, y1);
+				}
+			}
+		}
+		if (transparent) {
+			for (Projected p : band) {
+				if (!p.transparent)
+					continue;
+				for (int i = 0; i < p.triColor.length; i++) {
+					if ((p.triColor[i] >>> 24) < 255)
+						fillTriangle(p.tri, i * 9, p.triColor[i], pixels, y0, y1, true);
+				}
+			}
+		}
+	}
+
+
+
+	private static int blend(int dst, int src) {
+
+		int a = src >>> 24;
+		if (a == 255)
+			return src & 0xffffff;
+		int r = (((src >> 16) & 0xff) * a + ((dst >> 16) & 0xff) * (255 - a)) / 255;
+		int g = (((src >> 8) & 0xff) * a + ((dst >> 8) & 0xff) * (255 - a)) / 255;
+		int b = ((src & 0xff) * a + (dst & 0xff) * (255 - a)) / 255;
+		return (r << 16) | (g << 8) | b;
+	}
+
+
+
+	/*
+	 * triangle with edge functions, sampled at pixel centers
+	 */
+	private void fillTriangle(float[] v, int i, int color, int[] pixels, int y0, int y1, boolean blend) {
+
+		float ax = v[i], ay = v[i+1], az = v[i+2];
+		float bx = v[i+3], by = v[i+4], bz = v[i+5];
+		float cx = v[i+6], cy = v[i+7], cz = v[i+8];
+		int miny = Math.max(y0, (int) Math.ceil(Math.min(ay, Math.min(by, cy)) - 0.5f));
+		int maxy = Math.min(y1 - 1, (int) Math.floor(Math.max(ay, Math.max(by, cy)) - 0.5f));
+		if (miny > maxy)
+			return;
+		int minx = Math.max(0, (int) Math.ceil(Math.min(ax, Math.min(bx, cx)) - 0.5f));
+		int maxx = Math.min(width - 1, (int) Math.floor(Math.max(ax, Math.max(bx, cx)) - 0.5f));
+		if (minx > maxx)
+			return;
+		float area = (bx - ax) * (cy - ay) - (by - ay) * (cx - ax);
+		if (area == 0f)
+			return;
+		float inv = 1f / area;
+		// barycentric weights change along x
+		float dw0 = (by - cy) * inv;
+		float dw1 = (cy - ay) * inv;
+		for (int y = miny; y <= maxy; y++) {
+			float py = y + 0.5f;
+			float px = minx + 0.5f;
+			float w0 = ((cx - bx) * (py - by) - (cy - by) * (px - bx)) * inv;
+			float w1 = ((ax - cx) * (py - cy) - (ay - cy) * (px - cx)) * inv;
+			int row = y * width;
+			for (int x = minx; x <= maxx; x++, w0 += dw0, w1 += dw1) {
+				float w2 = 1f - w0 - w1;
+				if (w0 < 0f || w1 < 0f || w2 < 0f)
+					continue;
+				float z = w0 * az + w1 * bz + w2 * cz;
+				int k = row + x;
+				if (z >= depth[k])
+					continue;
+				if (blend) {
+					pixels[k] = blend(pixels[k], color);
+				}
+				else {
+					pixels[k] = color & 0xffffff;
+					depth[k] = z;
+				}
+			}
+		}
+	}
+
+
+
+	/*
+	 * one pixel wide line, only rows in [y0, y1)
+	 */
+	private void drawLine(float[] v, int i, int color, int[] pixels, int y0, int y1) {
+
+		float ax = v[i], ay = v[i+1], az = v[i+2];
+		float bx = v[i+3], by = v[i+4], bz = v[i+5];
+		if (Math.max(ay, by) < y0 || Math.min(ay, by) >= y1)
+			return;
+		float dx = bx - ax, dy = by - ay;
+		int steps = (int) Math.ceil(Math.max(Math.abs(dx), Math.abs(dy)));
+		if (steps == 0)
+			steps = 1;
+		float sx = dx / steps, sy = dy / steps, sz = (bz - az) / steps;
+		int from = 0, to = steps;
+		if (Math.abs(dy) > 0f) {
+		// only steps crossing this band
+			float t0 = (y0 - 1 - ay) / sy;
+			float t1 = (y1 - ay) / sy;
+			from = Math.max(0, (int) Math.floor(Math.min(t0, t1)));
+			to = Math.min(steps, (int) Math.ceil(Math.max(t0, t1)));
+		}
+		for (int s = from; s <= to; s++) {
+			int x = (int) (ax + sx * s);
+			int y = (int) (ay + sy * s);
+			if (y < y0 || y >= y1 || x < 0 || x >= width)
+				continue;
+			float z = az + sz * s - LINE_DEPTH_BIAS;
+			int k = y * width + x;
+			if (z >= depth[k])
+				continue;
+			pixels[k] = blend(pixels[k], color);
+			depth[k] = z;
+		}
+	}
+
+
+
+	private static float[] normalize(float x, float y, float z) {
+
+		float d = (float) Math.sqrt(x*x + y*y + z*z);
+		return new float[] { x/d, y/d, z/d };
+	}
+
+}
@@ -0,0 +1,427 @@
+/*
+	Copyright 2026 LDraw Instruction Visualizer contributors
+	This file is part of JLDraw
+
+	JLDraw is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	JLDraw is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with JLDraw.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+
+package jldraw;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+
+/**
+ * Geometry of all rendered parts in the same step, merged in a single set
+ * of vertex buffers
+ *
+ * Parts keep their own vertex range, so hidden or selected parts are
+ * skipped drawing only ranges of visible parts.
+ */
+final class LDStepBatch {
+
+	// a step bigger than this is split in more batches
+	static final int MAX_BATCH_VERTEX = 1 << 20;
+
+	static final int TRIANGLES = 0;
+	static final int LINES = 1;
+	static final int AUXLINES = 2;
+
+	private final int step;
+	private final LDRenderedPart[] parts;
+	// first vertex of every part, for triangles (index, if indexed), lines and aux lines
+	private final int[][] first;
+	private final int[] vertexCount = new int[3];
+	// triangle vertex in buffer, less than drawn if parts are indexed
+	private int triangleBufferVertex = 0;
+	// if any part is indexed, triangles are drawn with an index
+	private boolean indexed = false;
+
+	// buffer names
+	private int triangleName, triangleColorName, triangleIndexName;
+	private int lineName, lineColorName;
+	private int auxLineName, auxLineColorName;
+
+	// ranges to draw, reused every frame
+	private int[] runFirst;
+	private int[] runCount;
+
+
+	private LDStepBatch(int step, List<LDRenderedPart> list) {
+
+		this.step = step;
+		parts = list.toArray(new LDRenderedPart[list.size()]);
+		first = new int[3][parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			first[TRIANGLES][i] = vertexCount[TRIANGLES];
+			first[LINES][i] = vertexCount[LINES];
+			first[AUXLINES][i] = vertexCount[AUXLINES];
+			vertexCount[TRIANGLES] += parts[i].getTriangleVertexCount();
+			vertexCount[LINES] += parts[i].getLineVertexCount();
+			vertexCount[AUXLINES] += parts[i].getAuxLineVertexCount();
+			triangleBufferVertex += parts[i].getTriangleBufferVertexCount();
+			indexed |= parts[i].isIndexed();
+		}
+		runFirst = new int[parts.length];
+		runCount = new int[parts.length];
+	}
+
+
+
+	/**
+	 * Groups parts by step, parts in model order
+	 *
+	 * @param parts	all rendered parts of a model
+	 * @return	batches, one or more for every step, sorted by step index
+	 */
+	static List<LDStepBatch> newBatches(Collection<LDRenderedPart> parts) {
+
+		Map<Integer,List<LDRenderedPart>> steps = new TreeMap<Integer,List<LDRenderedPart>>();
+		for (LDRenderedPart p : parts) {
+			int s = p.placedPart.getStepIndex();
+			List<LDRenderedPart> l = steps.get(s);
+			if (l == null) {
+				l = new ArrayList<LDRenderedPart>();
+				steps.put(s, l);
+			}
+			l.add(p);
+		}
+		List<LDStepBatch> batches = new ArrayList<LDStepBatch>();
+		for (Map.Entry<Integer,List<LDRenderedPart>> e : steps.entrySet()) {
+			List<LDRenderedPart> l = new ArrayList<LDRenderedPart>();
+			int count = 0;
+			for (LDRenderedPart p : e.getValue()) {
+				int n = p.getTriangleVertexCount() + p.getLineVertexCount() + p.getAuxLineVertexCount();
+				if (count > 0 && count + n > MAX_BATCH_VERTEX) {
+					batches.add(new LDStepBatch(e.getKey(), l));
+					l = new ArrayList<LDRenderedPart>();
+					count = 0;
+				}
+				l.add(p);
+				count += n;
+			}
+			if (l.size() > 0)
+				batches.add(new LDStepBatch(e.getKey(), l));
+		}
+		return batches;
+	}
+
+
+
+	/*
+	 * merged vertex arrays, in direct buffers for OpenGL
+	 */
+
+	FloatBuffer getTrianglesVBO() {
+
+		FloatBuffer v = LDBufferPool.allocateFloats(triangleBufferVertex * 6);
+		for (LDRenderedPart p : parts) {
+			v.put(p.getTrianglesVBO());
+		}
+		v.rewind();
+		return v;
+	}
+
+
+	ByteBuffer getTriangleColorVA() {
+
+		ByteBuffer c = LDBufferPool.allocate(triangleBufferVertex * 4);
+		for (LDRenderedPart p : parts) {
+			c.put(p.getTriangleColorVA());
+		}
+		c.rewind();
+		return c;
+	}
+
+
+	/*
+	 * index of merged triangles, parts without index get one
+	 */
+	IntBuffer getTriangleIndex() {
+
+		IntBuffer b = LDBufferPool.allocate(vertexCount[TRIANGLES] * 4).asIntBuffer();
+		int base = 0;
+		for (LDRenderedPart p : parts) {
+			int[] index = p.getTriangleIndexArray();
+			for (int i = 0; i < p.getTriangleVertexCount(); i++) {
+				b.put(base + (index != null ? index[i] : i));
+			}
+			base += p.getTriangleBufferVertexCount();
+		}
+		b.rewind();
+		return b;
+	}
+
+
+	FloatBuffer getWireFrameVBO() {
+
+		FloatBuffer v = LDBufferPool.allocateFloats(vertexCount[LINES] * 3);
+		for (LDRenderedPart p : parts) {
+			v.put(p.getWireFrameVBO());
+		}
+		v.rewind();
+		return v;
+	}
+
+
+	ByteBuffer getWireColorVa() {
+
+		ByteBuffer c = LDBufferPool.allocate(vertexCount[LINES] * 4);
+		for (LDRenderedPart p : parts) {
+			c.put(p.getWireColorVa());
+		}
+		c.rewind();
+		return c;
+	}
+
+
+	FloatBuffer getAuxWireFrameVBO() {
+
+		FloatBuffer v = LDBufferPool.allocateFloats(vertexCount[AUXLINES] * 3);
+		for (LDRenderedPart p : parts) {
+			v.put(p.getAuxWireFrameVBO());
+		}
+		v.rewind();
+		return v;
+	}
+
+
+	ByteBuffer getAuxWireColorVa() {
+
+		ByteBuffer c = LDBufferPool.allocate(vertexCount[AUXLINES] * 4);
+		for (LDRenderedPart p : parts) {
+			c.put(p.getAuxWireColorVa());
+		}
+		c.rewind();
+		return c;
+	}
+
+
+
+	/*
+	 * vertex count of a part in a buffer
+	 */
+	private static int partCount(LDRenderedPart p, int kind) {
+
+		switch (kind) {
+		case TRIANGLES:
+			return p.getTriangleVertexCount();
+		case LINES:
+			return p.getLineVertexCount();
+		default:
+			return p.getAuxLineVertexCount();
+		}
+	}
+
+
+
+	/**
+	 * Computes vertex ranges to draw, joining adjacent visible parts
+	 *
+	 * @param kind			TRIANGLES, LINES or AUXLINES
+	 * @param skipSelected	if true selected parts are skipped, too
+	 * @param skipCulled	if true parts out of view are skipped, too
+	 * @return	number of ranges, ranges are in getRunFirst() and getRunCount()
+	 */
+	int computeRuns(int kind, boolean skipSelected, boolean skipCulled) {
+
+		int runs = 0;
+		boolean open = false;
+		for (int i = 0; i < parts.length; i++) {
+			LDRenderedPart p = parts[i];
+			int n = partCount(p, kind);
+			if (p.isHidden() || (skipSelected && p.isSelected()) || (skipCulled && p.isCulled())) {
+				open = false;
+				continue;
+			}
+			if (n == 0)
+				continue;
+			if (open) {
+				runCount[runs-1] += n;
+			}
+			else {
+				runFirst[runs] = first[kind][i];
+				runCount[runs] = n;
+				runs++;
+				open = true;
+			}
+		}
+		return runs;
+	}
+
+
+	/**
+	 * Batches of visible steps: visible parts are always in contiguous
+	 * steps (see LDRenderedModel.getVisibleStepRange())
+	 *
+	 * @param batches	batches sorted by step
+	 * @param range		first and last visible step, null if none
+	 * @return	first and last+1 batch to draw
+	 */
+	static int[] visibleBatches(List<LDStepBatch> batches, int[] range) {
+
+		if (range == null)
+			return new int[] { 0, 0 };
+		return new int[] { firstBatch(batches, range[0]), firstBatch(batches, range[1] + 1) };
+	}
+
+
+	/*
+	 * first batch with step >= step
+	 */
+	private static int firstBatch(List<LDStepBatch> batches, int step) {
+
+		int low = 0, high = batches.size();
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (batches.get(mid).step < step)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+
+	int[] getRunFirst() {
+		return runFirst;
+	}
+
+
+	int[] getRunCount() {
+		return runCount;
+	}
+
+
+	int getFirst(int kind, int part) {
+		return first[kind][part];
+	}
+
+
+	LDRenderedPart[] getParts() {
+		return parts;
+	}
+
+
+	int getStep() {
+		return step;
+	}
+
+
+	int getTriangleVertexCount() {
+		return vertexCount[TRIANGLES];
+	}
+
+
+	/*
+	 * vertex in merged triangle buffer, less than drawn if indexed
+	 */
+	int getTriangleBufferVertexCount() {
+		return triangleBufferVertex;
+	}
+
+
+	int getLineVertexCount() {
+		return vertexCount[LINES];
+	}
+
+
+	boolean isIndexed() {
+		return indexed;
+	}
+
+
+	int getAuxLineVertexCount() {
+		return vertexCount[AUXLINES];
+	}
+
+
+	int getTriangleName() {
+		return triangleName;
+	}
+
+
+	void setTriangleName(int triangleName) {
+		this.triangleName = triangleName;
+	}
+
+
+	int getTriangleIndexName() {
+		return triangleIndexName;
+	}
+
+
+	void setTriangleIndexName(int triangleIndexName) {
+		this.triangleIndexName = triangleIndexName;
+	}
+
+
+	int getTriangleColorName() {
+		return triangleColorName;
+	}
+
+
+	void setTriangleColorName(int triangleColorName) {
+		this.triangleColorName = triangleColorName;
+	}
+
+
+	int getLineName() {
+		return lineName;
+	}
+
+
+	void setLineName(int lineName) {
+		this.lineName = lineName;
+	}
+
+
+	int getLineColorName() {
+		return lineColorName;
+	}
+
+
+	void setLineColorName(int lineColorName) {
+		this.lineColorName = lineColorName;
+	}
+
+
+	int getAuxLineName() {
+		return auxLineName;
+	}
+
+
+	void setAuxLineName(int auxLineName) {
+		this.auxLineName = auxLineName;
+	}
+
+
+	int getAuxLineColorName() {
+		return auxLineColorName;
+	}
+
+
+	void setAuxLineColorName(int auxLineColorName) {
+		this.auxLineColorName = auxLineColorName;
+	}
+
+}
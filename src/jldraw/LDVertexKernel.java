@@ -0,0 +1,149 @@
+/*
+	Copyright 2026 LDraw Instruction Visualizer contributors
+	This file is part of JLDraw
+
+	JLDraw is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	JLDraw is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with JLDraw.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+
+package jldraw;
+
+import it.romabrick.matrix3d.Matrix3D;
+
+
+/**
+ * Batch vertex operations used when building part vertex buffers:
+ * placement transform of vertices and normals, and normals normalization
+ *
+ * This is the scalar implementation. If the optional vector kernel
+ * (jldraw.LDVectorKernel, in vector/src, needs JDK 16+ and
+ * jdk.incubator.vector module) is on classpath and the module is
+ * available at runtime, getKernel() returns it, otherwise falls back
+ * to this one. Both give the same results, bit for bit.
+ *
+ * Vertex data is packed: every vertex starts stride floats after
+ * previous one, with x,y,z at offset.
+ */
+public class LDVertexKernel {
+
+	// set to false to always use scalar kernel (-Dldiv.vector=false)
+	public static boolean useVector = !"false".equals(System.getProperty("ldiv.vector"));
+
+	private static final LDVertexKernel scalar = new LDVertexKernel();
+	private static volatile LDVertexKernel kernel = null;
+
+
+
+	protected LDVertexKernel() {
+	}
+
+
+
+	/**
+	 * @return vector kernel if available and enabled, scalar kernel otherwise
+	 */
+	public static LDVertexKernel getKernel() {
+
+		if (!useVector)
+			return scalar;
+		LDVertexKernel k = kernel;
+		if (k == null)
+			k = loadKernel();
+		return k;
+	}
+
+
+
+	private static synchronized LDVertexKernel loadKernel() {
+
+		if (kernel != null)
+			return kernel;
+		LDVertexKernel k = scalar;
+		try {
+			Class<?> c = Class.forName("jldraw.LDVectorKernel");
+			k = (LDVertexKernel) c.getDeclaredConstructor().newInstance();
+			System.out.println("[LDVertexKernel] Using " + k.getName());
+		} catch (ClassNotFoundException ex) {
+			// vector kernel not built, silently use scalar
+		} catch (LinkageError | Exception ex) {
+			// built, but jdk.incubator.vector not available
+			System.out.println("[LDVertexKernel] Vector kernel not available (" + ex + "), using scalar");
+		}
+		kernel = k;
+		return k;
+	}
+
+
+
+	public static LDVertexKernel getScalarKernel() {
+
+		return scalar;
+	}
+
+
+
+	public String getName() {
+
+		return "scalar kernel";
+	}
+
+
+
+	/**
+	 * Transforms count points with m, see Matrix3D.transformPoints()
+	 */
+	public void transformPoints(Matrix3D m, float[] src, int srcOff, int srcStride,
+			float[] dst, int dstOff, int dstStride, int count) {
+
+		m.transformPoints(src, srcOff, srcStride, dst, dstOff, dstStride, count);
+	}
+
+
+
+	/**
+	 * Transforms count vectors with m, without translation
+	 */
+	public void transformNormals(Matrix3D m, float[] src, int srcOff, int srcStride,
+			float[] dst, int dstOff, int dstStride, int count) {
+
+		m.transformNormals(src, srcOff, srcStride, dst, dstOff, dstStride, count);
+	}
+
+
+
+	/**
+	 * Normalizes count vectors in place. Zero length vectors becomes (0,0,1)
+	 */
+	public void normalize(float[] v, int off, int stride, int count) {
+
+		for (int k=0,i=off;k<count;k++,i+=stride) {
+			float x = v[i];
+			float y = v[i+1];
+			float z = v[i+2];
+			float d = (float) Math.sqrt(x*x+y*y+z*z);
+			if (d == 0) {
+				v[i] = 0f;
+				v[i+1] = 0f;
+				v[i+2] = 1f;
+			}
+			else {
+				v[i] = x/d;
+				v[i+1] = y/d;
+				v[i+2] = z/d;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,158 @@
+/*
+	Copyright 2026 LDraw Instruction Visualizer contributors
+	This file is part of JLDraw
+
+	JLDraw is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	JLDraw is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with JLDraw.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+
+package jldraw;
+
+import java.util.Arrays;
+
+
+/**
+ * Merges equal triangle vertices of a placed part, for indexed drawing
+ *
+ * Two vertices are equal if position and normal are the same after
+ * rounding to EPSILON, and color is the same. Unique vertices are moved
+ * to start of vertex arrays, in order of first use, and an index array
+ * gives unique vertex for every triangle vertex.
+ *
+ * Hash table and index are reused by calling thread, so a welder must
+ * be used by a single thread.
+ */
+final class LDVertexWelder {
+
+	// position (LDraw units) and normal tolerance
+	static final float EPSILON = 1e-4f;
+	private static final float SCALE = 1f / EPSILON;
+
+	private static final ThreadLocal<LDVertexWelder> welder = new ThreadLocal<LDVertexWelder>();
+
+	private int[] table = new int[0];
+	private int[] index = new int[0];
+	private int unique;
+
+
+
+	private LDVertexWelder() {
+	}
+
+
+
+	/**
+	 * @return welder of calling thread
+	 */
+	static LDVertexWelder get() {
+
+		LDVertexWelder w = welder.get();
+		if (w == null) {
+			w = new LDVertexWelder();
+			welder.set(w);
+		}
+		return w;
+	}
+
+
+
+	/**
+	 * Welds count vertices, in place
+	 *
+	 * @param v		vertices: x,y,z,nx,ny,nz
+	 * @param c		colors: r,g,b,a
+	 * @return number of unique vertices, now in v[0..unique*6-1] and c[0..unique*4-1]
+	 */
+	int weld(float[] v, byte[] c, int count) {
+
+		int size = Integer.highestOneBit(Math.max(count, 8) * 2 - 1) << 1;
+		if (table.length < size)
+			table = new int[size];
+		Arrays.fill(table, 0, size, -1);
+		if (index.length < count)
+			index = new int[count];
+		int mask = size - 1;
+		unique = 0;
+		for (int j = 0; j < count; j++) {
+			int h = hash(v, c, j) & mask;
+			int u;
+			while ((u = table[h]) >= 0 && !equal(v, c, u, j)) {
+				h = (h + 1) & mask;
+			}
+			if (u < 0) {
+			// new vertex, moved to first free place
+				u = unique++;
+				table[h] = u;
+				if (u != j) {
+					System.arraycopy(v, j * 6, v, u * 6, 6);
+					System.arraycopy(c, j * 4, c, u * 4, 4);
+				}
+			}
+			index[j] = u;
+		}
+		return unique;
+	}
+
+
+
+	/**
+	 * @return index of last weld(), valid until next call
+	 */
+	int[] getIndex() {
+
+		return index;
+	}
+
+
+
+	/*
+	 * long, so positions far from origin don't saturate (an int does
+	 * beyond 214748 LDU)
+	 */
+	private static long quantize(float f) {
+
+		return Math.round((double) f * SCALE);
+	}
+
+
+
+	private static int hash(float[] v, byte[] c, int j) {
+
+		int h = 0;
+		for (int k = j * 6; k < j * 6 + 6; k++) {
+			long q = quantize(v[k]);
+			h = h * 31 + (int) (q ^ (q >>> 32));
+		}
+		h = h * 31 + ((c[j*4] & 0xff) | (c[j*4+1] & 0xff) << 8 | (c[j*4+2] & 0xff) << 16 | c[j*4+3] << 24);
+		// spreads low bits
+		return h ^ (h >>> 16);
+	}
+
+
+
+	private static boolean equal(float[] v, byte[] c, int a, int b) {
+
+		for (int k = 0; k < 6; k++) {
+			if (quantize(v[a*6+k]) != quantize(v[b*6+k]))
+				return false;
+		}
+		for (int k = 0; k < 4; k++) {
+			if (c[a*4+k] != c[b*4+k])
+				return false;
+		}
+		return true;
+	}
+
+}
@@ -34,11 +34,15 @@ import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferByte;
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import javax.media.opengl.GL2;
+import javax.media.opengl.GL3bc;
 import javax.media.opengl.GLAutoDrawable;
 import javax.media.opengl.GLCapabilities;
 import javax.media.opengl.GLContext;
@@ -50,6 +54,7 @@ import javax.media.opengl.awt.GLCanvas;
 import javax.media.opengl.glu.GLU;
 
 import com.jogamp.common.nio.Buffers;
+import com.jogamp.common.util.VersionNumber;
 
 public class LDrawGLDisplay implements GLEventListener, MouseListener, MouseMotionListener, MouseWheelListener {
 
@@ -64,6 +69,7 @@ public class LDrawGLDisplay implements GLEventListener, MouseListener, MouseMoti
 	private boolean perspective = false;
 	private boolean bufferOk = false;
 	private boolean selection = false; 
+	private boolean batched = false;
 	private float zoomFactor = 1.0f;
 	private float offsetx = 0f;
 	private float offsety = 0f;
@@ -79,10 +85,100 @@ public class LDrawGLDisplay implements GLEventListener, MouseListener, MouseMoti
 	public static final int AXIS_Y = 200;
 	public static final int AXIS_YX = 400;
 	
+	
+	/*
+	 * parts rendered by a model, in step order
+	 */
+	private static class RenderedChunk {
+		
+		final LDRenderedModel model;
+		final LDRenderedPart[] parts;
+		
+		RenderedChunk(LDRenderedModel model, LDRenderedPart[] parts) {
+			this.model = model;
+			this.parts = parts;
+		}
+	}
+	
 	private LDRenderedModel model = null;
 	private GLContext glcontext;
 	private LinkedList<PartSelectionListener> selectionListeners = new LinkedList<PartSelectionListener>();
 	private long drawingTime;
+	private int drawCalls;
+	// batches in buffers, sorted by step
+	private final List<LDStepBatch> batches = new ArrayList<LDStepBatch>();
+	private LDPartBVH bvh = null;
+	/** parts out of view aren't drawn (-Dldiv.culling=false to disable) */
+	public static boolean frustumCulling = !"false".equals(System.getProperty("ldiv.culling"));
+	private LDFrustumCuller culler = null;
+	// if parts are culled in current frame
+	private boolean culling = false;
+	private int culledParts;
+	private int drawnParts;
+	// parts rendered and not yet taken by display, with their model
+	private final ConcurrentLinkedQueue<RenderedChunk> pendingChunks = new ConcurrentLinkedQueue<RenderedChunk>();
+	// parts of model taken from queue, sorted by step (GL thread only)
+	private final List<LDRenderedPart> received = new ArrayList<LDRenderedPart>();
+	// received parts already in buffers, or in a batch of batchQueue
+	private int uploaded = 0;
+	// batches built and not yet in buffers
+	private final LinkedList<LDStepBatch> batchQueue = new LinkedList<LDStepBatch>();
+	/** max time (ms) for filling buffers in a single frame, while a model is rendering */
+	public static int uploadBudgetMs = 8;
+	/** triangles in compact interleaved buffers, with packed normals (-Dldiv.compact=true) */
+	public static boolean compactVertices = "true".equals(System.getProperty("ldiv.compact"));
+	/** compact triangles with 16 bit positions, for unbatched parts only (-Dldiv.quantized=true) */
+	public static boolean quantizedPositions = "true".equals(System.getProperty("ldiv.quantized"));
+	// OpenGL 3.3 or ARB_vertex_type_2_10_10_10_rev, not defined by this JOGL
+	private static final int GL_INT_2_10_10_10_REV = 0x8D9F;
+	private boolean compactSupported = false;
+	// format of triangles in buffers, chosen when first part is uploaded
+	private boolean compact = false;
+	private boolean quantized = false;
+	private long bufferBytes = 0;
+	// instanced drawing (OpenGL 3.3), null if not available
+	private GL3bc gl3 = null;
+	private int instanceProgram = 0;
+	private final int[] instanceRow = new int[3];
+	private int instanceLit;
+	// shared meshes of instanced parts in buffers, if parts are drawn by instances
+	private boolean instancing = false;
+	private final List<LDInstancedMesh> instancedMeshes = new ArrayList<LDInstancedMesh>();
+	private final float[] instanceMatrix = new float[16];
+	/*
+	 * instance transform is given as three rows of placement matrix, 
+	 * lighting is same as fixed pipeline: light 1 only, color material
+	 */
+	private static final String INSTANCE_VERTEX_SHADER = 
+			"#version 120\n" +
+			"attribute vec4 row0;\n" +
+			"attribute vec4 row1;\n" +
+			"attribute vec4 row2;\n" +
+			"uniform bool lit;\n" +
+			"varying vec4 color;\n" +
+			"void main() {\n" +
+			"  vec4 p = vec4(dot(row0, gl_Vertex), dot(row1, gl_Vertex), dot(row2, gl_Vertex), 1.0);\n" +
+			"  gl_Position = gl_ModelViewProjectionMatrix * p;\n" +
+			"  color = gl_Color;\n" +
+			"  if (lit) {\n" +
+			"    vec3 n = vec3(dot(row0.xyz, gl_Normal), dot(row1.xyz, gl_Normal), dot(row2.xyz, gl_Normal));\n" +
+			"    n = normalize(gl_NormalMatrix * n);\n" +
+			"    float d = max(dot(n, normalize(gl_LightSource[1].position.xyz)), 0.0);\n" +
+			"    color.rgb = clamp(gl_Color.rgb * (gl_LightModel.ambient.rgb + gl_LightSource[1].ambient.rgb\n" +
+			"        + d * gl_LightSource[1].diffuse.rgb), 0.0, 1.0);\n" +
+			"  }\n" +
+			"}\n";
+	private static final String INSTANCE_FRAGMENT_SHADER = 
+			"#version 120\n" +
+			"varying vec4 color;\n" +
+			"void main() {\n" +
+			"  gl_FragColor = color;\n" +
+			"}\n";
+	// matrices of last frame, for picking
+	private float[] pickModelView = new float[16];
+	private float[] pickProjection = new float[16];
+	private int[] pickViewport = new int[4];
+	private GLU pickGlu = new GLU();
 	private int centerx;
 	private int centery;
 	private int rotation;
@@ -133,6 +229,34 @@ public class LDrawGLDisplay implements GLEventListener, MouseListener, MouseMoti
 		canvas.repaint();
 	}
 
+
+	/**
+	 * In batched mode geometry of all parts in the same step is merged in a
+	 * few large buffers, so model is drawn by step and not by part
+	 */
+	public void setBatched(boolean batched) {
+		
+		if (this.batched == batched)
+			return;
+		if (model != null) {
+			glcontext.makeCurrent();
+			deleteBuffers();
+			this.batched = batched;
+			// received parts are uploaded again by next frames
+			bufferOk = true;
+			glcontext.release();
+		}
+		else {
+			this.batched = batched;
+		}
+		canvas.repaint();
+	}
+
+
+	public boolean isBatched() {
+		return batched;
+	}
+
 	
 	
 	public void setZoomFactor(float zoom) {
@@ -192,17 +316,58 @@ public class LDrawGLDisplay implements GLEventListener, MouseListener, MouseMoti
 	
 	
 
-	public void placeModel(LDRenderedModel m) {
+	/**
+	 * Starts display of a model while it is rendering: parts are shown 
+	 * when rendered (see partsRendered()), model must be placed with 
+	 * placeModel() when completed
+	 */
+	public void beginModel(LDRenderedModel m) {
 		
 		if (model != null) {
 		// there is a model in render area, free VA buffers
 			clearVABuffers();
 		}
+		glcontext.makeCurrent();
+		pendingChunks.clear();
 		model = m;
-        if (model != null) {
-        	setVABuffers();
-        	bufferOk = true;
-        }
+		bvh = null;
+		culler = null;
+		bufferOk = model != null;
+		glcontext.release();
+        canvas.repaint();
+	}
+	
+	
+	
+	/**
+	 * Queues parts just rendered by model, they are shown by next frames.
+	 * Can be called by any thread.
+	 * 
+	 * @param parts	parts sorted by step, after parts of previous call
+	 */
+	public void partsRendered(LDRenderedModel m, LDRenderedPart[] parts) {
+		
+		pendingChunks.add(new RenderedChunk(m, parts));
+		canvas.repaint();
+	}
+	
+	
+	
+	/**
+	 * Places a rendered model, replacing model in render area. If model
+	 * was started with beginModel(), only parts not displayed yet are
+	 * added.
+	 */
+	public void placeModel(LDRenderedModel m) {
+		
+		if (m != model) {
+			beginModel(m);
+			if (m != null)
+				partsRendered(m, m.getRenderedParts().toArray(new LDRenderedPart[0]));
+		}
+		// ready for picking
+		bvh = m != null ? new LDPartBVH(m.getParts()) : null;
+		culler = m != null ? new LDFrustumCuller(m.getParts()) : null;
         canvas.repaint();
 	}
 
@@ -244,95 +409,250 @@ public class LDrawGLDisplay implements GLEventListener, MouseListener, MouseMoti
 
 
 	
-	private void setVABuffers() {
+	/*
+	 * takes parts queued by rendering model and fills buffers until 
+	 * time is over. Context must be current.
+	 * 
+	 * @return true if there are parts not in buffers yet
+	 */
+	private boolean uploadParts(long budgetNs) {
+		
+		long t0 = System.nanoTime();
+		RenderedChunk c;
+		while ((c = pendingChunks.poll()) != null) {
+			// parts of a previous model are discarded
+			if (c.model == model)
+				received.addAll(Arrays.asList(c.parts));
+		}
+		if (model == null || !bufferOk)
+			return false;
+		if (uploaded == 0) {
+			compact = compactVertices && compactSupported;
+			// batches merge parts, with a single transform
+			quantized = compact && quantizedPositions && !batched;
+			instancing = gl3 != null && !batched;
+		}
+		while (System.nanoTime() - t0 < budgetNs) {
+			if (batched) {
+				if (batchQueue.isEmpty()) {
+					if (uploaded == received.size())
+						break;
+					// parts received so far, in batches sorted by step
+					batchQueue.addAll(LDStepBatch.newBatches(received.subList(uploaded, received.size())));
+					uploaded = received.size();
+				}
+				LDStepBatch sb = batchQueue.removeFirst();
+				setBatchBuffers(sb);
+				batches.add(sb);
+				for (LDRenderedPart p : sb.getParts()) {
+					p.releaseGeometry();
+				}
+			}
+			else {
+				if (uploaded == received.size())
+					break;
+				setVABuffers(received.get(uploaded));
+				uploaded++;
+			}
+		}
+        gl2.glBindBuffer( GL2.GL_ARRAY_BUFFER, 0 );
+		return !pendingChunks.isEmpty() || uploaded < received.size() || !batchQueue.isEmpty();
+	}
+	
+	
+	
+	private void setVABuffers(LDRenderedPart p) {
 
 		int[] vboArrayNames = new int[2];
 		
-		glcontext.makeCurrent();
-		for (LDRenderedPart p : model.getParts()) {
-			// gets and save array buffer names
-			if (p.getTriangleVertexCount() > 0) {
+		LDInstancedMesh im = p.getInstancedMesh();
+		if (instancing && im != null) {
+		// shared mesh, first instance puts it in buffers
+			if (im.getInstanceName() == 0)
+				setInstancedBuffers(im);
+			p.releaseGeometry();
+			return;
+		}
+		// gets and save array buffer names
+		if (p.getTriangleVertexCount() > 0) {
+			p.setDequantization(null);
+			if (compact) {
+			// a single interleaved buffer
+		        gl2.glGenBuffers( 1, vboArrayNames, 0 );
+		        p.setTriangleName(vboArrayNames[0]);
+		        p.setTriangleColorName(0);
+		        if (quantized) {
+		        	p.setDequantization(LDCompactVertex.getDequantization(p.getBoundingBox()));
+		        	fillBuffer(p.getTriangleName(), LDCompactVertex.packQuantized(p.getTrianglesVBO(), 
+		        			p.getTriangleColorVA(), p.getTriangleBufferVertexCount(), p.getDequantization()));
+		        }
+		        else {
+		        	fillBuffer(p.getTriangleName(), LDCompactVertex.pack(p.getTrianglesVBO(), 
+		        			p.getTriangleColorVA(), p.getTriangleBufferVertexCount()));
+		        }
+			}
+			else {
 		        gl2.glGenBuffers( 2, vboArrayNames, 0 );
 		        p.setTriangleName(vboArrayNames[VERTEX]);
 		        p.setTriangleColorName(vboArrayNames[VERTEX_COLOR]);
-	        // store vertex coords
-		        gl2.glBindBuffer( GL2.GL_ARRAY_BUFFER, p.getTriangleName());
-		        gl2.glBufferData( GL2.GL_ARRAY_BUFFER,
-		                          p.getTrianglesVBO().length * Buffers.SIZEOF_FLOAT,
-		                          null,
-		                          GL2.GL_STATIC_DRAW );
-		        ByteBuffer bytebuffer = gl2.glMapBuffer( GL2.GL_ARRAY_BUFFER, GL2.GL_WRITE_ONLY );
-		        FloatBuffer vertexbuffer = bytebuffer.order( ByteOrder.nativeOrder() ).asFloatBuffer();
-		        vertexbuffer.put(p.getTrianglesVBO());
-		        gl2.glUnmapBuffer( GL2.GL_ARRAY_BUFFER );
-	        // store vertex colors
-		        gl2.glBindBuffer( GL2.GL_ARRAY_BUFFER, p.getTriangleColorName() );
-		        gl2.glBufferData( GL2.GL_ARRAY_BUFFER,
-		                          p.getTriangleColorVA().length * Buffers.SIZEOF_BYTE,
-		                          null,
-		                          GL2.GL_STATIC_DRAW );
-		        bytebuffer = gl2.glMapBuffer( GL2.GL_ARRAY_BUFFER, GL2.GL_WRITE_ONLY );
-		        ByteBuffer vertexColorBuffer = bytebuffer.order( ByteOrder.nativeOrder() );
-		        vertexColorBuffer.put(p.getTriangleColorVA());
-		        gl2.glUnmapBuffer( GL2.GL_ARRAY_BUFFER );
+		        fillBuffer(p.getTriangleName(), p.getTrianglesVBO());
+		        fillBuffer(p.getTriangleColorName(), p.getTriangleColorVA());
 			}
-	        // store line coords
-	        if (p.getLineVertexCount() > 0) {
+	        if (p.isIndexed()) {
+		        gl2.glGenBuffers( 1, vboArrayNames, 0 );
+		        p.setTriangleIndexName(vboArrayNames[0]);
+		        fillIndexBuffer(p.getTriangleIndexName(), p.getTriangleIndex(), p.isShortIndex() ? 
+		        		Buffers.SIZEOF_SHORT : Buffers.SIZEOF_INT);
+	        }
+		}
+        // store line coords
+        if (p.getLineVertexCount() > 0) {
+	        gl2.glGenBuffers( 2, vboArrayNames, 0 );
+	        p.setLineName(vboArrayNames[VERTEX]);
+	        p.setLineColorName(vboArrayNames[VERTEX_COLOR]);
+	        fillBuffer(p.getLineName(), p.getWireFrameVBO());
+	        fillBuffer(p.getLineColorName(), p.getWireColorVa());
+        }
+        if (p.getAuxLineVertexCount() > 0) {
+	        gl2.glGenBuffers( 2, vboArrayNames, 0 );
+	        p.setAuxLineName(vboArrayNames[VERTEX]);
+	        p.setAuxLineColorName(vboArrayNames[VERTEX_COLOR]);
+	        fillBuffer(p.getAuxLineName(), p.getAuxWireFrameVBO());
+	        fillBuffer(p.getAuxLineColorName(), p.getAuxWireColorVa());
+        }
+        // geometry is in OpenGL buffers now
+        p.releaseGeometry();
+	}
+	
+	
+	
+	/*
+	 * fills buffers of a mesh shared by instanced parts, and gets an
+	 * instance buffer, filled when drawing
+	 */
+	private void setInstancedBuffers(LDInstancedMesh im) {
+		
+		int[] vboArrayNames = new int[2];
+		
+		if (im.getTriangleVertexCount() > 0) {
+			if (compact) {
+		        gl2.glGenBuffers( 1, vboArrayNames, 0 );
+		        im.setTriangleName(vboArrayNames[0]);
+		        fillBuffer(im.getTriangleName(), LDCompactVertex.pack(im.getTrianglesVBO(), 
+		        		im.getTriangleColorVA(), im.getTriangleBufferVertexCount()));
+			}
+			else {
 		        gl2.glGenBuffers( 2, vboArrayNames, 0 );
-		        p.setLineName(vboArrayNames[VERTEX]);
-		        p.setLineColorName(vboArrayNames[VERTEX_COLOR]);
-		        gl2.glBindBuffer( GL2.GL_ARRAY_BUFFER, p.getLineName());
-		        gl2.glBufferData( GL2.GL_ARRAY_BUFFER,
-		                          p.getWireFrameVBO().length * Buffers.SIZEOF_FLOAT,
-		                          null,
-		                          GL2.GL_STATIC_DRAW );
-		        ByteBuffer bytebuffer = gl2.glMapBuffer( GL2.GL_ARRAY_BUFFER, GL2.GL_WRITE_ONLY );
-		        FloatBuffer vertexbuffer = bytebuffer.order( ByteOrder.nativeOrder() ).asFloatBuffer();
-		        vertexbuffer.put(p.getWireFrameVBO());
-		        gl2.glUnmapBuffer( GL2.GL_ARRAY_BUFFER );
-	        // store line colors
-		        gl2.glBindBuffer( GL2.GL_ARRAY_BUFFER, p.getLineColorName());
-		        gl2.glBufferData( GL2.GL_ARRAY_BUFFER,
-		                          p.getWireColorVa().length * Buffers.SIZEOF_BYTE,
-		                          null,
-		                          GL2.GL_STATIC_DRAW );
-		        bytebuffer = gl2.glMapBuffer( GL2.GL_ARRAY_BUFFER, GL2.GL_WRITE_ONLY );
-		        ByteBuffer lineColorBuffer = bytebuffer.order( ByteOrder.nativeOrder() );
-		        lineColorBuffer.put(p.getWireColorVa());
-		        gl2.glUnmapBuffer( GL2.GL_ARRAY_BUFFER );
+		        im.setTriangleName(vboArrayNames[VERTEX]);
+		        im.setTriangleColorName(vboArrayNames[VERTEX_COLOR]);
+		        fillBuffer(im.getTriangleName(), im.getTrianglesVBO());
+		        fillBuffer(im.getTriangleColorName(), im.getTriangleColorVA());
+			}
+	        if (im.isIndexed()) {
+		        gl2.glGenBuffers( 1, vboArrayNames, 0 );
+		        im.setTriangleIndexName(vboArrayNames[0]);
+		        fillIndexBuffer(im.getTriangleIndexName(), im.getTriangleIndex(), im.isShortIndex() ? 
+		        		Buffers.SIZEOF_SHORT : Buffers.SIZEOF_INT);
 	        }
-	        if (p.getAuxLineVertexCount() > 0) {
+		}
+		if (im.getLineVertexCount() > 0) {
+	        gl2.glGenBuffers( 2, vboArrayNames, 0 );
+	        im.setLineName(vboArrayNames[VERTEX]);
+	        im.setLineColorName(vboArrayNames[VERTEX_COLOR]);
+	        fillBuffer(im.getLineName(), im.getWireFrameVBO());
+	        fillBuffer(im.getLineColorName(), im.getWireColorVA());
+		}
+		if (im.getAuxLineVertexCount() > 0) {
+	        gl2.glGenBuffers( 2, vboArrayNames, 0 );
+	        im.setAuxLineName(vboArrayNames[VERTEX]);
+	        im.setAuxLineColorName(vboArrayNames[VERTEX_COLOR]);
+	        fillBuffer(im.getAuxLineName(), im.getAuxWireFrameVBO());
+	        fillBuffer(im.getAuxLineColorName(), im.getAuxWireColorVA());
+		}
+        gl2.glGenBuffers( 1, vboArrayNames, 0 );
+        im.setInstanceName(vboArrayNames[0]);
+        instancedMeshes.add(im);
+	}
+	
+	
+	
+	/*
+	 * fills a new array buffer, straight from a direct buffer
+	 */
+	private void fillBuffer(int name, FloatBuffer data) {
+		
+        gl2.glBindBuffer( GL2.GL_ARRAY_BUFFER, name);
+        gl2.glBufferData( GL2.GL_ARRAY_BUFFER, data.remaining() * Buffers.SIZEOF_FLOAT, data, GL2.GL_STATIC_DRAW );
+        bufferBytes += data.remaining() * Buffers.SIZEOF_FLOAT;
+	}
+	
+	
+	private void fillBuffer(int name, ByteBuffer data) {
+		
+        gl2.glBindBuffer( GL2.GL_ARRAY_BUFFER, name);
+        gl2.glBufferData( GL2.GL_ARRAY_BUFFER, data.remaining() * Buffers.SIZEOF_BYTE, data, GL2.GL_STATIC_DRAW );
+        bufferBytes += data.remaining() * Buffers.SIZEOF_BYTE;
+	}
+	
+	
+	private void fillIndexBuffer(int name, Buffer data, int size) {
+		
+        gl2.glBindBuffer( GL2.GL_ELEMENT_ARRAY_BUFFER, name);
+        gl2.glBufferData( GL2.GL_ELEMENT_ARRAY_BUFFER, data.remaining() * size, data, GL2.GL_STATIC_DRAW );
+        bufferBytes += data.remaining() * size;
+        gl2.glBindBuffer( GL2.GL_ELEMENT_ARRAY_BUFFER, 0);
+	}
+	
+	
+	
+	/*
+	 * fills buffers of a step batch
+	 */
+	private void setBatchBuffers(LDStepBatch sb) {
+		
+		int[] vboArrayNames = new int[2];
+		
+		if (sb.getTriangleVertexCount() > 0) {
+			if (compact) {
+		        gl2.glGenBuffers( 1, vboArrayNames, 0 );
+		        sb.setTriangleName(vboArrayNames[0]);
+		        sb.setTriangleColorName(0);
+		        fillBuffer(sb.getTriangleName(), LDCompactVertex.pack(sb.getTrianglesVBO(), 
+		        		sb.getTriangleColorVA(), sb.getTriangleBufferVertexCount()));
+			}
+			else {
 		        gl2.glGenBuffers( 2, vboArrayNames, 0 );
-		        p.setAuxLineName(vboArrayNames[VERTEX]);
-		        p.setAuxLineColorName(vboArrayNames[VERTEX_COLOR]);
-		        gl2.glBindBuffer( GL2.GL_ARRAY_BUFFER, p.getAuxLineName());
-		        gl2.glBufferData( GL2.GL_ARRAY_BUFFER,
-		                          p.getAuxWireFrameVBO().length * Buffers.SIZEOF_FLOAT,
-		                          null,
-		                          GL2.GL_STATIC_DRAW );
-		        ByteBuffer bytebuffer = gl2.glMapBuffer( GL2.GL_ARRAY_BUFFER, GL2.GL_WRITE_ONLY );
-		        FloatBuffer vertexbuffer = bytebuffer.order( ByteOrder.nativeOrder() ).asFloatBuffer();
-		        vertexbuffer.put(p.getAuxWireFrameVBO());
-		        gl2.glUnmapBuffer( GL2.GL_ARRAY_BUFFER );
-	        // store line colors
-		        gl2.glBindBuffer( GL2.GL_ARRAY_BUFFER, p.getAuxLineColorName());
-		        gl2.glBufferData( GL2.GL_ARRAY_BUFFER,
-		                          p.getAuxWireColorVa().length * Buffers.SIZEOF_BYTE,
-		                          null,
-		                          GL2.GL_STATIC_DRAW );
-		        bytebuffer = gl2.glMapBuffer( GL2.GL_ARRAY_BUFFER, GL2.GL_WRITE_ONLY );
-		        ByteBuffer lineColorBuffer = bytebuffer.order( ByteOrder.nativeOrder() );
-		        lineColorBuffer.put(p.getAuxWireColorVa());
-		        gl2.glUnmapBuffer( GL2.GL_ARRAY_BUFFER );
+		        sb.setTriangleName(vboArrayNames[VERTEX]);
+		        sb.setTriangleColorName(vboArrayNames[VERTEX_COLOR]);
+		        fillBuffer(sb.getTriangleName(), sb.getTrianglesVBO());
+		        fillBuffer(sb.getTriangleColorName(), sb.getTriangleColorVA());
+			}
+	        if (sb.isIndexed()) {
+		        gl2.glGenBuffers( 1, vboArrayNames, 0 );
+		        sb.setTriangleIndexName(vboArrayNames[0]);
+		        fillIndexBuffer(sb.getTriangleIndexName(), sb.getTriangleIndex(), Buffers.SIZEOF_INT);
 	        }
 		}
-		glcontext.release();
+		if (sb.getLineVertexCount() > 0) {
+	        gl2.glGenBuffers( 2, vboArrayNames, 0 );
+	        sb.setLineName(vboArrayNames[VERTEX]);
+	        sb.setLineColorName(vboArrayNames[VERTEX_COLOR]);
+	        fillBuffer(sb.getLineName(), sb.getWireFrameVBO());
+	        fillBuffer(sb.getLineColorName(), sb.getWireColorVa());
+		}
+		if (sb.getAuxLineVertexCount() > 0) {
+	        gl2.glGenBuffers( 2, vboArrayNames, 0 );
+	        sb.setAuxLineName(vboArrayNames[VERTEX]);
+	        sb.setAuxLineColorName(vboArrayNames[VERTEX_COLOR]);
+	        fillBuffer(sb.getAuxLineName(), sb.getAuxWireFrameVBO());
+	        fillBuffer(sb.getAuxLineColorName(), sb.getAuxWireColorVa());
+		}
 	}
 	
 	
 	
 	/* 
-	 * releases vertex and object buffers
+	 * releases vertex and object buffers, and parts received from model
 	 */
 	void clearVABuffers() {
 		
@@ -340,18 +660,60 @@ public class LDrawGLDisplay implements GLEventListener, MouseListener, MouseMoti
 		if (model == null)
 			return;
 		glcontext.makeCurrent();
-		for (LDRenderedPart p : model.getParts()) {
-			if (p.getLineVertexCount() > 0) {
-				gl2.glDeleteBuffers(2, new int[] {p.getLineName(),p.getLineColorName()},0);
+		deleteBuffers();
+		received.clear();
+		glcontext.release();
+	}
+	
+	
+	
+	/*
+	 * releases vertex and object buffers, received parts are kept to be
+	 * uploaded again. Context must be current.
+	 */
+	private void deleteBuffers() {
+		
+		if (batched) {
+			for (LDStepBatch sb : batches) {
+				if (sb.getLineVertexCount() > 0) {
+					gl2.glDeleteBuffers(2, new int[] {sb.getLineName(),sb.getLineColorName()},0);
+				}
+				if (sb.getAuxLineVertexCount() > 0) {
+					gl2.glDeleteBuffers(2, new int[] {sb.getAuxLineName(),sb.getAuxLineColorName()},0);
+				}
+				if (sb.getTriangleVertexCount() > 0) {
+					gl2.glDeleteBuffers(2, new int[] {sb.getTriangleName(),sb.getTriangleColorName()},0);
+					if (sb.isIndexed())
+						gl2.glDeleteBuffers(1, new int[] {sb.getTriangleIndexName()},0);
+				}
 			}
-			if (p.getAuxLineVertexCount() > 0) {
-				gl2.glDeleteBuffers(2, new int[] {p.getAuxLineName(),p.getAuxLineColorName()},0);
+		}
+		else {
+			for (LDRenderedPart p : received.subList(0, uploaded)) {
+				if (p.getLineVertexCount() > 0) {
+					gl2.glDeleteBuffers(2, new int[] {p.getLineName(),p.getLineColorName()},0);
+				}
+				if (p.getAuxLineVertexCount() > 0) {
+					gl2.glDeleteBuffers(2, new int[] {p.getAuxLineName(),p.getAuxLineColorName()},0);
+				}
+				if (p.getTriangleVertexCount() > 0) {
+					gl2.glDeleteBuffers(2, new int[] {p.getTriangleName(),p.getTriangleColorName()},0);
+					if (p.isIndexed())
+						gl2.glDeleteBuffers(1, new int[] {p.getTriangleIndexName()},0);
+				}			
 			}
-			if (p.getTriangleVertexCount() > 0) {
-				gl2.glDeleteBuffers(2, new int[] {p.getTriangleName(),p.getTriangleColorName()},0);
-			}			
+			for (LDInstancedMesh im : instancedMeshes) {
+				gl2.glDeleteBuffers(8, new int[] {im.getTriangleName(),im.getTriangleColorName(),
+						im.getTriangleIndexName(),im.getLineName(),im.getLineColorName(),
+						im.getAuxLineName(),im.getAuxLineColorName(),im.getInstanceName()},0);
+				im.clearBuffers();
+			}
+			instancedMeshes.clear();
 		}
-		glcontext.release();
+		batches.clear();
+		batchQueue.clear();
+		uploaded = 0;
+		bufferBytes = 0;
 	}
 	
 	
@@ -362,6 +724,174 @@ public class LDrawGLDisplay implements GLEventListener, MouseListener, MouseMoti
 	}
 	
 	
+	/**
+	 * @return number of draw calls issued for last frame
+	 */
+	public int getDrawCalls() {
+		return drawCalls;
+	}
+	
+	
+	/**
+	 * @return number of visible parts not drawn in last frame, because 
+	 * 		they were out of view
+	 */
+	public int getCulledParts() {
+		return culledParts;
+	}
+	
+	
+	/**
+	 * @return number of visible parts drawn in last frame
+	 */
+	public int getDrawnParts() {
+		return drawnParts;
+	}
+	
+	
+	/**
+	 * @return bytes in OpenGL buffers for current model
+	 */
+	public long getBufferBytes() {
+		return bufferBytes;
+	}
+	
+	
+	
+	/*
+	 * sets vertex, normal and color pointers for a triangle buffer
+	 */
+	private void setTrianglePointers(int name, int colorName, boolean quantizedPart) {
+		
+        gl2.glBindBuffer( GL2.GL_ARRAY_BUFFER, name );
+        if (!compact) {
+            gl2.glVertexPointer( 3, GL2.GL_FLOAT, 6 * Buffers.SIZEOF_FLOAT, 0 );
+            gl2.glNormalPointer(GL2.GL_FLOAT,6 * Buffers.SIZEOF_FLOAT ,3 * Buffers.SIZEOF_FLOAT);
+            gl2.glBindBuffer(GL2.GL_ARRAY_BUFFER, colorName);
+            gl2.glColorPointer( 4, GL2.GL_UNSIGNED_BYTE, 4 * Buffers.SIZEOF_BYTE, 0 );
+        }
+        else if (quantizedPart) {
+        	gl2.glVertexPointer( 3, GL2.GL_SHORT, LDCompactVertex.QUANTIZED_STRIDE, 0 );
+        	gl2.glNormalPointer( GL_INT_2_10_10_10_REV, LDCompactVertex.QUANTIZED_STRIDE, LDCompactVertex.QUANTIZED_NORMAL );
+        	gl2.glColorPointer( 4, GL2.GL_UNSIGNED_BYTE, LDCompactVertex.QUANTIZED_STRIDE, LDCompactVertex.QUANTIZED_COLOR );
+        }
+        else {
+        	gl2.glVertexPointer( 3, GL2.GL_FLOAT, LDCompactVertex.FLOAT_STRIDE, 0 );
+        	gl2.glNormalPointer( GL_INT_2_10_10_10_REV, LDCompactVertex.FLOAT_STRIDE, LDCompactVertex.FLOAT_NORMAL );
+        	gl2.glColorPointer( 4, GL2.GL_UNSIGNED_BYTE, LDCompactVertex.FLOAT_STRIDE, LDCompactVertex.FLOAT_COLOR );
+        }
+	}
+	
+	
+	
+	/*
+	 * draws ranges of visible parts in a step batch buffer, as a single call
+	 */
+	private void drawRuns(LDStepBatch sb, int kind, boolean skipSelected) {
+		
+		int runs = sb.computeRuns(kind, skipSelected, culling);
+		if (runs == 0)
+			return;
+		int mode = kind == LDStepBatch.TRIANGLES ? GL2.GL_TRIANGLES : GL2.GL_LINES;
+		if (kind == LDStepBatch.TRIANGLES && sb.isIndexed()) {
+		// ranges are in index buffer
+			gl2.glBindBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER, sb.getTriangleIndexName());
+			for (int i = 0; i < runs; i++) {
+				gl2.glDrawElements(mode, sb.getRunCount()[i], GL2.GL_UNSIGNED_INT, 
+						(long) sb.getRunFirst()[i] * Buffers.SIZEOF_INT);
+				drawCalls++;
+			}
+			gl2.glBindBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER, 0);
+			return;
+		}
+		if (runs == 1)
+			gl2.glDrawArrays(mode, sb.getRunFirst()[0], sb.getRunCount()[0]);
+		else
+			gl2.glMultiDrawArrays(mode, sb.getRunFirst(), 0, sb.getRunCount(), 0, runs);
+		drawCalls++;
+	}
+	
+	
+	
+	/*
+	 * draws model by step batches
+	 */
+	private void renderBatches() {
+		
+		// only steps with visible parts, a contiguous range of batches
+		int[] range = LDStepBatch.visibleBatches(batches, model.getVisibleStepRange());
+		List<LDStepBatch> visible = batches.subList(range[0], range[1]);
+        gl2.glEnableClientState( GL2.GL_VERTEX_ARRAY );
+        gl2.glEnableClientState( GL2.GL_COLOR_ARRAY );
+        if (polygon) {
+            if (lighting)
+            	gl2.glEnable(GL2.GL_LIGHTING);
+            gl2.glEnableClientState(GL2.GL_NORMAL_ARRAY);
+	        for (LDStepBatch sb : visible) {
+	        	if (sb.getTriangleVertexCount() == 0)
+	        		continue;
+	        	setTrianglePointers(sb.getTriangleName(), sb.getTriangleColorName(), false);
+	            drawRuns(sb, LDStepBatch.TRIANGLES, false);
+	        }
+            gl2.glDisableClientState( GL2.GL_NORMAL_ARRAY );	
+            gl2.glDisable(GL2.GL_LIGHTING);
+        }
+        if (wireframe) {
+	        for (LDStepBatch sb : visible) {
+	        	if (sb.getLineVertexCount() > 0) {
+		            gl2.glBindBuffer(GL2.GL_ARRAY_BUFFER, sb.getLineName());
+		            gl2.glVertexPointer( 3, GL2.GL_FLOAT, 3 * Buffers.SIZEOF_FLOAT, 0 );
+		            gl2.glBindBuffer(GL2.GL_ARRAY_BUFFER, sb.getLineColorName());
+		            gl2.glColorPointer( 4, GL2.GL_UNSIGNED_BYTE, 4 * Buffers.SIZEOF_BYTE, 0 );
+		            drawRuns(sb, LDStepBatch.LINES, true);
+	        	}
+	            if (!polygon && sb.getAuxLineVertexCount() > 0) {
+    	// display aux lines only if polygons are hidden
+		            gl2.glBindBuffer(GL2.GL_ARRAY_BUFFER, sb.getAuxLineName());
+		            gl2.glVertexPointer( 3, GL2.GL_FLOAT, 3 * Buffers.SIZEOF_FLOAT, 0 );
+		            gl2.glBindBuffer(GL2.GL_ARRAY_BUFFER, sb.getAuxLineColorName());
+		            gl2.glColorPointer( 4, GL2.GL_UNSIGNED_BYTE, 4 * Buffers.SIZEOF_BYTE, 0 );
+		            drawRuns(sb, LDStepBatch.AUXLINES, true);
+	            }
+	        }
+        }
+        gl2.glDisableClientState( GL2.GL_COLOR_ARRAY );
+        // override pass for selected parts
+        gl2.glLineWidth(3f);
+        gl2.glColor4f(0.6f, 1f, 0.5f,1f);
+        for (LDStepBatch sb : visible) {
+        	LDRenderedPart[] parts = sb.getParts();
+        	for (int i = 0; i < parts.length; i++) {
+        		LDRenderedPart p = parts[i];
+        		if (p.isHidden())
+        			continue;
+        		if (culling && p.isCulled()) {
+        			culledParts++;
+        			continue;
+        		}
+        		drawnParts++;
+        		if (!p.isSelected())
+        			continue;
+	            if (p.getLineVertexCount() > 0) {
+		            gl2.glBindBuffer(GL2.GL_ARRAY_BUFFER, sb.getLineName());
+		            gl2.glVertexPointer( 3, GL2.GL_FLOAT, 3 * Buffers.SIZEOF_FLOAT, 0 );
+		            gl2.glDrawArrays( GL2.GL_LINES, sb.getFirst(LDStepBatch.LINES, i), p.getLineVertexCount() );
+		            drawCalls++;
+	            }
+	            if (p.getAuxLineVertexCount() > 0) {
+		            gl2.glBindBuffer(GL2.GL_ARRAY_BUFFER, sb.getAuxLineName());
+		            gl2.glVertexPointer( 3, GL2.GL_FLOAT, 3 * Buffers.SIZEOF_FLOAT, 0 );
+		            gl2.glDrawArrays( GL2.GL_LINES, sb.getFirst(LDStepBatch.AUXLINES, i), p.getAuxLineVertexCount() );
+		            drawCalls++;
+	            }
+        	}
+        }
+        gl2.glLineWidth(1f);
+        gl2.glBindBuffer(GL2.GL_ARRAY_BUFFER, 0);
+        gl2.glDisableClientState( GL2.GL_VERTEX_ARRAY );
+	}
+	
+	
 	
 	
 	private void render(GLDrawable drawable) {
@@ -386,26 +916,75 @@ public class LDrawGLDisplay implements GLEventListener, MouseListener, MouseMoti
         gl2.glLoadIdentity();
         gl2.glMultMatrixf(viewMatrix.getAsOpenGLMatrix(), 0);
         gl2.glTranslatef(-offsetx, -offsety, -offsetz);
+        // saved for picking
+        gl2.glGetFloatv(GL2.GL_MODELVIEW_MATRIX, pickModelView, 0);
+        gl2.glGetFloatv(GL2.GL_PROJECTION_MATRIX, pickProjection, 0);
+        gl2.glGetIntegerv(GL2.GL_VIEWPORT, pickViewport, 0);
         
         gl2.glClearColor(0.90f, 0.90f, 0.90f, 0f);    // This Will Clear The Background Color
         gl2.glClear(GL2.GL_COLOR_BUFFER_BIT | GL2.GL_DEPTH_BUFFER_BIT);    // Clear The Screen And The Depth Buffer
         gl2.glColorMaterial( GL2.GL_FRONT_AND_BACK, GL2.GL_AMBIENT_AND_DIFFUSE );
         
-        if (bufferOk) {
+        drawCalls = 0;
+        culledParts = 0;
+        drawnParts = 0;
+        culling = frustumCulling && culler != null && bufferOk;
+        if (culling)
+        	culler.cull(pickProjection, pickModelView);
+        if (bufferOk && batched) {
+        	renderBatches();
+        }
+        else if (bufferOk) {
             gl2.glEnableClientState( GL2.GL_VERTEX_ARRAY );
-	        for (LDRenderedPart p : model.getParts()) {
+            // visible parts already in buffers
+            int[] range = model.getVisibleRange();
+            for (LDInstancedMesh im : instancedMeshes) {
+            	im.clearFrame();
+            }
+	        for (LDRenderedPart p : received.subList(Math.min(range[0], uploaded), Math.min(range[1], uploaded))) {
+	        	if (!p.isHidden()) {
+	        		if (culling && p.isCulled()) {
+	        			culledParts++;
+	        			continue;
+	        		}
+	        		drawnParts++;
+	        	}
+	        	LDInstancedMesh im = instancing ? p.getInstancedMesh() : null;
+	        	if (im != null) {
+	        	// drawn later, with other instances
+	        		if (!p.isHidden())
+	        			im.addInstance(p);
+	        		continue;
+	        	}
             // draw triangles and lines
 	            gl2.glEnableClientState( GL2.GL_COLOR_ARRAY );
 	        	if (p.getTriangleVertexCount() > 0 && polygon && !p.isHidden()) {
 	                if (lighting)
 	                	gl2.glEnable(GL2.GL_LIGHTING);
 		            gl2.glEnableClientState(GL2.GL_NORMAL_ARRAY);
-		            gl2.glBindBuffer( GL2.GL_ARRAY_BUFFER, p.getTriangleName() );
-		            gl2.glVertexPointer( 3, GL2.GL_FLOAT, 6 * Buffers.SIZEOF_FLOAT, 0 );
-		            gl2.glNormalPointer(GL2.GL_FLOAT,6 * Buffers.SIZEOF_FLOAT ,3 * Buffers.SIZEOF_FLOAT);
-		            gl2.glBindBuffer(GL2.GL_ARRAY_BUFFER, p.getTriangleColorName());
-		            gl2.glColorPointer( 4, GL2.GL_UNSIGNED_BYTE, 4 * Buffers.SIZEOF_BYTE, 0 );
-		            gl2.glDrawArrays( GL2.GL_TRIANGLES, 0, p.getTriangleVertexCount() );
+		            float[] dq = p.getDequantization();
+		            setTrianglePointers(p.getTriangleName(), p.getTriangleColorName(), dq != null);
+		            if (dq != null) {
+		            // back from quantized to model space, uniform scale
+		            	gl2.glPushMatrix();
+		            	gl2.glTranslatef(dq[0], dq[1], dq[2]);
+		            	gl2.glScalef(dq[3], dq[3], dq[3]);
+		            	gl2.glEnable(GL2.GL_RESCALE_NORMAL);
+		            }
+		            if (p.isIndexed()) {
+		            	gl2.glBindBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER, p.getTriangleIndexName());
+		            	gl2.glDrawElements( GL2.GL_TRIANGLES, p.getTriangleVertexCount(), 
+		            			p.isShortIndex() ? GL2.GL_UNSIGNED_SHORT : GL2.GL_UNSIGNED_INT, 0 );
+		            	gl2.glBindBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER, 0);
+		            }
+		            else {
+		            	gl2.glDrawArrays( GL2.GL_TRIANGLES, 0, p.getTriangleVertexCount() );
+		            }
+		            if (dq != null) {
+		            	gl2.glDisable(GL2.GL_RESCALE_NORMAL);
+		            	gl2.glPopMatrix();
+		            }
+		            drawCalls++;
 		            gl2.glDisableClientState( GL2.GL_NORMAL_ARRAY );	
 		            gl2.glBindBuffer( GL2.GL_ARRAY_BUFFER, 0 );
 		            gl2.glDisable(GL2.GL_LIGHTING);
@@ -418,12 +997,14 @@ public class LDrawGLDisplay implements GLEventListener, MouseListener, MouseMoti
 			            gl2.glBindBuffer(GL2.GL_ARRAY_BUFFER, p.getLineName());
 			            gl2.glVertexPointer( 3, GL2.GL_FLOAT, 3 * Buffers.SIZEOF_FLOAT, 0 );
 			            gl2.glDrawArrays( GL2.GL_LINES, 0, p.getLineVertexCount() );
+			            drawCalls++;
 			            gl2.glBindBuffer(GL2.GL_ARRAY_BUFFER, 0);
 		            }
 		            if (p.getAuxLineVertexCount() > 0) {
 			            gl2.glBindBuffer(GL2.GL_ARRAY_BUFFER, p.getAuxLineName());
 			            gl2.glVertexPointer( 3, GL2.GL_FLOAT, 3 * Buffers.SIZEOF_FLOAT, 0 );
 			            gl2.glDrawArrays( GL2.GL_LINES, 0, p.getAuxLineVertexCount() );
+			            drawCalls++;
 			            gl2.glBindBuffer(GL2.GL_ARRAY_BUFFER, 0);
 		            }
 		            gl2.glEnableClientState( GL2.GL_COLOR_ARRAY );
@@ -436,6 +1017,7 @@ public class LDrawGLDisplay implements GLEventListener, MouseListener, MouseMoti
 			            gl2.glBindBuffer(GL2.GL_ARRAY_BUFFER, p.getLineColorName());
 			            gl2.glColorPointer( 4, GL2.GL_UNSIGNED_BYTE, 4 * Buffers.SIZEOF_BYTE, 0 );
 			            gl2.glDrawArrays( GL2.GL_LINES, 0, p.getLineVertexCount() );
+			            drawCalls++;
 			            gl2.glBindBuffer(GL2.GL_ARRAY_BUFFER, 0);
 	        		}
 		            if (!polygon && p.getAuxLineVertexCount() > 0) {
@@ -445,11 +1027,14 @@ public class LDrawGLDisplay implements GLEventListener, MouseListener, MouseMoti
 			            gl2.glBindBuffer(GL2.GL_ARRAY_BUFFER, p.getAuxLineColorName());
 			            gl2.glColorPointer( 4, GL2.GL_UNSIGNED_BYTE, 4 * Buffers.SIZEOF_BYTE, 0 );
 			            gl2.glDrawArrays( GL2.GL_LINES, 0, p.getAuxLineVertexCount() );
+			            drawCalls++;
 			            gl2.glBindBuffer(GL2.GL_ARRAY_BUFFER, 0);
 		            }
 	            }
 	            gl2.glDisableClientState( GL2.GL_COLOR_ARRAY );
 	        }
+	        if (instancing)
+	        	renderInstances();
             gl2.glDisableClientState( GL2.GL_VERTEX_ARRAY );
         }
 
@@ -457,6 +1042,147 @@ public class LDrawGLDisplay implements GLEventListener, MouseListener, MouseMoti
 	
 	
 	
+	/*
+	 * draws instanced parts collected in this frame, with a call for 
+	 * every shared mesh. Highlighted lines of selected instances are
+	 * drawn one by one.
+	 */
+	private void renderInstances() {
+		
+		for (LDInstancedMesh im : instancedMeshes) {
+			if (im.getFrameCount() == 0 && im.getInstanceCount() == 0)
+				continue;
+			FloatBuffer data = im.updateInstances();
+			if (data != null) {
+			// instances changed since last frame
+		        gl2.glBindBuffer( GL2.GL_ARRAY_BUFFER, im.getInstanceName() );
+		        gl2.glBufferData( GL2.GL_ARRAY_BUFFER, data.remaining() * Buffers.SIZEOF_FLOAT, data, GL2.GL_DYNAMIC_DRAW );
+			}
+			int count = im.getInstanceCount();
+			int unselected = im.getUnselectedCount();
+			if (count == 0)
+				continue;
+			gl2.glUseProgram(instanceProgram);
+	        gl2.glBindBuffer( GL2.GL_ARRAY_BUFFER, im.getInstanceName() );
+			for (int r = 0; r < 3; r++) {
+				gl2.glEnableVertexAttribArray(instanceRow[r]);
+				gl2.glVertexAttribPointer(instanceRow[r], 4, GL2.GL_FLOAT, false, 
+						LDInstancedMesh.INSTANCE_SIZE * Buffers.SIZEOF_FLOAT, r * 4 * Buffers.SIZEOF_FLOAT);
+				gl3.glVertexAttribDivisor(instanceRow[r], 1);
+			}
+            gl2.glEnableClientState( GL2.GL_COLOR_ARRAY );
+			if (polygon && im.getTriangleVertexCount() > 0) {
+				gl2.glUniform1i(instanceLit, lighting ? 1 : 0);
+	            gl2.glEnableClientState(GL2.GL_NORMAL_ARRAY);
+	            setTrianglePointers(im.getTriangleName(), im.getTriangleColorName(), false);
+	            if (im.isIndexed()) {
+	            	gl2.glBindBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER, im.getTriangleIndexName());
+	            	gl3.glDrawElementsInstanced( GL2.GL_TRIANGLES, im.getTriangleVertexCount(), 
+	            			im.isShortIndex() ? GL2.GL_UNSIGNED_SHORT : GL2.GL_UNSIGNED_INT, 0, count );
+	            	gl2.glBindBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER, 0);
+	            }
+	            else {
+	            	gl3.glDrawArraysInstanced( GL2.GL_TRIANGLES, 0, im.getTriangleVertexCount(), count );
+	            }
+	            drawCalls++;
+	            gl2.glDisableClientState( GL2.GL_NORMAL_ARRAY );
+			}
+			gl2.glUniform1i(instanceLit, 0);
+			if (wireframe && unselected > 0) {
+				if (im.getLineVertexCount() > 0) {
+		            gl2.glBindBuffer(GL2.GL_ARRAY_BUFFER, im.getLineName());
+		            gl2.glVertexPointer( 3, GL2.GL_FLOAT, 3 * Buffers.SIZEOF_FLOAT, 0 );
+		            gl2.glBindBuffer(GL2.GL_ARRAY_BUFFER, im.getLineColorName());
+		            gl2.glColorPointer( 4, GL2.GL_UNSIGNED_BYTE, 4 * Buffers.SIZEOF_BYTE, 0 );
+		            gl3.glDrawArraysInstanced( GL2.GL_LINES, 0, im.getLineVertexCount(), unselected );
+		            drawCalls++;
+				}
+	            if (!polygon && im.getAuxLineVertexCount() > 0) {
+    	// display aux lines only if polygons are hidden
+		            gl2.glBindBuffer(GL2.GL_ARRAY_BUFFER, im.getAuxLineName());
+		            gl2.glVertexPointer( 3, GL2.GL_FLOAT, 3 * Buffers.SIZEOF_FLOAT, 0 );
+		            gl2.glBindBuffer(GL2.GL_ARRAY_BUFFER, im.getAuxLineColorName());
+		            gl2.glColorPointer( 4, GL2.GL_UNSIGNED_BYTE, 4 * Buffers.SIZEOF_BYTE, 0 );
+		            gl3.glDrawArraysInstanced( GL2.GL_LINES, 0, im.getAuxLineVertexCount(), unselected );
+		            drawCalls++;
+	            }
+			}
+            gl2.glDisableClientState( GL2.GL_COLOR_ARRAY );
+			for (int r = 0; r < 3; r++) {
+				gl3.glVertexAttribDivisor(instanceRow[r], 0);
+				gl2.glDisableVertexAttribArray(instanceRow[r]);
+			}
+			gl2.glUseProgram(0);
+			if (unselected < count) {
+			// selected instances, fixed pipeline
+	            gl2.glLineWidth(3f);
+	            gl2.glColor4f(0.6f, 1f, 0.5f,1f);
+	            LDRenderedPart[] instances = im.getInstances();
+				for (int i = unselected; i < count; i++) {
+					instances[i].placedPart.getTransform().getAsOpenGLMatrix(instanceMatrix, 0);
+					gl2.glPushMatrix();
+					gl2.glMultMatrixf(instanceMatrix, 0);
+		            if (im.getLineVertexCount() > 0) {
+			            gl2.glBindBuffer(GL2.GL_ARRAY_BUFFER, im.getLineName());
+			            gl2.glVertexPointer( 3, GL2.GL_FLOAT, 3 * Buffers.SIZEOF_FLOAT, 0 );
+			            gl2.glDrawArrays( GL2.GL_LINES, 0, im.getLineVertexCount() );
+			            drawCalls++;
+		            }
+		            if (im.getAuxLineVertexCount() > 0) {
+			            gl2.glBindBuffer(GL2.GL_ARRAY_BUFFER, im.getAuxLineName());
+			            gl2.glVertexPointer( 3, GL2.GL_FLOAT, 3 * Buffers.SIZEOF_FLOAT, 0 );
+			            gl2.glDrawArrays( GL2.GL_LINES, 0, im.getAuxLineVertexCount() );
+			            drawCalls++;
+		            }
+					gl2.glPopMatrix();
+				}
+	            gl2.glLineWidth(1f);
+			}
+		}
+        gl2.glBindBuffer(GL2.GL_ARRAY_BUFFER, 0);
+	}
+	
+	
+	
+	/*
+	 * compiles and links shaders for instanced parts
+	 * 
+	 * @return program name, 0 if shaders can't be built
+	 */
+	private int buildInstanceProgram() {
+		
+		int[] shaders = new int[] { gl2.glCreateShader(GL2.GL_VERTEX_SHADER), gl2.glCreateShader(GL2.GL_FRAGMENT_SHADER) };
+		String[] sources = new String[] { INSTANCE_VERTEX_SHADER, INSTANCE_FRAGMENT_SHADER };
+		int[] status = new int[1];
+		byte[] log = new byte[4096];
+		int program = gl2.glCreateProgram();
+		for (int i = 0; i < shaders.length; i++) {
+			gl2.glShaderSource(shaders[i], 1, new String[] { sources[i] }, new int[] { sources[i].length() }, 0);
+			gl2.glCompileShader(shaders[i]);
+			gl2.glGetShaderiv(shaders[i], GL2.GL_COMPILE_STATUS, status, 0);
+			if (status[0] == 0) {
+				gl2.glGetShaderInfoLog(shaders[i], log.length, status, 0, log, 0);
+				System.out.println("[LDrawGLDisplay] Instance shader: " + new String(log, 0, status[0]));
+				return 0;
+			}
+			gl2.glAttachShader(program, shaders[i]);
+		}
+		gl2.glLinkProgram(program);
+		gl2.glGetProgramiv(program, GL2.GL_LINK_STATUS, status, 0);
+		if (status[0] == 0) {
+			gl2.glGetProgramInfoLog(program, log.length, status, 0, log, 0);
+			System.out.println("[LDrawGLDisplay] Instance shader: " + new String(log, 0, status[0]));
+			return 0;
+		}
+		for (int r = 0; r < 3; r++) {
+			instanceRow[r] = gl2.glGetAttribLocation(program, "row" + r);
+		}
+		instanceLit = gl2.glGetUniformLocation(program, "lit");
+		return program;
+	}
+	
+	
+	
 	
 	@Override
 	public void display(GLAutoDrawable drawable) {
@@ -464,34 +1190,15 @@ public class LDrawGLDisplay implements GLEventListener, MouseListener, MouseMoti
 		long t0 = System.nanoTime();
 		glcontext.makeCurrent();
 		
+		// model is still rendering, or buffers are filled again
+		boolean more = uploadParts(uploadBudgetMs * 1000000L);
 		render(drawable);
         
         canvas.swapBuffers();
-        if (selection) {
-        	// draw in back-buffer same model with color-mode selection
-            if (bufferOk) {
-                gl2.glClearColor(0, 0, 0, 255);    // background is solid black
-            	
-            	gl2.glClear(GL2.GL_COLOR_BUFFER_BIT | GL2.GL_DEPTH_BUFFER_BIT);
-	            gl2.glEnableClientState( GL2.GL_VERTEX_ARRAY );
-    	        for (LDRenderedPart p : model.getParts()) {
-    	        	gl2.glColor3ub(
-    	        			(byte)((p.getId()&0xff0000)>>16), 
-    	        			(byte) ((p.getId()&0xff00)>>8), 
-    	        			(byte)(p.getId()&0xff));
-    	        	if (p.getTriangleVertexCount() > 0 && !p.isHidden()) {
-    		            gl2.glBindBuffer( GL2.GL_ARRAY_BUFFER, p.getTriangleName() );
-    		            gl2.glVertexPointer( 3, GL2.GL_FLOAT, 6 * Buffers.SIZEOF_FLOAT, 0 );
-    		            gl2.glDrawArrays( GL2.GL_TRIANGLES, 0, p.getTriangleVertexCount() );
-    		            gl2.glBindBuffer( GL2.GL_ARRAY_BUFFER, 0 );
-    	        	}
-    	        }
-	            gl2.glDisableClientState( GL2.GL_VERTEX_ARRAY );
-            }
-        }
-
         glcontext.release();
         drawingTime = System.nanoTime()-t0;
+        if (more)
+        	canvas.repaint();
         if (gl2.glGetError() != 0)
         	System.out.println("[LDrawGLDisplay] " +gl2.glGetError());
 	}
@@ -525,6 +1232,18 @@ public class LDrawGLDisplay implements GLEventListener, MouseListener, MouseMoti
         gl2.glDepthFunc(GL2.GL_LESS);     // The Type Of Depth Test To Do
         gl2.glEnable(GL2.GL_DEPTH_TEST);  // Enables Depth Testing
 
+        compactSupported = glcontext.getGLVersionNumber().compareTo(new VersionNumber(3, 3, 0)) >= 0 
+        		|| gl2.isExtensionAvailable("GL_ARB_vertex_type_2_10_10_10_rev");
+        if (compactVertices && !compactSupported)
+        	System.out.println("[LDrawGLDisplay] Packed normals not supported, compact vertex disabled");
+        // instanced parts are drawn one by one without it
+        if (glcontext.getGLVersionNumber().compareTo(new VersionNumber(3, 3, 0)) >= 0 && gl2.isGL3bc()) {
+        	instanceProgram = buildInstanceProgram();
+        	gl3 = instanceProgram != 0 ? gl2.getGL3bc() : null;
+        }
+        if (LDRenderedPart.instancedParts && gl3 == null)
+        	System.out.println("[LDrawGLDisplay] Instanced drawing not supported, instanced parts drawn one by one");
+
         gl2.glMatrixMode(GL2.GL_PROJECTION);
         gl2.glLoadIdentity();  			  // Reset The Projection Matrix
         int glerror = gl2.glGetError(); 
@@ -578,6 +1297,29 @@ public class LDrawGLDisplay implements GLEventListener, MouseListener, MouseMoti
 	
 	
 	
+	/**
+	 * Finds part under a window point, casting a ray from near to far
+	 * clipping plane with matrices used for last frame
+	 * 
+	 * @param x	window coordinate
+	 * @param y window coordinate, from bottom
+	 * @return global part id, or 0 if no part is found
+	 */
+	public int pick(int x, int y) {
+		
+		if (bvh == null)
+			return 0;
+		float[] near = new float[3];
+		float[] far = new float[3];
+		if (!pickGlu.gluUnProject(x, y, 0f, pickModelView, 0, pickProjection, 0, pickViewport, 0, near, 0) ||
+				!pickGlu.gluUnProject(x, y, 1f, pickModelView, 0, pickProjection, 0, pickViewport, 0, far, 0))
+			return 0;
+		LDRenderedPart p = bvh.pick(near, new float[] { far[0]-near[0], far[1]-near[1], far[2]-near[2] });
+		return p == null ? 0 : p.getId();
+	}
+	
+	
+	
 	/* 
 	 * mouse listeners for part picking (non Javadoc)
 	 * @see java.awt.event.MouseListener#mouseClicked(java.awt.event.MouseEvent)
@@ -597,15 +1339,10 @@ public class LDrawGLDisplay implements GLEventListener, MouseListener, MouseMoti
 		// only button1 or button3 (left or right)
 		int button = e.getButton();
 		if ((button == MouseEvent.BUTTON1 || button == MouseEvent.BUTTON3) && 
-				bufferOk) {
-			glcontext.makeCurrent();
+				bufferOk && selection && bvh != null) {
 			int clickedX = e.getX();
 			int clickedY = canvas.getHeight()-e.getY();
-			ByteBuffer b = ByteBuffer.allocateDirect(4);
-			b.order(ByteOrder.nativeOrder());
-			gl2.glReadPixels(clickedX, clickedY, 1, 1, GL2.GL_RGB, GL2.GL_UNSIGNED_BYTE, b);
-			int selectedId = (int) (b.get(0)&0xff)*65536+(int)(b.get(1)&0xff)*256+(int)(b.get(2)&0xff);
-			glcontext.release();
+			int selectedId = pick(clickedX, clickedY);
 		// select pick mode
 			PickMode pm = PickMode.NONE;
 			if (e.isControlDown()) {
@@ -76,6 +76,8 @@ public class LDrawModel {
 
 		LDrawPart.clearCustomParts();
 		LDrawPart.clearParts();
+		// library parts of previous model can be evicted now
+		LDrawPart.unpinAll();
 		LDRenderedPart.clearRenderedParts();
 	}
 
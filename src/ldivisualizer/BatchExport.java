@@ -0,0 +1,285 @@
+/*
+	Copyright 2026 LDraw Instruction Visualizer contributors
+	This file is part of LDIVisualizer
+
+	LDIVisualizer is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	LDIVisualizer is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with LDIVisualizer.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package ldivisualizer;
+
+import it.romabrick.ldrawlib.LDPrimitive;
+import it.romabrick.ldrawlib.LDrawContext;
+import it.romabrick.ldrawlib.LDrawException;
+import it.romabrick.ldrawlib.LDrawLib;
+import it.romabrick.ldrawlib.LDrawPart;
+import it.romabrick.matrix3d.Matrix3D;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import javax.imageio.ImageIO;
+
+import jldraw.ImportLDrawProjectTask;
+import jldraw.LDRenderedModel;
+import jldraw.LDSoftwareRenderer;
+import jldraw.LDrawModel;
+import ldivisualizer.toolbox.IOAssistant;
+
+/**
+ * Exports step images from command line, without display or OpenGL
+ *
+ * Model is read with the same import task used by main window, images
+ * are drawn by LDSoftwareRenderer. While next step is drawn, images
+ * already drawn are written as PNG by a pool of threads.
+ *
+ * Every model is loaded in its own LDrawContext, so many models can be
+ * exported at once (option -m). Library part definitions are read once
+ * and shared by all models.
+ *
+ * <pre>
+ * java -cp ... ldivisualizer.BatchExport -l &lt;LDraw library&gt; [options] &lt;model&gt; [&lt;model&gt;...]
+ *   -u &lt;dir&gt;      additional (unofficial) library
+ *   -o &lt;dir&gt;      output folder, default is the one used by "Generate Final Images"
+ *   -w &lt;pixels&gt;   image width (1024)
+ *   -h &lt;pixels&gt;   image height (768)
+ *   -rx &lt;deg&gt;    view rotation on X axis (-30)
+ *   -ry &lt;deg&gt;    view rotation on Y axis (45)
+ *   -t &lt;count&gt;    threads (available processors)
+ *   -m &lt;count&gt;    models exported at once (1)
+ *   -single       only parts of current step are drawn
+ * </pre>
+ */
+public class BatchExport {
+
+	private static void usage(String message) {
+
+		if (message != null)
+			System.out.println("[BatchExport] " + message);
+		System.out.println("Usage: BatchExport -l <LDraw library> [-u <dir>] [-o <dir>] [-w <pixels>] [-h <pixels>]\n"
+				+ "                   [-rx <deg>] [-ry <deg>] [-t <threads>] [-m <models>] [-single] <model> [<model>...]");
+		System.exit(1);
+	}
+
+
+
+	public static void main(String[] args) {
+
+		System.setProperty("java.awt.headless", "true");
+
+		File official = null, unofficial = null, output = null;
+		List<File> modelFiles = new ArrayList<File>();
+		int width = 1024, height = 768;
+		float rx = -30f, ry = 45f;
+		int threads = Runtime.getRuntime().availableProcessors();
+		int models = 1;
+		boolean single = false;
+		try {
+			for (int i = 0; i < args.length; i++) {
+				String a = args[i];
+				if (a.equals("-l"))
+					official = new File(args[++i]);
+				else if (a.equals("-u"))
+					unofficial = new File(args[++i]);
+				else if (a.equals("-o"))
+					output = new File(args[++i]);
+				else if (a.equals("-w"))
+					width = Integer.parseInt(args[++i]);
+				else if (a.equals("-h"))
+					height = Integer.parseInt(args[++i]);
+				else if (a.equals("-rx"))
+					rx = Float.parseFloat(args[++i]);
+				else if (a.equals("-ry"))
+					ry = Float.parseFloat(args[++i]);
+				else if (a.equals("-t"))
+					threads = Math.max(1, Integer.parseInt(args[++i]));
+				else if (a.equals("-m"))
+					models = Math.max(1, Integer.parseInt(args[++i]));
+				else if (a.equals("-single"))
+					single = true;
+				else if (a.startsWith("-"))
+					usage("Unknown option " + a);
+				else
+					modelFiles.add(new File(a));
+			}
+		} catch (ArrayIndexOutOfBoundsException | NumberFormatException ex) {
+			usage("Invalid arguments");
+		}
+		if (official == null || modelFiles.isEmpty())
+			usage(null);
+		for (File f : modelFiles) {
+			if (!f.isFile())
+				usage("Model not found: " + f.getPath());
+		}
+
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		ExecutorService writers = Executors.newFixedThreadPool(threads);
+		ExecutorService exports = Executors.newFixedThreadPool(Math.min(models, modelFiles.size()));
+		try {
+			long t0 = System.currentTimeMillis();
+			LDrawLib.setIndexDirectory(IOAssistant.appDataPath().toFile());
+			LDrawPart.setPartCacheDirectory(IOAssistant.appDataPath().toFile());
+			final LDrawLib lib = new LDrawLib(official, unofficial);
+			LDRenderedModel.setRenderPool(pool);
+			List<Future<Integer>> done = new ArrayList<Future<Integer>>();
+			for (final File modelFile : modelFiles) {
+				final File out = output;
+				final int w = width, h = height, t = threads;
+				final float x = rx, y = ry;
+				final boolean s = single;
+				final ForkJoinPool p = pool;
+				final ExecutorService ws = writers;
+				done.add(exports.submit(new Callable<Integer>() {
+					public Integer call() throws Exception {
+						LDrawContext previous = LDrawContext.setCurrent(new LDrawContext(lib));
+						try {
+							return export(modelFile, out, w, h, x, y, p, ws, t * 2, s);
+						} finally {
+							LDrawContext.setCurrent(previous);
+						}
+					}
+				}));
+			}
+			int count = 0;
+			for (Future<Integer> f : done) {
+				count += f.get();
+			}
+			System.out.println("[BatchExport] " + count + " images exported in "
+					+ (System.currentTimeMillis() - t0) + " ms");
+			System.exit(0);
+		} catch (Exception ex) {
+			ex.printStackTrace();
+			System.exit(2);
+		} finally {
+			exports.shutdownNow();
+			writers.shutdownNow();
+			pool.shutdown();
+			LDRenderedModel.setRenderPool(null);
+		}
+	}
+
+
+
+	/**
+	 * Reads a model and writes an image for every step, in current
+	 * LDrawContext of calling thread
+	 *
+	 * @param output	folder for images, <b>null</b> to use IOAssistant.finalImagePath()
+	 * @param pool		pool for rendering, must be also LDRenderedModel render pool
+	 * @param writers	threads that write images
+	 * @param maxPending	images drawn but not yet written, at most
+	 * @return	number of images
+	 */
+	public static int export(File modelFile, File output, int width, int height, float rx, float ry,
+			ForkJoinPool pool, ExecutorService writers, int maxPending, boolean single)
+			throws IOException, InterruptedException {
+
+		ImportLDrawProjectTask task = new ImportLDrawProjectTask(modelFile);
+		// runs in this thread
+		task.run();
+		try {
+			task.get();
+		} catch (ExecutionException ex) {
+			throw new IOException("Unable to read model " + modelFile.getPath(), ex.getCause());
+		}
+		if (task.isWarnings())
+			System.out.print(task.getInternalLog());
+		LDrawModel model = task.getModel();
+
+		// same as MainWindow: a model without steps gets one
+		if (model.stepCount() == 0) {
+			try {
+				model.addStep(LDrawPart.newPlacedStep(LDPrimitive.newStep("1000")));
+			} catch (LDrawException ex) {
+				throw new IOException(ex);
+			}
+		}
+		LDrawPart first = model.getStep(1);
+		if (first != null) {
+			for (LDrawPart part : model.getPartList()) {
+				if (part.getStepIndex() < 1) part.setStepIndex(first.getStepIndex());
+			}
+		}
+
+		if (output == null) {
+			// model name is global in IOAssistant
+			synchronized (IOAssistant.class) {
+				IOAssistant.modelName = model.getName();
+				output = IOAssistant.finalImagePath().toFile();
+			}
+		}
+		else if (!output.isDirectory() && !output.mkdirs()) {
+			throw new IOException("Unable to create folder " + output.getPath());
+		}
+
+		// images waiting to be written
+		final Semaphore pending = new Semaphore(maxPending);
+		List<Future<?>> written = new ArrayList<Future<?>>();
+		try {
+			LDRenderedModel rendered = LDRenderedModel.newLDRenderedModel(model, null);
+			rendered.run();
+
+			Matrix3D view = new Matrix3D().rotateY((float) (ry * Math.PI / 180)).rotateX((float) (rx * Math.PI / 180));
+			LDSoftwareRenderer renderer = new LDSoftwareRenderer(width, height);
+			renderer.setPool(pool);
+			renderer.fitView(rendered.getParts(), view);
+
+			for (int k = 0; k < model.stepCount(); k++) {
+				rendered.toggleVisibiltyForAllParts(k+1, single);
+				final BufferedImage image = renderer.render(rendered.getVisibleParts());
+				final File fileObj = new File(output, String.format("%s-%d.png", model.getName(), k));
+				pending.acquire();
+				written.add(writers.submit(new Runnable() {
+					public void run() {
+						try {
+							if (!ImageIO.write(image, "PNG", fileObj))
+								throw new IOException("No PNG writer available");
+						} catch (IOException ex) {
+							throw new IllegalStateException("Unable to write " + fileObj.getPath() + ": "
+									+ ex.getLocalizedMessage(), ex);
+						} finally {
+							pending.release();
+						}
+					}
+				}));
+			}
+			for (Future<?> f : written) {
+				try {
+					f.get();
+				} catch (ExecutionException ex) {
+					throw new IOException(ex.getCause().getLocalizedMessage(), ex.getCause());
+				}
+			}
+		} finally {
+			// drops images not yet written, if an image failed
+			for (Future<?> f : written) {
+				f.cancel(true);
+			}
+			// same clean-up as main window before next model
+			LDrawModel.clearModels();
+		}
+		return written.size();
+	}
+
+}
@@ -255,6 +255,9 @@ public class MainWindow implements PartSelectionListener {
 		frame.getContentPane().add(pnlStatusBar, BorderLayout.SOUTH);
 
 		lblNotificationArea = new JLabel("Started.");
+		if (ldrawFolder != null)
+			lblNotificationArea.setText("Started. Library ready in " + ldrawFolder.getIndexingTime() + " ms"
+					+ (ldrawFolder.isIndexReused() ? " (indexed)" : ""));
 		lblNotificationArea.setMinimumSize(new Dimension(100, 14));
 		lblNotificationArea.setMaximumSize(new Dimension(400, 14));
 		lblNotificationArea.setPreferredSize(new Dimension(400, 14));
@@ -363,6 +366,12 @@ public class MainWindow implements PartSelectionListener {
 		chckbxmntmSingleStep.setActionCommand("SingleStep");
 		mnView.add(chckbxmntmSingleStep);
 
+		JCheckBoxMenuItem chckbxmntmBatched = new JCheckBoxMenuItem("Batched Rendering");
+		chckbxmntmBatched.setToolTipText("Draw geometry of every step at once, faster with big models.");
+		chckbxmntmBatched.setMnemonic('B');
+		chckbxmntmBatched.setActionCommand("Batched");
+		mnView.add(chckbxmntmBatched);
+
 		JMenuItem mntmResetZoom = new JMenuItem("Reset Zoom");
 		mntmResetZoom.setToolTipText("Show actual step size.");
 		mntmResetZoom.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_1, InputEvent.CTRL_MASK));
@@ -516,6 +525,8 @@ public class MainWindow implements PartSelectionListener {
 
 				File pf = Paths.get(IOAssistant.appDataPath().toString(), IOAssistant.prefsFileName).toFile();
 				prefsObject = new MyPreferences(Preferences.userNodeForPackage(MainWindow.class), pf);
+				LDrawLib.setIndexDirectory(IOAssistant.appDataPath().toFile());
+				LDrawPart.setPartCacheDirectory(IOAssistant.appDataPath().toFile());
 
 				if (prefsObject.get(IOAssistant.KEY_LDRAWPATH_1).length() > 0) {
 					try {
@@ -680,7 +691,8 @@ public class MainWindow implements PartSelectionListener {
 			
 			// Display loading time
 			final double seconds = ((double)glDisplay.getDrawTimeMs() / 1000000000);
-			lblNotificationArea.setText("Done. Drawing time: "+new DecimalFormat("#.##########").format(seconds)+"s");
+			lblNotificationArea.setText("Done. Drawing time: "+new DecimalFormat("#.##########").format(seconds)+"s, "
+					+ glDisplay.getDrawCalls() + " draw calls");
 		}
 	}
 
@@ -810,6 +822,9 @@ public class MainWindow implements PartSelectionListener {
 			case "ResetZoom":
 				glDisplay.resetZoom();
 				break;
+			case "Batched":
+				glDisplay.setBatched(((JCheckBoxMenuItem) event.getSource()).isSelected());
+				break;
 			case "HideSelected":
 				for (int index : selectedParts) {
 					LDRenderedPart rp = LDRenderedPart.getByGlobalId(index);
@@ -0,0 +1,199 @@
+/*
+	Copyright 2026 LDraw Instruction Visualizer contributors
+	This file is part of JLDraw
+
+	JLDraw is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	JLDraw is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with JLDraw.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+
+package jldraw;
+
+import it.romabrick.matrix3d.Matrix3D;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+
+/**
+ * Vector API implementation of LDVertexKernel
+ *
+ * Packed vertices are loaded a full vector at a time with gather loads
+ * (one lane for every vertex), computed as structure of arrays in a
+ * scratch block and packed again into destination. Operations are done
+ * in same order as scalar kernel, without fused multiply-add, so results
+ * are the same, bit for bit.
+ *
+ * Needs JDK 16+ with --add-modules jdk.incubator.vector, both to build
+ * and to run. Loaded by LDVertexKernel.getKernel(), never referenced
+ * directly.
+ */
+public class LDVectorKernel extends LDVertexKernel {
+
+	private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+	private static final int LANES = SPECIES.length();
+	// vertices in a scratch block
+	private static final int BLOCK = 256;
+	// below this, scalar loop is faster
+	private static final int MIN_COUNT = 2 * LANES;
+	// gather index maps for strides up to this
+	private static final int MAX_STRIDE = 16;
+
+	private final int[][] indexMaps = new int[MAX_STRIDE+1][];
+	private final ThreadLocal<float[][]> scratch = new ThreadLocal<float[][]>() {
+		@Override
+		protected float[][] initialValue() {
+			return new float[4][BLOCK];
+		}
+	};
+
+
+
+	public LDVectorKernel() {
+
+		// fails here if module is not available
+		FloatVector.zero(SPECIES);
+		for (int stride=1;stride<=MAX_STRIDE;stride++) {
+			indexMaps[stride] = new int[LANES];
+			for (int k=0;k<LANES;k++) {
+				indexMaps[stride][k] = k*stride;
+			}
+		}
+	}
+
+
+
+	@Override
+	public String getName() {
+
+		return "vector kernel (" + SPECIES + ")";
+	}
+
+
+
+	@Override
+	public void transformPoints(Matrix3D m, float[] src, int srcOff, int srcStride,
+			float[] dst, int dstOff, int dstStride, int count) {
+
+		if (count < MIN_COUNT || srcStride > MAX_STRIDE) {
+			super.transformPoints(m, src, srcOff, srcStride, dst, dstOff, dstStride, count);
+			return;
+		}
+		transform(m, true, src, srcOff, srcStride, dst, dstOff, dstStride, count);
+	}
+
+
+
+	@Override
+	public void transformNormals(Matrix3D m, float[] src, int srcOff, int srcStride,
+			float[] dst, int dstOff, int dstStride, int count) {
+
+		if (count < MIN_COUNT || srcStride > MAX_STRIDE) {
+			super.transformNormals(m, src, srcOff, srcStride, dst, dstOff, dstStride, count);
+			return;
+		}
+		transform(m, false, src, srcOff, srcStride, dst, dstOff, dstStride, count);
+	}
+
+
+
+	private void transform(Matrix3D m, boolean translate, float[] src, int srcOff, int srcStride,
+			float[] dst, int dstOff, int dstStride, int count) {
+
+		float[][] s = scratch.get();
+		float[] mv = s[3];
+		m.getValues(mv, 0);
+		float a = mv[0], b = mv[1], c = mv[2], d = mv[3], e = mv[4], f = mv[5];
+		float g = mv[6], h = mv[7], i = mv[8];
+		float x = mv[9], y = mv[10], z = mv[11];
+		float[] ox = s[0], oy = s[1], oz = s[2];
+		int[] map = indexMaps[srcStride];
+		for (int base=0;base<count;base+=BLOCK) {
+			int n = Math.min(BLOCK, count-base);
+			int k = 0;
+			for (int upper=SPECIES.loopBound(n);k<upper;k+=LANES) {
+				int so = srcOff+(base+k)*srcStride;
+				FloatVector px = FloatVector.fromArray(SPECIES, src, so, map, 0);
+				FloatVector py = FloatVector.fromArray(SPECIES, src, so+1, map, 0);
+				FloatVector pz = FloatVector.fromArray(SPECIES, src, so+2, map, 0);
+				FloatVector rx = px.mul(a).add(py.mul(b)).add(pz.mul(c));
+				FloatVector ry = px.mul(d).add(py.mul(e)).add(pz.mul(f));
+				FloatVector rz = px.mul(g).add(py.mul(h)).add(pz.mul(i));
+				if (translate) {
+					rx = rx.add(x);
+					ry = ry.add(y);
+					rz = rz.add(z);
+				}
+				rx.intoArray(ox, k);
+				ry.intoArray(oy, k);
+				rz.intoArray(oz, k);
+			}
+			pack(ox, oy, oz, dst, dstOff+base*dstStride, dstStride, k);
+			// block tail
+			int st = srcOff+(base+k)*srcStride;
+			int dt = dstOff+(base+k)*dstStride;
+			if (translate)
+				super.transformPoints(m, src, st, srcStride, dst, dt, dstStride, n-k);
+			else
+				super.transformNormals(m, src, st, srcStride, dst, dt, dstStride, n-k);
+		}
+	}
+
+
+
+	@Override
+	public void normalize(float[] v, int off, int stride, int count) {
+
+		if (count < MIN_COUNT || stride > MAX_STRIDE) {
+			super.normalize(v, off, stride, count);
+			return;
+		}
+		float[][] s = scratch.get();
+		float[] ox = s[0], oy = s[1], oz = s[2];
+		int[] map = indexMaps[stride];
+		FloatVector zero = FloatVector.zero(SPECIES);
+		FloatVector one = FloatVector.broadcast(SPECIES, 1f);
+		for (int base=0;base<count;base+=BLOCK) {
+			int n = Math.min(BLOCK, count-base);
+			int start = off+base*stride;
+			int k = 0;
+			for (int upper=SPECIES.loopBound(n);k<upper;k+=LANES) {
+				int so = start+k*stride;
+				FloatVector x = FloatVector.fromArray(SPECIES, v, so, map, 0);
+				FloatVector y = FloatVector.fromArray(SPECIES, v, so+1, map, 0);
+				FloatVector z = FloatVector.fromArray(SPECIES, v, so+2, map, 0);
+				FloatVector d = x.mul(x).add(y.mul(y)).add(z.mul(z)).lanewise(VectorOperators.SQRT);
+				VectorMask<Float> degenerate = d.eq(0f);
+				x.div(d).blend(zero, degenerate).intoArray(ox, k);
+				y.div(d).blend(zero, degenerate).intoArray(oy, k);
+				z.div(d).blend(one, degenerate).intoArray(oz, k);
+			}
+			pack(ox, oy, oz, v, start, stride, k);
+			super.normalize(v, start+k*stride, stride, n-k);
+		}
+	}
+
+
+
+	private static void pack(float[] xs, float[] ys, float[] zs, float[] dst, int off, int stride, int n) {
+
+		for (int k=0,i=off;k<n;k++,i+=stride) {
+			dst[i] = xs[k];
+			dst[i+1] = ys[k];
+			dst[i+2] = zs[k];
+		}
+	}
+
+}